@@ -0,0 +1,81 @@
+package org.example.web;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static org.apache.logging.log4j.util.Unbox.box;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request-thread cost of the log events of one encode request: the same four info events, on a
+ * synchronous and on an async logger, built by concatenation and parameterized. Both loggers are
+ * at info level and write to the same file, see {@code log4j2-bench.xml}, so the four variants
+ * differ only by the logger and the message construction. With the discard policy of
+ * {@code log4j2.component.properties}, a saturated ring buffer drops info events exactly as it
+ * would in production, which the log file shows. Run with {@code -prof gc} for the allocation
+ * per request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j2.configurationFile=log4j2-bench.xml")
+public class RequestLoggingBenchmark {
+    private static final Logger sync = LogManager.getLogger("bench.sync");
+    private static final Logger async = LogManager.getLogger("bench.async");
+
+    private final File tempFile = new File(System.getProperty("java.io.tmpdir"), "upload-5f0c3a7e9b2d4e61.png");
+    private final int messageLength = 1200;
+    private final int width = 1920;
+    private final int height = 1080;
+    private final long imageBytes = 4_213_377L;
+
+    @Benchmark
+    public void syncConcatenated() {
+        concatenated(sync);
+    }
+
+    @Benchmark
+    public void syncParameterized() {
+        parameterized(sync);
+    }
+
+    @Benchmark
+    public void asyncConcatenated() {
+        concatenated(async);
+    }
+
+    @Benchmark
+    public void asyncParameterized() {
+        parameterized(async);
+    }
+
+    private void concatenated(Logger logger) {
+        logger.info("Uploaded image saved to: " + tempFile);
+        logger.info("Encoding " + messageLength + " characters into a " + width + "x" + height + " image");
+        logger.info("Encoded " + messageLength + " characters into a " + width + "x" + height + " image of " + imageBytes + " bytes");
+        logger.info("Temporary file deleted: " + tempFile);
+    }
+
+    private void parameterized(Logger logger) {
+        logger.info("Uploaded image saved to: {}", tempFile);
+        logger.info("Encoding {} characters into a {}x{} image", box(messageLength), box(width), box(height));
+        logger.info("Encoded {} characters into a {}x{} image of {} bytes",
+                box(messageLength), box(width), box(height), box(imageBytes));
+        logger.info("Temporary file deleted: {}", tempFile);
+    }
+}
@@ -0,0 +1,60 @@
+package org.example.auth;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Storage of the pending activation codes of newly registered identities.
+ * Implementations must be safe for concurrent use and expire codes on their own; the default
+ * is {@link InMemoryActivationCodeStore}, a persistent store shared by the nodes can be
+ * swapped in as a CDI alternative.
+ */
+public interface ActivationCodeStore {
+
+    /**
+     * Registers a code.
+     *
+     * @return {@code false} when the code is already pending
+     * @throws jakarta.ejb.EJBException when the store is full
+     */
+    boolean put(String code, String identityId, String email);
+
+    /**
+     * Removes a pending code.
+     *
+     * @return the activation, or {@code null} when the code is unknown or expired
+     */
+    PendingActivation consume(String code);
+
+    /**
+     * Registers a listener notified with batches of activations that expired unused.
+     */
+    void onExpired(Consumer<List<PendingActivation>> listener);
+
+    final class PendingActivation {
+        private final String identityId;
+        private final String email;
+        private final long expiresAt;
+
+        public PendingActivation(String identityId, String email, long expiresAt) {
+            this.identityId = identityId;
+            this.email = email;
+            this.expiresAt = expiresAt;
+        }
+
+        public String getIdentityId() {
+            return identityId;
+        }
+
+        public String getEmail() {
+            return email;
+        }
+
+        /**
+         * @return the expiry, in epoch milliseconds
+         */
+        public long getExpiresAt() {
+            return expiresAt;
+        }
+    }
+}
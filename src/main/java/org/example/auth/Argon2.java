@@ -2,18 +2,35 @@ package org.example.auth;
 
 import de.mkammerer.argon2.Argon2;
 import de.mkammerer.argon2.Argon2Factory;
+import de.mkammerer.argon2.Argon2Helper;
 import jakarta.enterprise.context.ApplicationScoped;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.eclipse.microprofile.config.Config;
 import org.eclipse.microprofile.config.ConfigProvider;
+
+import java.util.regex.Pattern;
+
 @ApplicationScoped
 public class Argon2Utils {
+    private static final Logger logger = LogManager.getLogger(Argon2Utils.class);
     private final static Config config = ConfigProvider.getConfig();
     private final static int saltLength = config.getValue("argon2.saltLength", Integer.class);
     private final static int hashLength = config.getValue("argon2.hashLength", Integer.class);
-    private final static int iterations = config.getValue("argon2.iterations", Integer.class);
-    private final static int memory = config.getValue("argon2.memory", Integer.class);
-    private final static int threadNumber = config.getValue("argon2.threadNumber", Integer.class);
     private final static Argon2 argon2 = Argon2Factory.create(Argon2Factory.Argon2Types.ARGON2id, saltLength, hashLength);
+    private final static Pattern encodedParameters = Pattern.compile("\\$m=(\\d+),t=(\\d+),p=(\\d+)\\$");
+
+    private static volatile Parameters parameters = new Parameters(
+            config.getValue("argon2.iterations", Integer.class),
+            config.getValue("argon2.memory", Integer.class),
+            config.getValue("argon2.threadNumber", Integer.class));
+
+    /**
+     * @return the memory cost of one hash, in KiB
+     */
+    public static int memoryCost() {
+        return parameters.memory;
+    }
 
     public static boolean check (String dbHash, char[] clientHash) {
         try {
@@ -25,12 +42,67 @@ public class Argon2Utils {
     }
 
     public static String hash(char[] clientHash) {
+        var current = parameters;
         try {
-            return argon2.hash(iterations, memory, threadNumber, clientHash);
+            return argon2.hash(current.iterations, current.memory, current.parallelism, clientHash);
         }
         finally {
             argon2.wipeArray(clientHash);
         }
     }
 
-}
\ No newline at end of file
+    /**
+     * Tells whether a stored hash was computed with weaker parameters than the current ones.
+     * The parameters are read from the encoded hash itself. Each node calibrates its own, so the
+     * cost of a hash, memory times iterations, is compared rather than the parameters: a hash from
+     * a stronger node is kept, and a password is never rehashed back and forth between nodes.
+     */
+    public static boolean needsRehash(String dbHash) {
+        var matcher = encodedParameters.matcher(dbHash);
+        if (!matcher.find()) {
+            return true;
+        }
+        var current = parameters;
+        long storedCost = Long.parseLong(matcher.group(1)) * Long.parseLong(matcher.group(2));
+        return storedCost < (long) current.memory * current.iterations;
+    }
+
+    /**
+     * Benchmarks Argon2id on this host and switches to the strongest parameters that hash within
+     * the target latency: memory is the ceiling unless a single pass already exceeds the target,
+     * iterations are then raised as far as the target allows.
+     *
+     * @param targetMillis the target latency of one hash
+     * @param maxMemory the memory ceiling, in KiB
+     * @param minMemory the memory floor, in KiB
+     */
+    public static void calibrate(long targetMillis, int maxMemory, int minMemory) {
+        var parallelism = parameters.parallelism;
+        var memory = maxMemory;
+        while (memory > minMemory && measureMillis(1, memory, parallelism) > targetMillis) {
+            memory = Math.max(minMemory, memory / 2);
+        }
+        var iterations = Argon2Helper.findIterations(argon2, targetMillis, memory, parallelism);
+        parameters = new Parameters(Math.max(1, iterations), memory, parallelism);
+        logger.info("Argon2id calibrated to t={}, m={} KiB, p={} for a {} ms target", parameters.iterations, memory, parallelism, targetMillis);
+    }
+
+    private static long measureMillis(int iterations, int memory, int parallelism) {
+        var password = "calibration".toCharArray();
+        var start = System.nanoTime();
+        argon2.hash(iterations, memory, parallelism, password);
+        return (System.nanoTime() - start) / 1_000_000L;
+    }
+
+    private static final class Parameters {
+        final int iterations;
+        final int memory;
+        final int parallelism;
+
+        Parameters(int iterations, int memory, int parallelism) {
+            this.iterations = iterations;
+            this.memory = memory;
+            this.parallelism = parallelism;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package org.example.auth;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import jakarta.enterprise.concurrent.ManagedScheduledExecutorService;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.ConfigProvider;
+import org.example.metrics.Gauge;
+import org.example.metrics.Metrics;
+import tn.supcom.appsec.entities.Identity;
+import tn.supcom.appsec.repositories.IdentityRepository;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Near cache in front of {@link IdentityRepository} for the point reads of the signup, login and
+ * token flows. Lookups by username and by email are cached for a short TTL, unknown users are
+ * cached negatively for an even shorter one, and every write through this class invalidates the
+ * affected keys. Writes made directly on the repository are only seen once entries expire.
+ * Login and token issuance read the {@link IdentityAuthView} and role projections, cached apart
+ * from the full entities.
+ * <p>
+ * A Bloom filter of every username and email, built at startup, answers most lookups of unknown
+ * keys (typically signup uniqueness checks) without reaching the store. Identities saved through
+ * other nodes are only added by the periodic rebuild, so a negative answer is only trusted while
+ * {@code identity.bloom.single.writer} holds: this node is the only writer of the store, which is
+ * the default deployment. A deployment with several nodes writing identities must set it to
+ * {@code false}; the filter is then advisory, every miss is confirmed against the store, and a
+ * warning says so at startup. A rebuild that finds identities the node never saved turns the
+ * filter back to advisory and logs an error.
+ */
+@ApplicationScoped
+public class CachedIdentityRepository {
+    private static final Logger logger = LogManager.getLogger(CachedIdentityRepository.class);
+    private static final Config config = ConfigProvider.getConfig();
+    private static final Gauge HITS = Metrics.gauge("identity_cache_hits", "Identity cache hits since startup.", null).get();
+    private static final Gauge MISSES = Metrics.gauge("identity_cache_misses", "Identity cache misses since startup.", null).get();
+    private static final Gauge EVICTIONS = Metrics.gauge("identity_cache_evictions", "Identity cache evictions since startup.", null).get();
+    private static final Gauge ENTRIES = Metrics.gauge("identity_cache_entries", "Entries held by the identity caches.", null).get();
+    private static final Gauge BLOOM_BYTES = Metrics.gauge("identity_bloom_bytes", "Memory held by the identity Bloom filter.", null).get();
+    private static final Gauge BLOOM_FPP = Metrics.gauge("identity_bloom_false_positive_rate", "Estimated false-positive rate of the identity Bloom filter.", null).get();
+
+    @Inject
+    IdentityRepository identityRepository;
+    @Resource
+    ManagedScheduledExecutorService managedScheduler;
+
+    private final int maxEntries = config.getOptionalValue("identity.cache.max.entries", Integer.class).orElse(10_000);
+    private final long ttlMillis = config.getOptionalValue("identity.cache.ttl.ms", Long.class).orElse(60_000L);
+    private final long negativeTtlMillis = config.getOptionalValue("identity.cache.negative.ttl.ms", Long.class).orElse(5_000L);
+
+    private final TtlCache<String, Identity> byUsername = new TtlCache<>(maxEntries, ttlMillis, negativeTtlMillis);
+    private final TtlCache<String, Identity> byEmail = new TtlCache<>(maxEntries, ttlMillis, negativeTtlMillis);
+    private final TtlCache<String, IdentityAuthView> authViews = new TtlCache<>(maxEntries, ttlMillis, negativeTtlMillis);
+    private final TtlCache<String, Long> roleMasks = new TtlCache<>(maxEntries, ttlMillis, negativeTtlMillis);
+
+    private final long bloomExpectedInsertions = config.getOptionalValue("identity.bloom.expected.insertions", Long.class).orElse(1_000_000L);
+    private final double bloomFalsePositiveRate = config.getOptionalValue("identity.bloom.fpp", Double.class).orElse(0.01d);
+    private final long bloomRebuildMinutes = config.getOptionalValue("identity.bloom.rebuild.minutes", Long.class).orElse(60L);
+    // Whether a key absent from the filter is absent from the store
+    private volatile boolean bloomAuthoritative = config.getOptionalValue("identity.bloom.single.writer", Boolean.class).orElse(true);
+    // null until the first build completes, every lookup goes to the store meanwhile
+    private volatile BloomFilter bloom;
+    // The filter being rebuilt, receives the saves made during the rebuild
+    private volatile BloomFilter building;
+    private ScheduledExecutorService ownScheduler;
+    private ScheduledFuture<?> rebuilder;
+
+    public void onStart(@Observes @Initialized(ApplicationScoped.class) Object event) {
+        HITS.set(this::getHitCount);
+        MISSES.set(this::getMissCount);
+        EVICTIONS.set(this::getEvictionCount);
+        ENTRIES.set(this::size);
+        BLOOM_BYTES.set(this::getBloomFilterByteSize);
+        BLOOM_FPP.set(this::getBloomFilterFalsePositiveRate);
+        if (!bloomAuthoritative) {
+            logger.warn("identity.bloom.single.writer is false, the identity Bloom filter is advisory:"
+                    + " unknown usernames and emails are always checked against the store");
+        }
+        ScheduledExecutorService scheduler = managedScheduler;
+        if (scheduler == null) {
+            scheduler = ownScheduler = Executors.newSingleThreadScheduledExecutor();
+        }
+        rebuilder = scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                rebuildBloomFilter();
+            } catch (RuntimeException e) {
+                logger.error("Identity Bloom filter rebuild failed", e);
+            }
+        }, 0L, bloomRebuildMinutes, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (rebuilder != null) {
+            rebuilder.cancel(false);
+        }
+        if (ownScheduler != null) {
+            ownScheduler.shutdown();
+        }
+    }
+
+    /**
+     * Rebuilds the Bloom filter from the store, dropping the bits of deleted identities.
+     */
+    public synchronized void rebuildBloomFilter() {
+        long start = System.nanoTime();
+        BloomFilter previous = bloom;
+        BloomFilter filter = BloomFilter.create(bloomExpectedInsertions, bloomFalsePositiveRate);
+        long[] foreign = new long[1];
+        building = filter;
+        try (Stream<Identity> identities = identityRepository.findAll()) {
+            identities.forEach(identity -> {
+                addTo(filter, identity);
+                if (previous != null && identity.getUsername() != null && !previous.mightContain("u:" + identity.getUsername())) {
+                    foreign[0]++;
+                }
+            });
+            // Published before the saves stop adding to it, or a save in between would reach neither filter
+            bloom = filter;
+        } finally {
+            building = null;
+        }
+        if (foreign[0] > 0 && bloomAuthoritative) {
+            bloomAuthoritative = false;
+            logger.error("{} identities were written by another node, identity.bloom.single.writer does not hold;"
+                    + " unknown usernames and emails are now checked against the store", foreign[0]);
+        }
+        logger.info("Identity Bloom filter built with {} identities in {} ms, {} bytes, estimated false positive rate {}",
+                filter.getInsertionCount(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                filter.getByteSize(), filter.getFalsePositiveRate());
+    }
+
+    public Optional<Identity> findByUsername(String username) {
+        if (knownAbsent("u:" + username)) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(byUsername.get(username, key -> identityRepository.findByUsername(key).orElse(null)));
+    }
+
+    public Optional<Identity> findByEmail(String email) {
+        if (knownAbsent("e:" + email)) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(byEmail.get(email, key -> identityRepository.findByEmail(key).orElse(null)));
+    }
+
+    public Optional<IdentityAuthView> findAuthViewByUsername(String username) {
+        if (knownAbsent("u:" + username)) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(authViews.get(username, key -> identityRepository.findAuthViewByUsername(key).orElse(null)));
+    }
+
+    public Optional<Long> findRolesByUsername(String username) {
+        if (knownAbsent("u:" + username)) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(roleMasks.get(username, key -> identityRepository.findRolesByUsername(key).orElse(null)));
+    }
+
+    public Optional<Identity> findById(String id) {
+        return identityRepository.findById(id);
+    }
+
+    public Identity save(Identity identity) {
+        // Added before the write, a lookup may never see the identity stored but absent from the filter
+        addToFilters(identity);
+        invalidate(identity);
+        Identity saved = identityRepository.save(identity);
+        // And after it, in case a rebuild read the store before the write and swapped filters meanwhile
+        addToFilters(saved);
+        invalidate(saved);
+        return saved;
+    }
+
+    public void saveAll(List<Identity> identities) {
+        for (Identity identity : identities) {
+            addToFilters(identity);
+            invalidate(identity);
+        }
+        identityRepository.saveAll(identities);
+        for (Identity identity : identities) {
+            addToFilters(identity);
+            invalidate(identity);
+        }
+    }
+
+    public void delete(Identity identity) {
+        identityRepository.delete(identity);
+        invalidate(identity);
+    }
+
+    public void deleteByIdIn(List<String> ids) {
+        identityRepository.deleteByIdIn(ids);
+        // Only the ids are known, drop everything rather than leave deleted identities cached
+        byUsername.invalidateAll();
+        byEmail.invalidateAll();
+        authViews.invalidateAll();
+        roleMasks.invalidateAll();
+    }
+
+    private boolean knownAbsent(String key) {
+        BloomFilter filter = bloom;
+        return bloomAuthoritative && filter != null && !filter.mightContain(key);
+    }
+
+    /**
+     * Adds to the filter being rebuilt, then to the published one: a rebuild publishes its filter
+     * before clearing {@code building}, so either read sees the filter that stays.
+     */
+    private void addToFilters(Identity identity) {
+        addTo(building, identity);
+        addTo(bloom, identity);
+    }
+
+    private static void addTo(BloomFilter filter, Identity identity) {
+        if (filter == null) {
+            return;
+        }
+        if (identity.getUsername() != null) {
+            filter.put("u:" + identity.getUsername());
+        }
+        if (identity.getEmail() != null) {
+            filter.put("e:" + identity.getEmail());
+        }
+    }
+
+    private void invalidate(Identity identity) {
+        if (identity.getUsername() != null) {
+            byUsername.invalidate(identity.getUsername());
+            authViews.invalidate(identity.getUsername());
+            roleMasks.invalidate(identity.getUsername());
+        }
+        if (identity.getEmail() != null) {
+            byEmail.invalidate(identity.getEmail());
+        }
+    }
+
+    public long getHitCount() {
+        return byUsername.getHitCount() + byEmail.getHitCount() + authViews.getHitCount() + roleMasks.getHitCount();
+    }
+
+    public long getMissCount() {
+        return byUsername.getMissCount() + byEmail.getMissCount() + authViews.getMissCount() + roleMasks.getMissCount();
+    }
+
+    public long getEvictionCount() {
+        return byUsername.getEvictionCount() + byEmail.getEvictionCount() + authViews.getEvictionCount() + roleMasks.getEvictionCount();
+    }
+
+    public int size() {
+        return byUsername.size() + byEmail.size() + authViews.size() + roleMasks.size();
+    }
+
+    /**
+     * @return the memory held by the Bloom filter, in bytes, or {@code 0} before it is built
+     */
+    public long getBloomFilterByteSize() {
+        BloomFilter filter = bloom;
+        return filter == null ? 0L : filter.getByteSize();
+    }
+
+    /**
+     * @return the estimated false-positive rate of the Bloom filter, or {@code 1} before it is built
+     */
+    public double getBloomFilterFalsePositiveRate() {
+        BloomFilter filter = bloom;
+        return filter == null ? 1d : filter.getFalsePositiveRate();
+    }
+}
@@ -0,0 +1,102 @@
+package org.example.auth;
+
+import tn.supcom.appsec.entities.Tenant;
+
+import java.util.BitSet;
+import java.util.Map;
+
+/**
+ * Immutable, pre-parsed form of a {@link Tenant}: grant types and scopes are bitsets, the
+ * redirect URI is a normalized matcher and the allowed roles are a mask, so that validating a
+ * client request never parses a string.
+ */
+public final class CompiledTenant {
+    private final String name;
+    private final String secret;
+    private final RedirectUriMatcher redirectUri;
+    private final long grantTypes;
+    private final Map<String, Integer> scopeBits;
+    private final BitSet requiredScopes;
+    private final long allowedRoles;
+
+    /**
+     * @param scopeBits the bit of every scope required by a tenant of the same snapshot
+     * @throws IllegalArgumentException if the registered redirect URI is not an absolute URI with
+     *         a host and no user info; it is never taken for a tenant without one
+     */
+    CompiledTenant(Tenant tenant, Map<String, Integer> scopeBits) {
+        this.name = tenant.getName();
+        this.secret = tenant.getSecret();
+        String registeredUri = tenant.getRedirectUri();
+        this.redirectUri = RedirectUriMatcher.of(registeredUri);
+        if (redirectUri == null && registeredUri != null && !registeredUri.isEmpty()) {
+            throw new IllegalArgumentException("Invalid redirect URI registered for tenant " + name);
+        }
+        this.grantTypes = GrantType.mask(tenant.getSupportedGrantTypes());
+        this.scopeBits = scopeBits;
+        this.requiredScopes = scopes(tenant.getRequiredScopes());
+        this.allowedRoles = tenant.getAllowedRoles() == null ? 0L : tenant.getAllowedRoles();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getSecret() {
+        return secret;
+    }
+
+    public boolean hasRedirectUri() {
+        return redirectUri != null;
+    }
+
+    /**
+     * @return whether the redirect URI is the pre-registered one
+     */
+    public boolean matchesRedirectUri(String uri) {
+        return redirectUri != null && redirectUri.matches(uri);
+    }
+
+    public boolean supports(GrantType grantType) {
+        return (grantTypes & grantType.bit()) != 0;
+    }
+
+    /**
+     * Converts granted scopes into the bitset checked by {@link #isSatisfiedBy(BitSet)}.
+     * Scopes no tenant requires are irrelevant to the check and are left out.
+     */
+    public BitSet scopes(String scopes) {
+        BitSet bits = new BitSet(scopeBits.size());
+        for (String scope : TenantRegistry.split(scopes)) {
+            Integer bit = scopeBits.get(scope);
+            if (bit != null) {
+                bits.set(bit);
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * @param scopes the scopes granted, as returned by {@link #scopes(String)}
+     * @return whether every scope required by the tenant is granted
+     */
+    public boolean isSatisfiedBy(BitSet scopes) {
+        for (int bit = requiredScopes.nextSetBit(0); bit >= 0; bit = requiredScopes.nextSetBit(bit + 1)) {
+            if (!scopes.get(bit)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return whether every role of the mask may be granted by the tenant
+     */
+    public boolean allowsRoles(long roleMask) {
+        return (roleMask & ~allowedRoles) == 0;
+    }
+
+    public long getAllowedRoles() {
+        return allowedRoles;
+    }
+}
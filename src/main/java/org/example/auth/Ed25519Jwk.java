@@ -0,0 +1,53 @@
+package org.example.auth;
+
+import java.math.BigInteger;
+import java.security.KeyFactory;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.spec.EdECPoint;
+import java.security.spec.EdECPublicKeySpec;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.NamedParameterSpec;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Conversions between Ed25519 public keys and the {@code x} member of their JWK representation.
+ */
+public final class Ed25519Jwk {
+    private static final String curve = "Ed25519";
+    private static final int KEY_LENGTH = 32;
+
+    private Ed25519Jwk() {
+    }
+
+    /**
+     * @param publicKey an Ed25519 public key
+     * @return the base64url encoded raw key, without the X.509 prefix
+     */
+    public static String x(PublicKey publicKey) {
+        var encoded = publicKey.getEncoded();
+        var raw = Arrays.copyOfRange(encoded, encoded.length - KEY_LENGTH, encoded.length);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw);
+    }
+
+    public static PublicKey publicKey(String x) throws NoSuchAlgorithmException, InvalidKeySpecException {
+        var decodedPublicKey = Base64.getUrlDecoder().decode(x);
+        var isOdd = (decodedPublicKey[decodedPublicKey.length - 1] & 255) >> 7 == 1;
+        decodedPublicKey[decodedPublicKey.length - 1] &= 127;
+        var i = 0;
+        var j = decodedPublicKey.length -1;
+        while (i<j){
+            var tmp = decodedPublicKey[i];
+            decodedPublicKey[i] = decodedPublicKey[j];
+            decodedPublicKey[j] = tmp;
+            ++i;--j;
+        }
+        var y = new BigInteger(1, decodedPublicKey);
+        var ep = new EdECPoint(isOdd,y);
+        var paramSpec = new NamedParameterSpec(curve);
+        var publicKeySpec = new EdECPublicKeySpec(paramSpec,ep);
+        var kf = KeyFactory.getInstance(curve);
+        return kf.generatePublic(publicKeySpec);
+    }
+}
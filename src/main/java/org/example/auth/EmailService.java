@@ -1,52 +1,108 @@
 package org.example.auth;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
 import jakarta.ejb.EJBException;
-import jakarta.ejb.Stateless;
+import jakarta.enterprise.concurrent.ManagedThreadFactory;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.mail.*;
 import jakarta.mail.internet.InternetAddress;
 import jakarta.mail.internet.MimeMessage;
 import org.eclipse.microprofile.config.Config;
 import org.eclipse.microprofile.config.ConfigProvider;
+import org.example.metrics.Gauge;
+import org.example.metrics.Metrics;
 
 import java.util.Properties;
+import java.util.concurrent.Executors;
 
+/**
+ * Sends mail through a {@link MailDispatcher}: messages are queued and the caller returns
+ * without waiting for the SMTP round trips.
+ */
 @ApplicationScoped
 public class EmailService {
     private static final Config config = ConfigProvider.getConfig();
+    private static final Gauge QUEUE_DEPTH = Metrics.gauge("mail_queue_depth", "Messages waiting for a connection.", null).get();
+    private static final Gauge CONNECTIONS = Metrics.gauge("mail_connections", "Open SMTP connections.", null).get();
+    private static final Gauge SENT = Metrics.gauge("mail_sent", "Messages delivered since startup.", null).get();
+    private static final Gauge RETRIED = Metrics.gauge("mail_retried", "Delivery attempts retried since startup.", null).get();
+    private static final Gauge FAILED = Metrics.gauge("mail_failed", "Messages dropped after the last attempt since startup.", null).get();
+    private static final Gauge REJECTED = Metrics.gauge("mail_rejected", "Messages refused by a full queue since startup.", null).get();
+    private static final Gauge MEAN_LATENCY = Metrics.gauge("mail_latency_mean_seconds", "Mean time from queueing to delivery.", null).get();
+    private static final Gauge MAX_LATENCY = Metrics.gauge("mail_latency_max_seconds", "Longest time from queueing to delivery.", null).get();
     String smtpHost = config.getValue("smtp.host", String.class);
     int smtpPort = config.getValue("smtp.port",Integer.class);
     String smtpUser = config.getValue("smtp.username", String.class);
     String smtpPassword = config.getValue("smtp.password", String.class);
     boolean startTlsEnabled = config.getValue("smtp.starttls.enable", Boolean.class);
 
-    public void sendEmail(String from, String to, String subject, String content) {
+    @Resource
+    ManagedThreadFactory managedThreadFactory;
+
+    private Session session;
+    private MailDispatcher dispatcher;
+
+    @PostConstruct
+    public void init() {
         Properties properties = new Properties();
         properties.put("mail.smtp.host", smtpHost);
         properties.put("mail.smtp.port", String.valueOf(smtpPort));
         properties.put("mail.smtp.auth", "true");
         properties.put("mail.smtp.starttls.enable", String.valueOf(startTlsEnabled));
-        boolean flag = false;
-        Session session = Session.getInstance(properties, new Authenticator() {
-            @Override
-            protected PasswordAuthentication getPasswordAuthentication() {
-                return new PasswordAuthentication(smtpUser, smtpPassword);
-            }
-        });
+        properties.put("mail.smtp.connectiontimeout", getConfigValue("smtp.connection.timeout.ms", String.class, "10000"));
+        properties.put("mail.smtp.timeout", getConfigValue("smtp.timeout.ms", String.class, "10000"));
+        session = Session.getInstance(properties);
+        dispatcher = new MailDispatcher(session, smtpUser, smtpPassword,
+                getConfigValue("smtp.pool.size", Integer.class, 2),
+                getConfigValue("smtp.queue.capacity", Integer.class, 1000),
+                getConfigValue("smtp.batch.size", Integer.class, 50),
+                getConfigValue("smtp.retry.max.attempts", Integer.class, 5),
+                getConfigValue("smtp.retry.backoff.ms", Long.class, 1000L),
+                getConfigValue("smtp.idle.timeout.ms", Long.class, 30000L),
+                managedThreadFactory != null ? managedThreadFactory : Executors.defaultThreadFactory());
+        QUEUE_DEPTH.set(dispatcher::getQueueDepth);
+        CONNECTIONS.set(dispatcher::getConnections);
+        SENT.set(dispatcher::getSentCount);
+        RETRIED.set(dispatcher::getRetriedCount);
+        FAILED.set(dispatcher::getFailedCount);
+        REJECTED.set(dispatcher::getRejectedCount);
+        MEAN_LATENCY.set(() -> dispatcher.getMeanLatencyNanos() / 1e9);
+        MAX_LATENCY.set(() -> dispatcher.getMaxLatencyNanos() / 1e9);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        dispatcher.shutdown(getConfigValue("smtp.shutdown.timeout.ms", Long.class, 5000L));
+    }
+
+    /**
+     * Queues a message for delivery.
+     *
+     * @throws EJBException when the message is malformed or the queue is full
+     */
+    public void sendEmail(String from, String to, String subject, String content) {
         try{
             Message message = new MimeMessage(session);
             message.setFrom(new InternetAddress(from));
             message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(to));
             message.setSubject(subject);
             message.setText(content);
-            Transport.send(message);
-            flag = true;
-        } catch (Exception e){
+            message.saveChanges();
+            if (!dispatcher.dispatch(message)) {
+                throw new EJBException("Mail queue is full");
+            }
+        } catch (MessagingException e){
             throw new EJBException(e);
         }
     }
 
-    private <T> T getConfigValue(String propertyName, Class<T> propertyType) {
-        return config.getOptionalValue(propertyName, propertyType).orElse(null);
+    public MailDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    private <T> T getConfigValue(String propertyName, Class<T> propertyType, T defaultValue) {
+        return config.getOptionalValue(propertyName, propertyType).orElse(defaultValue);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,207 @@
+package org.example.auth;
+
+import jakarta.ejb.EJBException;
+import jakarta.json.Json;
+import jakarta.json.JsonObject;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchService;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Consumer;
+
+/**
+ * {@link KeyRingStore} backed by a directory shared by every node, one {@code <kid>.jwk} file per key.
+ * Files are written to a temporary name and atomically moved into place, so readers never see
+ * a partial key. The key metadata is authenticated with an HMAC over a secret shared by the nodes.
+ * The directory is watched from a thread of the given factory, the container's managed one when deployed.
+ */
+public class FileKeyRingStore implements KeyRingStore {
+    private static final Logger logger = LogManager.getLogger(FileKeyRingStore.class);
+    private static final String EXTENSION = ".jwk";
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    private final Path directory;
+    private final SecretKeySpec secret;
+    private final ThreadFactory threadFactory;
+    private final List<Consumer<PublishedKey>> listeners = new CopyOnWriteArrayList<>();
+    private WatchService watchService;
+    private Thread watcher;
+
+    public FileKeyRingStore(Path directory, String secret, ThreadFactory threadFactory) {
+        this.directory = directory;
+        this.threadFactory = threadFactory;
+        this.secret = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), MAC_ALGORITHM);
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new EJBException(e);
+        }
+    }
+
+    @Override
+    public void publish(String kid, PublicKey publicKey, long notAfter) {
+        var x = Ed25519Jwk.x(publicKey);
+        var jwk = Json.createObjectBuilder()
+                .add("kty","OKP")
+                .add("crv","Ed25519")
+                .add("kid",kid)
+                .add("x",x)
+                .add("exp",notAfter)
+                .add("mac",mac(kid, x, notAfter))
+                .build().toString();
+        try {
+            var tmp = Files.createTempFile(directory, ".", ".tmp");
+            Files.writeString(tmp, jwk, StandardCharsets.UTF_8);
+            try {
+                Files.move(tmp, directory.resolve(kid + EXTENSION), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, directory.resolve(kid + EXTENSION), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            throw new EJBException(e);
+        }
+        purgeExpired();
+    }
+
+    @Override
+    public Collection<PublishedKey> load() {
+        var keys = new ArrayList<PublishedKey>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            for (var file : files) {
+                var key = read(file);
+                if (key != null) {
+                    keys.add(key);
+                }
+            }
+        } catch (IOException e) {
+            throw new EJBException(e);
+        }
+        return keys;
+    }
+
+    @Override
+    public synchronized void watch(Consumer<PublishedKey> listener) {
+        listeners.add(listener);
+        if (watcher != null) {
+            return;
+        }
+        try {
+            watchService = directory.getFileSystem().newWatchService();
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            throw new EJBException(e);
+        }
+        watcher = threadFactory.newThread(this::pollEvents);
+        watcher.start();
+    }
+
+    private void pollEvents() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                var watchKey = watchService.take();
+                for (WatchEvent<?> event : watchKey.pollEvents()) {
+                    if (!(event.context() instanceof Path)) {
+                        continue;
+                    }
+                    var name = event.context().toString();
+                    if (name.startsWith(".") || !name.endsWith(EXTENSION)) {
+                        continue;
+                    }
+                    var key = read(directory.resolve(name));
+                    if (key != null) {
+                        listeners.forEach(listener -> listener.accept(key));
+                    }
+                }
+                if (!watchKey.reset()) {
+                    logger.error("Key ring directory {} is no longer accessible", directory);
+                    return;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private PublishedKey read(Path file) {
+        try {
+            JsonObject jwk = Json.createReader(new StringReader(Files.readString(file, StandardCharsets.UTF_8))).readObject();
+            var kid = jwk.getString("kid");
+            var x = jwk.getString("x");
+            var notAfter = jwk.getJsonNumber("exp").longValueExact();
+            var expected = mac(kid, x, notAfter).getBytes(StandardCharsets.US_ASCII);
+            if (!MessageDigest.isEqual(expected, jwk.getString("mac").getBytes(StandardCharsets.US_ASCII))) {
+                logger.warn("Rejecting key ring entry {} with an invalid mac", file);
+                return null;
+            }
+            if (notAfter < Instant.now().getEpochSecond()) {
+                return null;
+            }
+            return new PublishedKey(kid, Ed25519Jwk.publicKey(x), notAfter);
+        } catch (IOException | RuntimeException | GeneralSecurityException e) {
+            logger.warn("Skipping unreadable key ring entry {}", file, e);
+            return null;
+        }
+    }
+
+    private void purgeExpired() {
+        var now = Instant.now().getEpochSecond();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            for (var file : files) {
+                var jwk = Json.createReader(new StringReader(Files.readString(file, StandardCharsets.UTF_8))).readObject();
+                if (jwk.getJsonNumber("exp").longValue() < now) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Could not purge expired keys from {}", directory, e);
+        }
+    }
+
+    private String mac(String kid, String x, long notAfter) {
+        try {
+            var mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(secret);
+            mac.update((kid + "." + x + "." + notAfter).getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(mac.doFinal());
+        } catch (GeneralSecurityException e) {
+            throw new EJBException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (watcher == null) {
+            return;
+        }
+        watcher.interrupt();
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            logger.warn("Could not close key ring watch service", e);
+        }
+        watcher = null;
+    }
+}
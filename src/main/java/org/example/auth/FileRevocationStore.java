@@ -0,0 +1,221 @@
+package org.example.auth;
+
+import jakarta.ejb.EJBException;
+import jakarta.json.Json;
+import jakarta.json.JsonObject;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchService;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Consumer;
+
+/**
+ * {@link RevocationStore} backed by a directory shared by every node, one {@code .rev} file per
+ * revoked {@code jti} or subject, named after a digest of the value. Files are written to a
+ * temporary name and atomically moved into place, and authenticated with an HMAC over a secret
+ * shared by the nodes. A revocation older than two token lifetimes can no longer apply to a live
+ * token and is deleted on the next publish.
+ */
+public class FileRevocationStore implements RevocationStore {
+    private static final Logger logger = LogManager.getLogger(FileRevocationStore.class);
+    private static final String EXTENSION = ".rev";
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    private final Path directory;
+    private final SecretKeySpec secret;
+    private final long lifetimeSeconds;
+    private final ThreadFactory threadFactory;
+    private final List<Consumer<Revocation>> listeners = new CopyOnWriteArrayList<>();
+    private WatchService watchService;
+    private Thread watcher;
+
+    public FileRevocationStore(Path directory, String secret, long lifetimeSeconds, ThreadFactory threadFactory) {
+        this.directory = directory;
+        this.secret = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), MAC_ALGORITHM);
+        this.lifetimeSeconds = Math.max(1L, lifetimeSeconds);
+        this.threadFactory = threadFactory;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new EJBException(e);
+        }
+    }
+
+    @Override
+    public void publish(Revocation revocation) {
+        var entry = Json.createObjectBuilder()
+                .add("kind",revocation.getKind())
+                .add("value",revocation.getValue())
+                .add("iat",revocation.getRevokedAt())
+                .add("mac",mac(revocation.getKind(), revocation.getValue(), revocation.getRevokedAt()))
+                .build().toString();
+        var file = directory.resolve(revocation.getKind() + "-" + digest(revocation.getValue()) + EXTENSION);
+        try {
+            var tmp = Files.createTempFile(directory, ".", ".tmp");
+            Files.writeString(tmp, entry, StandardCharsets.UTF_8);
+            try {
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            throw new EJBException(e);
+        }
+        purgeExpired();
+    }
+
+    @Override
+    public Collection<Revocation> load() {
+        var revocations = new ArrayList<Revocation>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            for (var file : files) {
+                var revocation = read(file);
+                if (revocation != null) {
+                    revocations.add(revocation);
+                }
+            }
+        } catch (IOException e) {
+            throw new EJBException(e);
+        }
+        return revocations;
+    }
+
+    @Override
+    public synchronized void watch(Consumer<Revocation> listener) {
+        listeners.add(listener);
+        if (watcher != null) {
+            return;
+        }
+        try {
+            watchService = directory.getFileSystem().newWatchService();
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            throw new EJBException(e);
+        }
+        watcher = threadFactory.newThread(this::pollEvents);
+        watcher.start();
+    }
+
+    private void pollEvents() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                var watchKey = watchService.take();
+                for (WatchEvent<?> event : watchKey.pollEvents()) {
+                    if (!(event.context() instanceof Path)) {
+                        continue;
+                    }
+                    var name = event.context().toString();
+                    if (name.startsWith(".") || !name.endsWith(EXTENSION)) {
+                        continue;
+                    }
+                    var revocation = read(directory.resolve(name));
+                    if (revocation != null) {
+                        listeners.forEach(listener -> listener.accept(revocation));
+                    }
+                }
+                if (!watchKey.reset()) {
+                    logger.error("Revocation directory {} is no longer accessible", directory);
+                    return;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Revocation read(Path file) {
+        try {
+            JsonObject entry = Json.createReader(new StringReader(Files.readString(file, StandardCharsets.UTF_8))).readObject();
+            var kind = entry.getString("kind");
+            var value = entry.getString("value");
+            var revokedAt = entry.getJsonNumber("iat").longValueExact();
+            var expected = mac(kind, value, revokedAt).getBytes(StandardCharsets.US_ASCII);
+            if (!MessageDigest.isEqual(expected, entry.getString("mac").getBytes(StandardCharsets.US_ASCII))) {
+                logger.warn("Rejecting revocation entry {} with an invalid mac", file);
+                return null;
+            }
+            if (isExpired(revokedAt, Instant.now().getEpochSecond())) {
+                return null;
+            }
+            return new Revocation(kind, value, revokedAt);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Skipping unreadable revocation entry {}", file, e);
+            return null;
+        }
+    }
+
+    private void purgeExpired() {
+        var now = Instant.now().getEpochSecond();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            for (var file : files) {
+                var entry = Json.createReader(new StringReader(Files.readString(file, StandardCharsets.UTF_8))).readObject();
+                if (isExpired(entry.getJsonNumber("iat").longValue(), now)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Could not purge expired revocations from {}", directory, e);
+        }
+    }
+
+    private boolean isExpired(long revokedAt, long now) {
+        return revokedAt < now - 2 * lifetimeSeconds;
+    }
+
+    private String mac(String kind, String value, long revokedAt) {
+        try {
+            var mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(secret);
+            mac.update((kind + "." + value + "." + revokedAt).getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(mac.doFinal());
+        } catch (GeneralSecurityException e) {
+            throw new EJBException(e);
+        }
+    }
+
+    // Subjects and jtis may hold characters that are not valid in file names
+    private static String digest(String value) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+        } catch (GeneralSecurityException e) {
+            throw new EJBException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (watcher == null) {
+            return;
+        }
+        watcher.interrupt();
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            logger.warn("Could not close revocation watch service", e);
+        }
+        watcher = null;
+    }
+}
@@ -0,0 +1,52 @@
+package org.example.auth;
+
+/**
+ * OAuth 2.0 grant types a tenant may support, each owning one bit of a grant type mask.
+ */
+public enum GrantType {
+    AUTHORIZATION_CODE("authorization_code"),
+    REFRESH_TOKEN("refresh_token"),
+    CLIENT_CREDENTIALS("client_credentials"),
+    PASSWORD("password"),
+    IMPLICIT("implicit");
+
+    private final String id;
+
+    GrantType(String id) {
+        this.id = id;
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public long bit() {
+        return 1L << ordinal();
+    }
+
+    public static GrantType byId(String id) {
+        for (GrantType grantType : values()) {
+            if (grantType.id.equals(id)) {
+                return grantType;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parses a comma-separated list of grant types into a mask, ignoring unknown ones.
+     */
+    public static long mask(String grantTypes) {
+        long mask = 0L;
+        if (grantTypes == null) {
+            return mask;
+        }
+        for (String id : grantTypes.split(",")) {
+            GrantType grantType = byId(id.trim());
+            if (grantType != null) {
+                mask |= grantType.bit();
+            }
+        }
+        return mask;
+    }
+}
@@ -1,28 +1,21 @@
 package org.example.auth;
 
+import jakarta.ejb.EJBException;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
-import tn.supcom.appsec.enums.Role;
-
-import java.util.HashSet;
 
 @ApplicationScoped
 public class IamRepository {
 
     @Inject
-    IdentityRepository identityRepository;
+    CachedIdentityRepository identityRepository;
 
     public String[] getRoles(String username) {
-        Long roles = identityRepository.findByUsername(username).get().getRoles();
-        HashSet<String> ret = new HashSet<>();
-        for (Role role : Role.values()) {
-            if ((roles & role.getValue()) != 0L) {
-                String value = Role.byValue(role.getValue());
-                if (value != null) {
-                    ret.add(value);
-                }
-            }
-        }
-        return ret.toArray(new String[0]);
+        return RoleCodec.toArray(getRoleMask(username));
+    }
+
+    public long getRoleMask(String username) {
+        return identityRepository.findRolesByUsername(username)
+                .orElseThrow(() -> new EJBException("Identity not found."));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,25 @@
+package org.example.auth;
+
+import tn.supcom.appsec.entities.Identity;
+
+/**
+ * The columns of an identity read by login and token issuance, without the email, creation date
+ * and scopes of the full entity.
+ *
+ * @param id the identity id, to load the full entity when the password hash is upgraded
+ * @param username the username
+ * @param password the Argon2 hash of the password
+ * @param roles the {@link Role} bitmask
+ * @param isAccountActivated whether the account was activated
+ */
+public record IdentityAuthView(String id, String username, String password, Long roles, boolean isAccountActivated) {
+
+    public static IdentityAuthView of(Identity identity) {
+        return new IdentityAuthView(identity.getId(), identity.getUsername(), identity.getPassword(),
+                identity.getRoles(), identity.getAccountActivated());
+    }
+
+    public long roleMask() {
+        return roles == null ? 0L : roles;
+    }
+}
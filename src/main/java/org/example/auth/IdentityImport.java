@@ -0,0 +1,82 @@
+package org.example.auth;
+
+import jakarta.annotation.security.RolesAllowed;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.example.web.IdentityUtility;
+import org.example.web.Secured;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Bulk creation of identities, reporting one JSON object per line while the import runs.
+ * Restricted to the {@code admin} role, which must be one of the configured {@code roles} or be
+ * mapped onto one with {@code roles.alias.admin}.
+ */
+@Path("/identities/import")
+@Secured
+@RolesAllowed("admin")
+public class IdentityImport {
+    private static final Logger logger = LogManager.getLogger(IdentityImport.class);
+    private static final String TEXT_CSV = "text/csv";
+    private static final String APPLICATION_NDJSON = "application/x-ndjson";
+
+    @Inject
+    IdentityImportService importService;
+
+    @POST
+    @Consumes(TEXT_CSV)
+    @Produces(APPLICATION_NDJSON)
+    public Response importCsv(InputStream body) {
+        return stream(body, IdentityImportService.Format.CSV);
+    }
+
+    @POST
+    @Consumes({APPLICATION_NDJSON, "application/jsonl"})
+    @Produces(APPLICATION_NDJSON)
+    public Response importJsonLines(InputStream body) {
+        return stream(body, IdentityImportService.Format.JSONL);
+    }
+
+    private Response stream(InputStream body, IdentityImportService.Format format) {
+        // The entity is written after the response filters unbind the caller, it is bound again for the import
+        var caller = IdentityUtility.current();
+        StreamingOutput stream = output -> {
+            Writer writer = new OutputStreamWriter(output, StandardCharsets.UTF_8);
+            var input = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+            try {
+                IdentityUtility.callAs(caller, () -> importService.importIdentities(input, format, line -> {
+                    try {
+                        writer.write(line.toString());
+                        writer.write('\n');
+                        writer.flush();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }));
+            } catch (IOException | RuntimeException e) {
+                // The status is already sent and the failure reported as the last line
+                logger.warn("Identity import failed: {}", e.toString());
+            } catch (Exception e) {
+                // importIdentities throws nothing else
+                throw new IllegalStateException(e);
+            }
+        };
+        return Response.ok(stream, MediaType.valueOf(APPLICATION_NDJSON)).build();
+    }
+}
@@ -0,0 +1,330 @@
+package org.example.auth;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.json.Json;
+import jakarta.json.JsonException;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonString;
+import jakarta.json.JsonValue;
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.ConfigProvider;
+import tn.supcom.appsec.entities.Identity;
+import tn.supcom.appsec.enums.Role;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Creates identities in bulk from a CSV or JSON Lines stream.
+ * Records are read one at a time, checked and deduplicated against the batch, then hashed in
+ * parallel on the {@link PasswordHasher} pool with at most a fixed window of hashes in flight, so
+ * neither the input nor the Argon2 memory grows with the size of the import. Hashed identities are
+ * written with {@code saveAll} in chunks, and every rejected row and every written chunk is
+ * reported as a JSON object while the import runs.
+ * <p>
+ * A CSV input starts with a header naming its columns; {@code username}, {@code email} and
+ * {@code password} are required, {@code roles} (role names separated by {@code |}) and
+ * {@code scopes} are optional. A JSON Lines input holds one object with the same fields per line.
+ * Imported identities are created activated.
+ */
+@ApplicationScoped
+public class IdentityImportService {
+    private static final Config config = ConfigProvider.getConfig();
+
+    public enum Format { CSV, JSONL }
+
+    @Inject
+    CachedIdentityRepository identityRepository;
+    @Inject
+    PasswordHasher passwordHasher;
+
+    private final int chunkSize = config.getOptionalValue("import.chunk.size", Integer.class).orElse(500);
+    private final long hashTimeoutMillis = config.getOptionalValue("import.hash.queue.timeout.ms", Long.class).orElse(60_000L);
+    private final String defaultScopes = config.getOptionalValue("import.default.scopes", String.class).orElse("resource:read,resource:write");
+
+    /**
+     * Imports every record of the input, reporting progress to {@code report} from the calling thread.
+     *
+     * @return the final summary, also the last object reported
+     * @throws IOException if the input cannot be read, after reporting a {@code failed} summary
+     */
+    public JsonObject importIdentities(BufferedReader input, Format format, Consumer<JsonObject> report) throws IOException {
+        var run = new Run(report);
+        try {
+            String[] header = null;
+            String line;
+            long lineNumber = 0;
+            while ((line = input.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                if (format == Format.CSV && header == null) {
+                    header = parseCsvLine(line);
+                    continue;
+                }
+                String[] fields;
+                try {
+                    fields = format == Format.CSV ? fields(header, parseCsvLine(line)) : fields(line);
+                } catch (IllegalArgumentException | JsonException e) {
+                    run.reject(lineNumber, "Malformed record: " + e.getMessage());
+                    continue;
+                }
+                run.submit(lineNumber, fields);
+            }
+            run.finish();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            var failure = new IOException("Import interrupted", e);
+            run.fail(failure);
+            throw failure;
+        } catch (IOException | RuntimeException e) {
+            // The records saved so far stay imported, the last line says where the import stopped
+            run.fail(e);
+            throw e;
+        }
+        var summary = run.summary("done");
+        report.accept(summary);
+        return summary;
+    }
+
+    /**
+     * The state of one import: everything but the hashing runs on the calling thread.
+     */
+    private final class Run {
+        private final Consumer<JsonObject> report;
+        private final long start = System.nanoTime();
+        private final int window = Math.max(1, passwordHasher.getWorkers() * 2);
+        private final Semaphore inFlight = new Semaphore(window);
+        private final BlockingQueue<Hashed> hashed = new LinkedBlockingQueue<>();
+        private final Set<String> usernames = new HashSet<>();
+        private final Set<String> emails = new HashSet<>();
+        private final List<Identity> chunk = new ArrayList<>(chunkSize);
+        private long imported;
+        private long rejected;
+
+        Run(Consumer<JsonObject> report) {
+            this.report = report;
+        }
+
+        void submit(long lineNumber, String[] fields) throws InterruptedException {
+            String username = fields[0], email = fields[1], password = fields[2];
+            if (isEmpty(username) || isEmpty(email) || isEmpty(password)) {
+                reject(lineNumber, "username, email and password are required");
+                return;
+            }
+            long roles = Role.R_P00.getValue();
+            if (!isEmpty(fields[3])) {
+                roles = RoleCodec.mask(fields[3].split("\\|"));
+                if (roles == 0L) {
+                    reject(lineNumber, "Unknown roles " + fields[3]);
+                    return;
+                }
+            }
+            if (!usernames.add(username)) {
+                reject(lineNumber, "Duplicate username " + username + " in the import");
+                return;
+            }
+            if (!emails.add(email)) {
+                reject(lineNumber, "Duplicate email " + email + " in the import");
+                return;
+            }
+            if (identityRepository.findByUsername(username).isPresent()) {
+                reject(lineNumber, "Identity with username " + username + " already exists");
+                return;
+            }
+            if (identityRepository.findByEmail(email).isPresent()) {
+                reject(lineNumber, "Identity with email " + email + " already exists");
+                return;
+            }
+            Identity identity = new Identity();
+            identity.setUsername(username);
+            identity.setEmail(email);
+            identity.setCreationDate(LocalDate.now().toString());
+            identity.setRoles(roles);
+            identity.setScopes(isEmpty(fields[4]) ? defaultScopes : fields[4]);
+            identity.setAccountActivated(true);
+
+            // Write back completed hashes while waiting for a slot in the window
+            while (!inFlight.tryAcquire(10L, TimeUnit.MILLISECONDS)) {
+                drain();
+            }
+            passwordHasher.hash(password.toCharArray(), hashTimeoutMillis).whenComplete((hash, e) -> {
+                hashed.add(new Hashed(lineNumber, identity, hash, e));
+                inFlight.release();
+            });
+            drain();
+        }
+
+        void finish() throws InterruptedException {
+            inFlight.acquire(window);
+            drain();
+            flush();
+        }
+
+        void reject(long lineNumber, String reason) {
+            rejected++;
+            report.accept(Json.createObjectBuilder()
+                    .add("line", lineNumber)
+                    .add("status", "rejected")
+                    .add("reason", reason)
+                    .build());
+        }
+
+        private void drain() {
+            Hashed result;
+            while ((result = hashed.poll()) != null) {
+                if (result.failure != null) {
+                    var cause = result.failure instanceof CompletionException && result.failure.getCause() != null
+                            ? result.failure.getCause() : result.failure;
+                    reject(result.lineNumber, "Hashing failed: " + cause.getMessage());
+                    continue;
+                }
+                result.identity.setPassword(result.hash);
+                chunk.add(result.identity);
+                if (chunk.size() >= chunkSize) {
+                    flush();
+                }
+            }
+        }
+
+        private void flush() {
+            if (chunk.isEmpty()) {
+                return;
+            }
+            identityRepository.saveAll(chunk);
+            imported += chunk.size();
+            chunk.clear();
+            report.accept(summary("progress"));
+        }
+
+        void fail(Exception e) {
+            try {
+                report.accept(Json.createObjectBuilder(summary("failed"))
+                        .add("reason", String.valueOf(e.getMessage()))
+                        .build());
+            } catch (RuntimeException reportFailure) {
+                // The client is gone
+                e.addSuppressed(reportFailure);
+            }
+        }
+
+        JsonObject summary(String status) {
+            double seconds = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+            return Json.createObjectBuilder()
+                    .add("status", status)
+                    .add("imported", imported)
+                    .add("rejected", rejected)
+                    .add("elapsedMillis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start))
+                    .add("recordsPerSecond", Math.round(imported / seconds))
+                    .build();
+        }
+    }
+
+    private static final class Hashed {
+        final long lineNumber;
+        final Identity identity;
+        final String hash;
+        final Throwable failure;
+
+        Hashed(long lineNumber, Identity identity, String hash, Throwable failure) {
+            this.lineNumber = lineNumber;
+            this.identity = identity;
+            this.hash = hash;
+            this.failure = failure;
+        }
+    }
+
+    private static final String[] COLUMNS = {"username", "email", "password", "roles", "scopes"};
+
+    /**
+     * Orders the values of a CSV record by {@link #COLUMNS}.
+     */
+    private static String[] fields(String[] header, String[] values) {
+        if (values.length != header.length) {
+            throw new IllegalArgumentException("expected " + header.length + " columns, found " + values.length);
+        }
+        String[] fields = new String[COLUMNS.length];
+        for (int i = 0; i < header.length; i++) {
+            for (int c = 0; c < COLUMNS.length; c++) {
+                if (COLUMNS[c].equalsIgnoreCase(header[i].trim())) {
+                    fields[c] = values[i].trim();
+                }
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Orders the values of a JSON Lines record by {@link #COLUMNS}.
+     */
+    private static String[] fields(String line) {
+        JsonObject record;
+        try (var reader = Json.createReader(new StringReader(line))) {
+            record = reader.readObject();
+        }
+        String[] fields = new String[COLUMNS.length];
+        for (int c = 0; c < COLUMNS.length; c++) {
+            var value = record.get(COLUMNS[c]);
+            if (value instanceof JsonString) {
+                fields[c] = ((JsonString) value).getString();
+            } else if (value != null && value.getValueType() != JsonValue.ValueType.NULL) {
+                throw new IllegalArgumentException(COLUMNS[c] + " must be a string");
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Splits one CSV line, honouring double-quoted values with {@code ""} escapes.
+     */
+    static String[] parseCsvLine(String line) {
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        value.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    value.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(value.toString());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("unterminated quoted value");
+        }
+        values.add(value.toString());
+        return values.toArray(new String[0]);
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.isEmpty();
+    }
+}
@@ -2,22 +2,26 @@ package org.example.auth;
 
 import jakarta.inject.Inject;
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.container.Suspended;
 import jakarta.ws.rs.core.*;
+import org.example.web.RateLimited;
 import tn.supcom.appsec.entities.Identity;
-import tn.supcom.appsec.repositories.TenantRepository;
 import tn.supcom.appsec.services.IdentityServices;
 
 import java.io.InputStream;
 import java.util.Objects;
+import java.util.concurrent.CompletionException;
 
 @Path("/")
+@RateLimited
 public class IdentityRegistration {
 
 
     @Inject
     IdentityServices identityServices;
     @Inject
-    TenantRepository tenantRepository;
+    TenantRegistry tenantRegistry;
 
     @GET
     @Path("/register/authorize")
@@ -28,13 +32,13 @@ public class IdentityRegistration {
         if (clientId == null || clientId.isEmpty()) {
             return informUserAboutError("Invalid client_id :" + clientId);
         }
-        var tenant = tenantRepository.findByName(clientId);
+        var tenant = tenantRegistry.find(clientId);
         if (tenant == null) {
             return informUserAboutError("Invalid client_id :" + clientId);
         }
         String redirectUri = params.getFirst("redirect_uri");
-        if (tenant.getRedirectUri() != null && !tenant.getRedirectUri().isEmpty()) {
-            if (redirectUri != null && !redirectUri.isEmpty() && !tenant.getRedirectUri().equals(redirectUri)) {
+        if (tenant.hasRedirectUri()) {
+            if (redirectUri != null && !redirectUri.isEmpty() && !tenant.matchesRedirectUri(redirectUri)) {
                 return informUserAboutError("redirect_uri is pre-registred and should match");
             }
         } else {
@@ -56,11 +60,24 @@ public class IdentityRegistration {
     @Path("/register")
     @Consumes(MediaType.APPLICATION_FORM_URLENCODED)
     @Produces(MediaType.TEXT_HTML)
-    public Response register(@FormParam("username")String username,
+    public void register(@FormParam("username")String username,
                              @FormParam("email")String email,
-                             @FormParam("password")String password
+                             @FormParam("password")String password,
+                             @Suspended AsyncResponse asyncResponse
     ) {
-
+        try {
+            // Hashing runs on the password hashing pool, the request thread is released meanwhile
+            identityServices.registerIdentity(username, password, email).whenComplete((ignored, e) -> {
+                if (e == null) {
+                    asyncResponse.resume(Response.ok().build());
+                } else {
+                    var cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    asyncResponse.resume(informUserAboutError(cause.getMessage()));
+                }
+            });
+        } catch (Exception e) {
+            asyncResponse.resume(informUserAboutError(e.getMessage()));
+        }
     }
 
     @POST
@@ -1,13 +1,34 @@
 package org.example.auth;
 
 import jakarta.data.repository.CrudRepository;
+import jakarta.data.repository.Param;
+import jakarta.data.repository.Query;
 import jakarta.data.repository.Repository;
 import tn.supcom.appsec.entities.Identity;
 
+import java.util.List;
 import java.util.Optional;
 
+/**
+ * Identities by id, username and email. The username and email lookups need an index on the
+ * {@code username} and {@code email} columns in the store.
+ */
 @Repository
 public interface IdentityRepository extends CrudRepository<Identity, String> {
     Optional<Identity> findByEmail(String email);
     Optional<Identity> findByUsername(String username);
-}
\ No newline at end of file
+    void deleteByIdIn(List<String> ids);
+
+    /**
+     * Reads only the columns used to check credentials; {@link CachedIdentityRepository} caches
+     * the view apart from the full entities.
+     */
+    @Query("select id, username, password, roles, isAccountActivated where username = :username")
+    Optional<IdentityAuthView> findAuthViewByUsername(@Param("username") String username);
+
+    /**
+     * Reads only the role bitmask.
+     */
+    @Query("select roles where username = :username")
+    Optional<Long> findRolesByUsername(@Param("username") String username);
+}
@@ -1,33 +1,45 @@
 package org.example.auth;
 
+import jakarta.annotation.PostConstruct;
 import jakarta.ejb.EJBException;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import jakarta.validation.Valid;
-import org.apache.commons.lang3.tuple.Pair;
 import tn.supcom.appsec.entities.Identity;
 import tn.supcom.appsec.enums.Role;
-import tn.supcom.appsec.repositories.IdentityRepository;
 import tn.supcom.appsec.security.Argon2Utils;
 
 import java.security.SecureRandom;
 import java.time.LocalDateTime;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
 @ApplicationScoped
 public class IdentityServices {
 
     @Inject
-    IdentityRepository identityRepository;
+    CachedIdentityRepository identityRepository;
     @Inject
     Argon2Utils argon2Utils;
     @Inject
     EmailService emailService;
+    @Inject
+    PasswordHasher passwordHasher;
+    @Inject
+    ActivationCodeStore activationCodeStore;
+
+    @PostConstruct
+    public void init() {
+        // Identities that were never activated are dropped together with their expired codes
+        activationCodeStore.onExpired(expired -> {
+            List<String> ids = expired.stream().map(ActivationCodeStore.PendingActivation::getIdentityId).toList();
+            identityRepository.deleteByIdIn(ids);
+        });
+    }
 
-    private final Map<String, Pair<String, LocalDateTime>> activationCodes = new HashMap<>();
-
-    public void registerIdentity(String username, String password, String email){
+    public CompletionStage<Void> registerIdentity(String username, String password, String email){
 
         if(identityRepository.findByUsername(username).isPresent()){
             throw new EJBException("Identity with username " + username + " already exists");
@@ -37,41 +49,80 @@ public class IdentityServices {
         }
         Identity identity = new Identity();
         identity.setUsername(username);
-        identity.setPassword(password);
         identity.setEmail(email);
         identity.setCreationDate(LocalDateTime.now().toLocalDate().toString());
         identity.setRoles(Role.R_P00.getValue());
         identity.setScopes("resource:read,resource:write");
-        identity.hashPassword(identity.getPassword(), argon2Utils);
-        identityRepository.save(identity);
-        String activationCode = GenerateActivationCode();
-        LocalDateTime expirationTime = LocalDateTime.now().plusMinutes(5); // Set expiration time
-        activationCodes.put(activationCode, Pair.of(identity.getEmail(),expirationTime));
-
-
+        return passwordHasher.hash(password.toCharArray()).thenAccept(hash -> {
+            identity.setPassword(hash);
+            Identity saved = identityRepository.save(identity);
+            String activationCode = GenerateActivationCode();
+            try {
+                while (!activationCodeStore.put(activationCode, saved.getId(), saved.getEmail())) {
+                    activationCode = GenerateActivationCode();
+                }
+            } catch (RuntimeException e) {
+                // Without a code the identity could never be activated, nor would it expire
+                identityRepository.delete(saved);
+                throw e;
+            }
+            // Queued, the SMTP exchange happens on the mail dispatcher
+            emailService.sendEmail(emailService.smtpUser, saved.getEmail(), "Activate your account",
+                    "Your activation code is " + activationCode + ", it expires in a few minutes.");
+        });
     }
 
-    public void activateIdentity(String code) {
-        if (activationCodes.containsKey(code)) {
-            Pair<String, LocalDateTime> codeDetails = activationCodes.get(code);
-            LocalDateTime expirationTime = codeDetails.getRight();
-            String email = codeDetails.getLeft();
-            Identity identity = identityRepository.findByEmail(email).orElse(null);
-            if (LocalDateTime.now().isAfter(expirationTime)) {
-                activationCodes.remove(code);
-                identityRepository.delete(identity);
-                throw new EJBException("Activation code expired");
+    /**
+     * Checks the credentials of an activated identity. Hashes computed with stale Argon2
+     * parameters are upgraded in the background after a successful check.
+     *
+     * @param username the username
+     * @param password the password, wiped once checked
+     * @return whether the credentials are valid
+     */
+    public CompletionStage<Boolean> authenticate(String username, char[] password) {
+        IdentityAuthView identity = identityRepository.findAuthViewByUsername(username).orElse(null);
+        if (identity == null || !identity.isAccountActivated()) {
+            Arrays.fill(password, '\0');
+            return CompletableFuture.completedFuture(false);
+        }
+        char[] rehash = Argon2Utils.needsRehash(identity.password()) ? password.clone() : null;
+        return passwordHasher.check(identity.password(), password).thenApply(valid -> {
+            if (rehash != null) {
+                if (valid) {
+                    upgradeHash(identity.id(), rehash);
+                } else {
+                    Arrays.fill(rehash, '\0');
+                }
             }
+            return valid;
+        });
+    }
 
-            if (identity !=null) {
-                identity.setAccountActivated(true);
+    private void upgradeHash(String id, char[] password) {
+        passwordHasher.hash(password).thenAccept(hash -> {
+            // The projection cannot be saved, the full entity is only read on this rare path
+            identityRepository.findById(id).ifPresent(identity -> {
+                identity.setPassword(hash);
                 identityRepository.save(identity);
-                activationCodes.remove(code);
-            } else {
-                throw new EJBException("Identity not found.");
-            }
-        }else {
-            throw new EJBException("Activation code not found");
+            });
+        }).exceptionally(e -> {
+            // Best effort, the hash is upgraded on a later login
+            return null;
+        });
+    }
+
+    public void activateIdentity(String code) {
+        ActivationCodeStore.PendingActivation activation = activationCodeStore.consume(code);
+        if (activation == null) {
+            throw new EJBException("Activation code not found or expired");
+        }
+        Identity identity = identityRepository.findById(activation.getIdentityId()).orElse(null);
+        if (identity != null) {
+            identity.setAccountActivated(true);
+            identityRepository.save(identity);
+        } else {
+            throw new EJBException("Identity not found.");
         }
     }
 
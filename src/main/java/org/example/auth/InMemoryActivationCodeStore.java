@@ -0,0 +1,155 @@
+package org.example.auth;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import jakarta.ejb.EJBException;
+import jakarta.enterprise.concurrent.ManagedScheduledExecutorService;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.ConfigProvider;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * {@link ActivationCodeStore} keeping codes in a concurrent map and expiring them with a hashed
+ * timer wheel: each code is queued in the slot of its expiry tick, and every tick only drains its
+ * own slot, so expiry costs O(1) per code regardless of how many are pending.
+ */
+@ApplicationScoped
+public class InMemoryActivationCodeStore implements ActivationCodeStore {
+    private static final Logger logger = LogManager.getLogger(InMemoryActivationCodeStore.class);
+    private static final Config config = ConfigProvider.getConfig();
+    private static final long TICK_MILLIS = 1000L;
+
+    @Resource
+    ManagedScheduledExecutorService managedScheduler;
+
+    private final long ttlMillis = TimeUnit.MINUTES.toMillis(config.getOptionalValue("activation.code.ttl.minutes", Long.class).orElse(5L));
+    private final int maxEntries = config.getOptionalValue("activation.store.max.entries", Integer.class).orElse(100_000);
+    private final int purgeBatchSize = config.getOptionalValue("activation.purge.batch.size", Integer.class).orElse(500);
+
+    private final Map<String, PendingActivation> pending = new ConcurrentHashMap<>();
+    private final List<Consumer<List<PendingActivation>>> listeners = new CopyOnWriteArrayList<>();
+    private Queue<String>[] wheel;
+    private long lastTick;
+    private ScheduledExecutorService ownScheduler;
+    private ScheduledFuture<?> ticker;
+
+    @PostConstruct
+    @SuppressWarnings("unchecked")
+    public void init() {
+        // One extra slot so that a code is never drained before its expiry tick comes around
+        int slots = (int) (ttlMillis / TICK_MILLIS) + 2;
+        wheel = new Queue[slots];
+        for (int i = 0; i < slots; i++) {
+            wheel[i] = new ConcurrentLinkedQueue<>();
+        }
+        lastTick = System.currentTimeMillis() / TICK_MILLIS - 1;
+        ScheduledExecutorService scheduler = managedScheduler;
+        if (scheduler == null) {
+            scheduler = ownScheduler = Executors.newSingleThreadScheduledExecutor();
+        }
+        ticker = scheduler.scheduleAtFixedRate(this::advance, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ticker.cancel(false);
+        if (ownScheduler != null) {
+            ownScheduler.shutdown();
+        }
+    }
+
+    @Override
+    public boolean put(String code, String identityId, String email) {
+        if (pending.size() >= maxEntries) {
+            throw new EJBException("Too many pending activations, try again later");
+        }
+        long expiresAt = System.currentTimeMillis() + ttlMillis;
+        if (pending.putIfAbsent(code, new PendingActivation(identityId, email, expiresAt)) != null) {
+            return false;
+        }
+        wheel[slot(expiresAt / TICK_MILLIS)].add(code);
+        return true;
+    }
+
+    @Override
+    public PendingActivation consume(String code) {
+        PendingActivation activation = pending.get(code);
+        if (activation == null || activation.getExpiresAt() < System.currentTimeMillis()) {
+            // Expired codes are left to the wheel so their identities get purged
+            return null;
+        }
+        return pending.remove(code, activation) ? activation : null;
+    }
+
+    @Override
+    public void onExpired(Consumer<List<PendingActivation>> listener) {
+        listeners.add(listener);
+    }
+
+    public int size() {
+        return pending.size();
+    }
+
+    private int slot(long tick) {
+        return (int) (tick % wheel.length);
+    }
+
+    private void advance() {
+        try {
+            long now = System.currentTimeMillis();
+            long currentTick = now / TICK_MILLIS;
+            List<PendingActivation> expired = new ArrayList<>();
+            // A slot is drained once its tick is over, when every code queued in it has expired
+            for (long tick = lastTick + 1; tick < currentTick; tick++) {
+                Queue<String> slot = wheel[slot(tick)];
+                for (int n = slot.size(); n > 0; n--) {
+                    String code = slot.poll();
+                    if (code == null) {
+                        break;
+                    }
+                    PendingActivation activation = pending.get(code);
+                    if (activation == null) {
+                        continue;
+                    }
+                    if (activation.getExpiresAt() > now) {
+                        slot.add(code);
+                    } else if (pending.remove(code, activation)) {
+                        expired.add(activation);
+                    }
+                    if (expired.size() >= purgeBatchSize) {
+                        publish(expired);
+                        expired = new ArrayList<>();
+                    }
+                }
+            }
+            lastTick = currentTick - 1;
+            if (!expired.isEmpty()) {
+                publish(expired);
+            }
+        } catch (RuntimeException e) {
+            logger.error("Activation code expiry failed", e);
+        }
+    }
+
+    private void publish(List<PendingActivation> expired) {
+        for (Consumer<List<PendingActivation>> listener : listeners) {
+            listener.accept(expired);
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package org.example.auth;
+
+import jakarta.data.Order;
+import jakarta.data.Sort;
+import jakarta.data.page.Page;
+import jakarta.data.page.PageRequest;
+import jakarta.data.page.impl.CursoredPageRecord;
+import jakarta.data.page.impl.PageRecord;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Alternative;
+import tn.supcom.appsec.entities.Identity;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * {@link IdentityRepository} held in memory, to benchmark the identity flows without a store.
+ * Enabled by uncommenting its {@code <alternatives>} entry in {@code META-INF/beans.xml}. Entities
+ * are kept by reference and nothing survives a restart.
+ */
+@Alternative
+@ApplicationScoped
+public class InMemoryIdentityRepository implements IdentityRepository {
+    private final Map<String, Identity> byId = new ConcurrentHashMap<>();
+    private final Map<String, String> idByUsername = new ConcurrentHashMap<>();
+    private final Map<String, String> idByEmail = new ConcurrentHashMap<>();
+
+    @Override
+    public Optional<Identity> findByEmail(String email) {
+        return lookup(idByEmail, email);
+    }
+
+    @Override
+    public Optional<Identity> findByUsername(String username) {
+        return lookup(idByUsername, username);
+    }
+
+    @Override
+    public Optional<IdentityAuthView> findAuthViewByUsername(String username) {
+        return findByUsername(username).map(IdentityAuthView::of);
+    }
+
+    @Override
+    public Optional<Long> findRolesByUsername(String username) {
+        return findByUsername(username).map(Identity::getRoles);
+    }
+
+    @Override
+    public void deleteByIdIn(List<String> ids) {
+        ids.forEach(this::deleteById);
+    }
+
+    @Override
+    public <S extends Identity> S save(S entity) {
+        synchronized (byId) {
+            Identity previous = byId.put(entity.getId(), entity);
+            if (previous != null) {
+                unindex(previous);
+            }
+            if (entity.getUsername() != null) {
+                idByUsername.put(entity.getUsername(), entity.getId());
+            }
+            if (entity.getEmail() != null) {
+                idByEmail.put(entity.getEmail(), entity.getId());
+            }
+        }
+        return entity;
+    }
+
+    @Override
+    public <S extends Identity> List<S> saveAll(List<S> entities) {
+        entities.forEach(this::save);
+        return entities;
+    }
+
+    @Override
+    public <S extends Identity> S insert(S entity) {
+        return save(entity);
+    }
+
+    @Override
+    public <S extends Identity> List<S> insertAll(List<S> entities) {
+        return saveAll(entities);
+    }
+
+    @Override
+    public <S extends Identity> S update(S entity) {
+        return save(entity);
+    }
+
+    @Override
+    public <S extends Identity> List<S> updateAll(List<S> entities) {
+        return saveAll(entities);
+    }
+
+    @Override
+    public Optional<Identity> findById(String id) {
+        return Optional.ofNullable(byId.get(id));
+    }
+
+    @Override
+    public Stream<Identity> findAll() {
+        return new ArrayList<>(byId.values()).stream();
+    }
+
+    /**
+     * Sorts a snapshot of every identity, ties broken by id so that pages do not overlap, and
+     * returns the requested page. Offset pages are sliced from the sorted snapshot; cursor pages
+     * seek past the cursor, whose key holds the sort attributes of an identity followed by its id.
+     *
+     * @throws IllegalArgumentException when sorting by an unknown attribute, or when the cursor
+     *                                  does not match the sort order
+     */
+    @Override
+    public Page<Identity> findAll(PageRequest pageRequest, Order<Identity> sortBy) {
+        List<Attribute> attributes = new ArrayList<>();
+        List<Comparator<Object>> order = new ArrayList<>();
+        for (Sort<? super Identity> sort : sortBy) {
+            Attribute attribute = Attribute.of(sort.property());
+            attributes.add(attribute);
+            order.add(attribute.order(sort));
+        }
+        attributes.add(Attribute.ID);
+        order.add(Attribute.ID.order(Sort.asc(Attribute.ID.property)));
+        Comparator<List<Object>> byKey = (a, b) -> {
+            for (int i = 0; i < order.size(); i++) {
+                int c = order.get(i).compare(a.get(i), b.get(i));
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return 0;
+        };
+
+        List<Map.Entry<List<Object>, Identity>> identities = new ArrayList<>();
+        for (Identity identity : byId.values()) {
+            List<Object> key = new ArrayList<>(attributes.size());
+            for (Attribute attribute : attributes) {
+                key.add(attribute.value.apply(identity));
+            }
+            identities.add(new AbstractMap.SimpleImmutableEntry<>(key, identity));
+        }
+        identities.sort(Map.Entry.comparingByKey(byKey));
+
+        int from;
+        int to;
+        if (pageRequest.mode() == PageRequest.Mode.OFFSET) {
+            long offset = (pageRequest.page() - 1) * pageRequest.size();
+            from = (int) Math.min(identities.size(), offset);
+            to = (int) Math.min(identities.size(), offset + pageRequest.size());
+        } else {
+            List<Object> cursor = cursorKey(pageRequest.cursor().orElseThrow(), attributes);
+            // Identities before or at the cursor, ids being unique at most one is at it
+            int seek = 0;
+            while (seek < identities.size() && byKey.compare(identities.get(seek).getKey(), cursor) < 0) {
+                seek++;
+            }
+            if (pageRequest.mode() == PageRequest.Mode.CURSOR_NEXT) {
+                from = seek < identities.size() && byKey.compare(identities.get(seek).getKey(), cursor) == 0 ? seek + 1 : seek;
+                to = Math.min(identities.size(), from + pageRequest.size());
+            } else {
+                to = seek;
+                from = Math.max(0, to - pageRequest.size());
+            }
+        }
+
+        List<Identity> content = new ArrayList<>(to - from);
+        List<PageRequest.Cursor> cursors = new ArrayList<>(to - from);
+        for (Map.Entry<List<Object>, Identity> entry : identities.subList(from, to)) {
+            content.add(entry.getValue());
+            cursors.add(PageRequest.Cursor.forKey(entry.getKey().toArray()));
+        }
+        long total = pageRequest.requestTotal() ? identities.size() : -1L;
+        if (pageRequest.mode() == PageRequest.Mode.OFFSET) {
+            return new PageRecord<>(pageRequest, content, total, to < identities.size());
+        }
+        return new CursoredPageRecord<>(content, cursors, total, pageRequest, from == 0, to == identities.size());
+    }
+
+    private static List<Object> cursorKey(PageRequest.Cursor cursor, List<Attribute> attributes) {
+        if (cursor.size() != attributes.size()) {
+            throw new IllegalArgumentException("Cursor of " + cursor.size() + " elements for a sort on "
+                    + attributes.size() + " attributes, the last one being the id");
+        }
+        List<Object> key = new ArrayList<>(cursor.elements());
+        for (int i = 0; i < key.size(); i++) {
+            Object element = key.get(i);
+            if (element != null && !attributes.get(i).type.isInstance(element)) {
+                throw new IllegalArgumentException("Cursor element " + i + " is not a value of " + attributes.get(i).property);
+            }
+        }
+        return key;
+    }
+
+    /**
+     * The sortable attributes of an identity.
+     */
+    private enum Attribute {
+        ID("id", String.class, Identity::getId),
+        USERNAME("username", String.class, Identity::getUsername),
+        EMAIL("email", String.class, Identity::getEmail),
+        CREATION_DATE("creationDate", String.class, Identity::getCreationDate),
+        SCOPES("scopes", String.class, Identity::getScopes),
+        ROLES("roles", Long.class, Identity::getRoles),
+        ACCOUNT_ACTIVATED("isAccountActivated", Boolean.class, Identity::getAccountActivated);
+
+        final String property;
+        final Class<?> type;
+        final Function<Identity, Object> value;
+
+        Attribute(String property, Class<?> type, Function<Identity, Object> value) {
+            this.property = property;
+            this.type = type;
+            this.value = value;
+        }
+
+        static Attribute of(String property) {
+            for (Attribute attribute : values()) {
+                if (attribute.property.equals(property)) {
+                    return attribute;
+                }
+            }
+            throw new IllegalArgumentException("Cannot sort identities by " + property);
+        }
+
+        @SuppressWarnings("unchecked")
+        Comparator<Object> order(Sort<?> sort) {
+            Comparator<Object> values = type == String.class && sort.ignoreCase()
+                    ? (a, b) -> String.CASE_INSENSITIVE_ORDER.compare((String) a, (String) b)
+                    : (a, b) -> ((Comparable<Object>) a).compareTo(b);
+            Comparator<Object> comparator = Comparator.nullsFirst(values);
+            return sort.isAscending() ? comparator : comparator.reversed();
+        }
+    }
+
+    @Override
+    public void deleteById(String id) {
+        synchronized (byId) {
+            Identity removed = byId.remove(id);
+            if (removed != null) {
+                unindex(removed);
+            }
+        }
+    }
+
+    @Override
+    public void delete(Identity entity) {
+        deleteById(entity.getId());
+    }
+
+    @Override
+    public void deleteAll(List<? extends Identity> entities) {
+        entities.forEach(this::delete);
+    }
+
+    private Optional<Identity> lookup(Map<String, String> index, String key) {
+        String id = key == null ? null : index.get(key);
+        return id == null ? Optional.empty() : Optional.ofNullable(byId.get(id));
+    }
+
+    private void unindex(Identity identity) {
+        if (identity.getUsername() != null) {
+            idByUsername.remove(identity.getUsername(), identity.getId());
+        }
+        if (identity.getEmail() != null) {
+            idByEmail.remove(identity.getEmail(), identity.getId());
+        }
+    }
+}
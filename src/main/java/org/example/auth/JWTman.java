@@ -1,10 +1,15 @@
 package org.example.auth;
 
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
 import jakarta.ejb.EJBException;
 import jakarta.ejb.LocalBean;
+import jakarta.ejb.Lock;
+import jakarta.ejb.LockType;
 import jakarta.ejb.Singleton;
 import jakarta.ejb.Startup;
+import jakarta.enterprise.concurrent.ManagedThreadFactory;
 import jakarta.json.Json;
 import jakarta.json.JsonObject;
 import org.eclipse.microprofile.config.Config;
@@ -15,12 +20,15 @@ import java.nio.charset.StandardCharsets;
 import java.security.*;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
 
 @Startup
 @Singleton
 @LocalBean
 public class JwtManager {
     private final static String curve = "Ed25519";
+    private final static String jwsAlgorithm = "EdDSA";
     private final static KeyPairGenerator keyPairGenerator;
     private final static Signature signatureAlgorithm;
 
@@ -34,27 +42,94 @@ public class JwtManager {
     }
 
 
-    private final Map<String, KeyPair> cachedKeyPairs = new HashMap<>();
-    private final Map<String, Long> keyPairExpires = new HashMap<>();
+    private final Map<String, KeyPair> cachedKeyPairs = new ConcurrentHashMap<>();
+    private final Map<String, Long> keyPairExpires = new ConcurrentHashMap<>();
+    private final Map<String, byte[]> encodedHeaders = new ConcurrentHashMap<>();
     private static final Config config = ConfigProvider.getConfig();
     private final long keyPairLifeTime =config.getValue("key.pair.lifetime.duration",Integer.class);
     private final long jwtLifeTime =config.getValue("jwt.lifetime.duration",Integer.class);
     private final long maxCacheSize =config.getValue("key.pair.cache.size",Integer.class);
     private final Set<String> audiences = Set.of("urn:me.appsec.www","urn:me.appsec.admin","urn:me:appsec:api");
     private final String issuer =config.getValue("jwt.issuer",String.class);
+    private final String rolesMaskClaim =config.getOptionalValue("jwt.claim.roles.mask",String.class).orElse("rmask");
+    private final boolean groupsClaimEnabled =config.getOptionalValue("jwt.claim.groups.enabled",Boolean.class).orElse(false);
+    @Resource
+    ManagedThreadFactory managedThreadFactory;
+    private KeyRingStore keyRing;
+    private JwtMinter minter;
+    private volatile SigningKey signingKey;
+    private volatile JwksDocument jwks;
 
     private void generateKeyPair() {
         var kid = UUID.randomUUID().toString();
-        keyPairExpires.put(kid, Instant.now().getEpochSecond()+keyPairLifeTime);
-        cachedKeyPairs.put(kid, keyPairGenerator.generateKeyPair());
+        var keyPair = keyPairGenerator.generateKeyPair();
+        encodedHeaders.put(kid, minter.encodeHeader(kid));
+        var expires = Instant.now().getEpochSecond()+keyPairLifeTime;
+        keyRing.publish(kid, keyPair.getPublic(), expires+jwtLifeTime);
+        keyPairExpires.put(kid, expires);
+        cachedKeyPairs.put(kid, keyPair);
     }
 
-    private Optional<Map.Entry<String, KeyPair>> getKeyPair() {
-        cachedKeyPairs.entrySet().removeIf(e -> isPublicKeyExpired(e.getKey()));
-        while(cachedKeyPairs.entrySet().stream().filter(e -> privateKeyHasNotExpired(e.getKey())).count() < maxCacheSize) {
+    private SigningKey getSigningKey() {
+        var current = signingKey;
+        if(current != null && Instant.now().getEpochSecond() <= current.expires) {
+            return current;
+        }
+        return rotate();
+    }
+
+    private synchronized SigningKey rotate() {
+        var current = signingKey;
+        if(current != null && Instant.now().getEpochSecond() <= current.expires) {
+            return current;
+        }
+        refreshKeys();
+        return signingKey;
+    }
+
+    private synchronized void refreshKeys() {
+        cachedKeyPairs.keySet().removeIf(this::isPublicKeyExpired);
+        keyPairExpires.keySet().retainAll(cachedKeyPairs.keySet());
+        encodedHeaders.keySet().retainAll(cachedKeyPairs.keySet());
+        while(cachedKeyPairs.keySet().stream().filter(this::privateKeyHasNotExpired).count() < maxCacheSize) {
             generateKeyPair();
         }
-        return cachedKeyPairs.entrySet().stream().filter(e -> privateKeyHasNotExpired(e.getKey())).findAny();
+        // Sign with the key that stays valid the longest so rotations are as rare as possible
+        var kid = cachedKeyPairs.keySet().stream().filter(this::privateKeyHasNotExpired)
+                .max(Comparator.comparing(keyPairExpires::get)).orElseThrow();
+        signingKey = new SigningKey(cachedKeyPairs.get(kid).getPrivate(), encodedHeaders.get(kid), keyPairExpires.get(kid));
+        jwks = buildJwks();
+    }
+
+    private JwksDocument buildJwks() {
+        var publicKeys = new HashMap<String, PublicKey>();
+        var notAfter = new HashMap<String, Long>();
+        // The set changes when the signing key expires or when a retired public key is dropped
+        var refreshAt = signingKey.expires + 1;
+        for (var entry : cachedKeyPairs.entrySet()) {
+            var publicKeyExpires = keyPairExpires.get(entry.getKey()) + jwtLifeTime;
+            publicKeys.put(entry.getKey(), entry.getValue().getPublic());
+            notAfter.put(entry.getKey(), publicKeyExpires);
+            refreshAt = Math.min(refreshAt, publicKeyExpires + 1);
+        }
+        return JwksDocument.of(publicKeys, notAfter, refreshAt);
+    }
+
+    /**
+     * @return the current public key set, rebuilt only when the keys rotate
+     */
+    @Lock(LockType.READ)
+    public JwksDocument getJwks() {
+        var current = jwks;
+        if (Instant.now().getEpochSecond() < current.getRefreshAt()) {
+            return current;
+        }
+        synchronized (this) {
+            if (Instant.now().getEpochSecond() >= jwks.getRefreshAt()) {
+                refreshKeys();
+            }
+            return jwks;
+        }
     }
 
     private boolean isPublicKeyExpired(String kid) {
@@ -67,48 +142,27 @@ public class JwtManager {
 
     @PostConstruct
     public void init() {
-        while(cachedKeyPairs.entrySet().stream().filter(e -> privateKeyHasNotExpired(e.getKey())).count() < maxCacheSize) {
-            generateKeyPair();
-        }
+        minter = new JwtMinter(jwsAlgorithm, issuer, audiences, rolesMaskClaim, groupsClaimEnabled);
+        keyRing = KeyRingStore.fromConfig(managedThreadFactory != null ? managedThreadFactory : Executors.defaultThreadFactory());
+        rotate();
     }
 
+    @PreDestroy
+    public void close() {
+        keyRing.close();
+    }
+
+    @Lock(LockType.READ)
     public String generateToken(String tenantId,String subject,String approvedScopes, String[] roles) {
+        return generateToken(tenantId, subject, approvedScopes, RoleCodec.mask(roles));
+    }
+
+    @Lock(LockType.READ)
+    public String generateToken(String tenantId,String subject,String approvedScopes, long roles) {
         try {
-            var keyPair = getKeyPair().orElseThrow();
-            var privateKey = keyPair.getValue().getPrivate();
-            signatureAlgorithm.initSign(privateKey);
-            var header = Json.createObjectBuilder()
-                    .add("typ","JWT")
-                    .add("alg",privateKey.getAlgorithm())
-                    .add("kid",keyPair.getKey())
-                    .build().toString();
-            var now = Instant.now();
-            var rolesJab = Json.createArrayBuilder();
-            for(var role : roles) {
-                rolesJab.add(role);
-            }
-            var audiencesJab = Json.createArrayBuilder();
-            for(var audience : audiences) {
-                audiencesJab.add(audience);
-            }
-            var payload = Json.createObjectBuilder()
-                    .add("iss",issuer)
-                    .add("aud",audiencesJab)
-                    .add("tenant-id",tenantId)
-                    .add("sub",subject)
-                    .add("upn",subject)
-                    .add("scope",approvedScopes)
-                    .add("groups",rolesJab)
-                    .add("exp",now.getEpochSecond()+jwtLifeTime)
-                    .add("iat",now.getEpochSecond())
-                    .add("nbf",now.getEpochSecond())
-                    .add("jti",UUID.randomUUID().toString())
-                    .build().toString();
-            var toSign = Base64.getUrlEncoder().withoutPadding().encodeToString(header.getBytes())
-                    +"."+
-                    Base64.getUrlEncoder().withoutPadding().encodeToString(payload.getBytes());
-            signatureAlgorithm.update(toSign.getBytes(StandardCharsets.UTF_8));
-            return toSign+"."+Base64.getUrlEncoder().withoutPadding().encodeToString(signatureAlgorithm.sign());
+            var key = getSigningKey();
+            var now = Instant.now().getEpochSecond();
+            return minter.mint(key.encodedHeader, key.privateKey, tenantId, subject, approvedScopes, roles, now, now+jwtLifeTime);
         } catch (InvalidKeyException | SignatureException | NoSuchElementException e) {
             throw new EJBException(e);
         }
@@ -143,7 +197,7 @@ public class JwtManager {
                     "sub",payload.getString("sub"),
                     "upn",payload.getString("upn"),
                     "scope",payload.getString("scope"),
-                    "groups",payload.getJsonArray("groups").toString());
+                    rolesMaskClaim,Long.toString(RoleCodec.rolesOf(payload, rolesMaskClaim)));
         } catch (InvalidKeyException | SignatureException e) {
             throw new EJBException(e);
         }
@@ -162,4 +216,16 @@ public class JwtManager {
                 .add("x",encoded.substring(16))
                 .build();
     }
+
+    private static final class SigningKey {
+        final PrivateKey privateKey;
+        final byte[] encodedHeader;
+        final long expires;
+
+        SigningKey(PrivateKey privateKey, byte[] encodedHeader, long expires) {
+            this.privateKey = privateKey;
+            this.encodedHeader = encodedHeader;
+            this.expires = expires;
+        }
+    }
 }
\ No newline at end of file
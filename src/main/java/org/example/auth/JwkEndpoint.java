@@ -0,0 +1,56 @@
+package org.example.auth;
+
+import jakarta.inject.Inject;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.CacheControl;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.EntityTag;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Request;
+import jakarta.ws.rs.core.Response;
+
+import java.time.Instant;
+
+/**
+ * Publishes the issuer's public keys as a JSON Web Key Set.
+ * The document is pre-serialized by {@link JwtManager} on rotation and served with a strong
+ * ETag and a max-age that ends at the next rotation, so pollers mostly get a 304.
+ */
+@Path("/jwks")
+public class JwkEndpoint {
+
+    @Inject
+    JwtManager jwtManager;
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response jwks(@QueryParam("kid") String kid, @Context Request request) {
+        var jwks = jwtManager.getJwks();
+        var now = Instant.now().getEpochSecond();
+        if (kid == null || kid.isEmpty()) {
+            return conditional(request, new EntityTag(jwks.getEntityTag()), jwks.getRefreshAt() - now, jwks.getBody());
+        }
+        var key = jwks.getKey(kid);
+        if (key == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        // A kid always names the same key, so it can be cached until the key is retired
+        return conditional(request, new EntityTag(kid), jwks.getKeyNotAfter(kid) - now, key);
+    }
+
+    private Response conditional(Request request, EntityTag entityTag, long maxAge, byte[] body) {
+        var cacheControl = new CacheControl();
+        cacheControl.setMaxAge((int) Math.max(0L, Math.min(maxAge, Integer.MAX_VALUE)));
+        var notModified = request.evaluatePreconditions(entityTag);
+        if (notModified != null) {
+            return notModified.cacheControl(cacheControl).build();
+        }
+        return Response.ok(body)
+                .tag(entityTag)
+                .cacheControl(cacheControl)
+                .build();
+    }
+}
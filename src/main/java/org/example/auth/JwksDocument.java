@@ -0,0 +1,100 @@
+package org.example.auth;
+
+import jakarta.ejb.EJBException;
+import jakarta.json.Json;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Pre-serialized JSON Web Key Set of the issuer's public keys.
+ * Built once per key rotation and served as is until the next one.
+ */
+public final class JwksDocument {
+    private final byte[] body;
+    private final String entityTag;
+    private final Map<String, byte[]> keys;
+    private final Map<String, Long> keyNotAfter;
+    private final long refreshAt;
+
+    private JwksDocument(byte[] body, String entityTag, Map<String, byte[]> keys, Map<String, Long> keyNotAfter, long refreshAt) {
+        this.body = body;
+        this.entityTag = entityTag;
+        this.keys = keys;
+        this.keyNotAfter = keyNotAfter;
+        this.refreshAt = refreshAt;
+    }
+
+    /**
+     * @param publicKeys the public keys by kid
+     * @param notAfter the epoch second after which each key is no longer published
+     * @param refreshAt the epoch second of the next scheduled rotation
+     */
+    static JwksDocument of(Map<String, PublicKey> publicKeys, Map<String, Long> notAfter, long refreshAt) {
+        var keysJab = Json.createArrayBuilder();
+        var keys = new HashMap<String, byte[]>();
+        var keyNotAfter = new HashMap<String, Long>();
+        publicKeys.forEach((kid, publicKey) -> {
+            var jwk = Json.createObjectBuilder()
+                    .add("kty","OKP")
+                    .add("crv","Ed25519")
+                    .add("use","sig")
+                    .add("alg","EdDSA")
+                    .add("kid",kid)
+                    .add("x",Ed25519Jwk.x(publicKey))
+                    .build();
+            keysJab.add(jwk);
+            keys.put(kid, jwk.toString().getBytes(StandardCharsets.UTF_8));
+            keyNotAfter.put(kid, notAfter.get(kid));
+        });
+        var body = Json.createObjectBuilder().add("keys", keysJab).build().toString().getBytes(StandardCharsets.UTF_8);
+        return new JwksDocument(body, digest(body), Collections.unmodifiableMap(keys), Collections.unmodifiableMap(keyNotAfter), refreshAt);
+    }
+
+    private static String digest(byte[] body) {
+        try {
+            var hash = MessageDigest.getInstance("SHA-256").digest(body);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new EJBException(e);
+        }
+    }
+
+    /**
+     * @return the serialized key set; callers must not modify it
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * @return the strong entity tag of the key set, unquoted
+     */
+    public String getEntityTag() {
+        return entityTag;
+    }
+
+    /**
+     * @return the serialized key, or {@code null} for an unknown kid; callers must not modify it
+     */
+    public byte[] getKey(String kid) {
+        return keys.get(kid);
+    }
+
+    public long getKeyNotAfter(String kid) {
+        return keyNotAfter.getOrDefault(kid, 0L);
+    }
+
+    /**
+     * @return the epoch second at which the key set changes next
+     */
+    public long getRefreshAt() {
+        return refreshAt;
+    }
+}
@@ -0,0 +1,268 @@
+package org.example.auth;
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Allocation-light JWT minting pipeline used by {@link JwtManager}.
+ * The header segment of each key and the constant claims are encoded once; per token,
+ * the variable claims are written as UTF-8 into a reusable per-thread buffer, base64url
+ * encoded in place and signed without intermediate Strings.
+ */
+final class JwtMinter {
+    private static final byte[] BASE64_URL = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_"
+            .getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private final String algorithm;
+    private final byte[] constantClaims;
+    private final byte[] rolesMaskKey;
+    private final boolean groupsClaimEnabled;
+    private final ThreadLocal<Buffers> buffers;
+
+    private final byte[] jtiPrefix = new byte[8];
+    private final AtomicLong jtiCounter;
+
+    JwtMinter(String algorithm, String issuer, Collection<String> audiences, String rolesMaskClaim, boolean groupsClaimEnabled) {
+        this.algorithm = algorithm;
+        this.groupsClaimEnabled = groupsClaimEnabled;
+        var json = new Buffer(256);
+        json.ascii("{\"iss\":").string(issuer).ascii(",\"aud\":[");
+        var first = true;
+        for (var audience : audiences) {
+            if (!first) {
+                json.put((byte) ',');
+            }
+            json.string(audience);
+            first = false;
+        }
+        json.put((byte) ']');
+        this.constantClaims = json.toByteArray();
+        this.rolesMaskKey = new Buffer(32).put((byte) ',').string(rolesMaskClaim).put((byte) ':').toByteArray();
+        this.buffers = ThreadLocal.withInitial(Buffers::new);
+        // The node prefix keeps jti values unique across nodes, the counter keeps them unique per node
+        var random = new SecureRandom();
+        random.nextBytes(jtiPrefix);
+        this.jtiCounter = new AtomicLong(random.nextLong());
+    }
+
+    /**
+     * Encodes the protected header of a key, including the trailing separator.
+     * Called once per key at rotation time.
+     *
+     * @param kid the key id
+     * @return the base64url header segment followed by {@code '.'}
+     */
+    byte[] encodeHeader(String kid) {
+        var json = new Buffer(96);
+        json.ascii("{\"typ\":\"JWT\",\"alg\":").string(algorithm).ascii(",\"kid\":").string(kid).put((byte) '}');
+        var segment = new Buffer(160);
+        segment.base64Url(json.bytes, 0, json.length).put((byte) '.');
+        return segment.toByteArray();
+    }
+
+    String mint(byte[] encodedHeader, PrivateKey privateKey, String tenantId, String subject, String approvedScopes,
+                long roles, long issuedAt, long expiresAt) throws InvalidKeyException, SignatureException {
+        var b = buffers.get();
+        var json = b.json.reset();
+        json.put(constantClaims)
+                .ascii(",\"tenant-id\":").string(tenantId)
+                .ascii(",\"sub\":").string(subject)
+                .ascii(",\"upn\":").string(subject)
+                .ascii(",\"scope\":").string(approvedScopes)
+                .put(rolesMaskKey).decimal(roles);
+        if (groupsClaimEnabled) {
+            json.ascii(",\"groups\":[");
+            var first = true;
+            for (var role : RoleCodec.names(roles)) {
+                if (!first) {
+                    json.put((byte) ',');
+                }
+                json.string(role);
+                first = false;
+            }
+            json.put((byte) ']');
+        }
+        json.ascii(",\"exp\":").decimal(expiresAt)
+                .ascii(",\"iat\":").decimal(issuedAt)
+                .ascii(",\"nbf\":").decimal(issuedAt)
+                .ascii(",\"jti\":\"");
+        writeJti(json);
+        json.ascii("\"}");
+
+        var token = b.token.reset();
+        token.put(encodedHeader).base64Url(json.bytes, 0, json.length);
+        var signature = b.signature(privateKey);
+        signature.update(token.bytes, 0, token.length);
+        var signed = signature.sign();
+        token.put((byte) '.').base64Url(signed, 0, signed.length);
+        return new String(token.bytes, 0, token.length, StandardCharsets.ISO_8859_1);
+    }
+
+    private void writeJti(Buffer json) {
+        for (var prefixByte : jtiPrefix) {
+            json.put(HEX[(prefixByte >> 4) & 0xF]).put(HEX[prefixByte & 0xF]);
+        }
+        var counter = jtiCounter.getAndIncrement();
+        for (var shift = 60; shift >= 0; shift -= 4) {
+            json.put(HEX[(int) (counter >>> shift) & 0xF]);
+        }
+    }
+
+    private static final class Buffers {
+        final Buffer json = new Buffer(512);
+        final Buffer token = new Buffer(1024);
+        private Signature signature;
+        private PrivateKey signingKey;
+
+        Signature signature(PrivateKey privateKey) throws InvalidKeyException {
+            if (signature == null) {
+                try {
+                    signature = Signature.getInstance(privateKey.getAlgorithm());
+                } catch (NoSuchAlgorithmException e) {
+                    throw new InvalidKeyException(e);
+                }
+            }
+            // sign() resets the engine to its initialized state, so the key only has to be set on rotation
+            if (signingKey != privateKey) {
+                signature.initSign(privateKey);
+                signingKey = privateKey;
+            }
+            return signature;
+        }
+    }
+
+    /**
+     * Growable byte buffer with JSON and base64url writers.
+     */
+    static final class Buffer {
+        byte[] bytes;
+        int length;
+
+        Buffer(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        Buffer reset() {
+            length = 0;
+            return this;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, length);
+        }
+
+        private void ensure(int extra) {
+            if (length + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+            }
+        }
+
+        Buffer put(byte b) {
+            ensure(1);
+            bytes[length++] = b;
+            return this;
+        }
+
+        Buffer put(byte[] src) {
+            ensure(src.length);
+            System.arraycopy(src, 0, bytes, length, src.length);
+            length += src.length;
+            return this;
+        }
+
+        Buffer ascii(String s) {
+            ensure(s.length());
+            for (var i = 0; i < s.length(); i++) {
+                bytes[length++] = (byte) s.charAt(i);
+            }
+            return this;
+        }
+
+        Buffer decimal(long value) {
+            if (value == Long.MIN_VALUE) {
+                return ascii(Long.toString(value));
+            }
+            ensure(20);
+            if (value < 0) {
+                bytes[length++] = '-';
+                value = -value;
+            }
+            var start = length;
+            do {
+                bytes[length++] = (byte) ('0' + (value % 10));
+                value /= 10;
+            } while (value != 0);
+            for (int i = start, j = length - 1; i < j; i++, j--) {
+                var tmp = bytes[i];
+                bytes[i] = bytes[j];
+                bytes[j] = tmp;
+            }
+            return this;
+        }
+
+        /**
+         * Writes a JSON string literal encoded as UTF-8.
+         */
+        Buffer string(String s) {
+            ensure(s.length() * 3 + 2);
+            bytes[length++] = '"';
+            for (var i = 0; i < s.length(); i++) {
+                var c = s.charAt(i);
+                if (c == '"' || c == '\\') {
+                    put((byte) '\\').put((byte) c);
+                } else if (c < 0x20) {
+                    put((byte) '\\').put((byte) 'u').put((byte) '0').put((byte) '0')
+                            .put(HEX[c >> 4]).put(HEX[c & 0xF]);
+                } else if (c < 0x80) {
+                    put((byte) c);
+                } else if (c < 0x800) {
+                    put((byte) (0xC0 | (c >> 6))).put((byte) (0x80 | (c & 0x3F)));
+                } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    var cp = Character.toCodePoint(c, s.charAt(++i));
+                    put((byte) (0xF0 | (cp >> 18))).put((byte) (0x80 | ((cp >> 12) & 0x3F)))
+                            .put((byte) (0x80 | ((cp >> 6) & 0x3F))).put((byte) (0x80 | (cp & 0x3F)));
+                } else {
+                    put((byte) (0xE0 | (c >> 12))).put((byte) (0x80 | ((c >> 6) & 0x3F))).put((byte) (0x80 | (c & 0x3F)));
+                }
+            }
+            return put((byte) '"');
+        }
+
+        /**
+         * Appends the unpadded base64url encoding of {@code src[off, off+len)}.
+         */
+        Buffer base64Url(byte[] src, int off, int len) {
+            ensure((len + 2) / 3 * 4);
+            var end = off + len;
+            var i = off;
+            for (; i + 2 < end; i += 3) {
+                var bits = (src[i] & 0xFF) << 16 | (src[i + 1] & 0xFF) << 8 | (src[i + 2] & 0xFF);
+                bytes[length++] = BASE64_URL[(bits >>> 18) & 0x3F];
+                bytes[length++] = BASE64_URL[(bits >>> 12) & 0x3F];
+                bytes[length++] = BASE64_URL[(bits >>> 6) & 0x3F];
+                bytes[length++] = BASE64_URL[bits & 0x3F];
+            }
+            var remaining = end - i;
+            if (remaining == 1) {
+                var bits = (src[i] & 0xFF) << 16;
+                bytes[length++] = BASE64_URL[(bits >>> 18) & 0x3F];
+                bytes[length++] = BASE64_URL[(bits >>> 12) & 0x3F];
+            } else if (remaining == 2) {
+                var bits = (src[i] & 0xFF) << 16 | (src[i + 1] & 0xFF) << 8;
+                bytes[length++] = BASE64_URL[(bits >>> 18) & 0x3F];
+                bytes[length++] = BASE64_URL[(bits >>> 12) & 0x3F];
+                bytes[length++] = BASE64_URL[(bits >>> 6) & 0x3F];
+            }
+            return this;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.example.auth;
+
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.ConfigProvider;
+
+import java.nio.file.Paths;
+import java.security.PublicKey;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Consumer;
+
+/**
+ * Shared store of the public signing keys of every node.
+ * Issuers publish their keys on rotation; verifiers load and watch the store so that tokens
+ * can be checked locally, without fetching keys from the issuing node.
+ */
+public interface KeyRingStore extends AutoCloseable {
+
+    /**
+     * Store used when no key ring is configured.
+     */
+    KeyRingStore NONE = new KeyRingStore() {
+        @Override
+        public void publish(String kid, PublicKey publicKey, long notAfter) {
+        }
+
+        @Override
+        public Collection<PublishedKey> load() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public void watch(Consumer<PublishedKey> listener) {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    /**
+     * Atomically publishes a public key.
+     *
+     * @param kid the key id
+     * @param publicKey the public key
+     * @param notAfter epoch second after which no token signed by the key is valid anymore
+     */
+    void publish(String kid, PublicKey publicKey, long notAfter);
+
+    /**
+     * @return every valid key currently in the store
+     */
+    Collection<PublishedKey> load();
+
+    /**
+     * Notifies the listener of every key published from now on, by any node.
+     */
+    void watch(Consumer<PublishedKey> listener);
+
+    @Override
+    void close();
+
+    /**
+     * @param threadFactory the factory of the thread watching the store
+     */
+    static KeyRingStore fromConfig(ThreadFactory threadFactory) {
+        Config config = ConfigProvider.getConfig();
+        var directory = config.getOptionalValue("key.ring.directory", String.class);
+        if (directory.isEmpty()) {
+            return NONE;
+        }
+        return new FileKeyRingStore(Paths.get(directory.get()), config.getValue("key.ring.secret", String.class), threadFactory);
+    }
+
+    final class PublishedKey {
+        private final String kid;
+        private final PublicKey publicKey;
+        private final long notAfter;
+
+        public PublishedKey(String kid, PublicKey publicKey, long notAfter) {
+            this.kid = kid;
+            this.publicKey = publicKey;
+            this.notAfter = notAfter;
+        }
+
+        public String getKid() {
+            return kid;
+        }
+
+        public PublicKey getPublicKey() {
+            return publicKey;
+        }
+
+        public long getNotAfter() {
+            return notAfter;
+        }
+    }
+}
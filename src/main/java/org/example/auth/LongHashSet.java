@@ -0,0 +1,90 @@
+package org.example.auth;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Open-addressing set of non-zero longs with linear probing.
+ * Lookups are lock-free and allocation-free; additions are serialized and grow the table by
+ * publishing a fully populated copy, so a concurrent lookup always probes a consistent table.
+ */
+final class LongHashSet {
+    private static final long EMPTY = 0L;
+
+    private volatile AtomicLongArray table;
+    private int size;
+
+    LongHashSet(int expectedSize) {
+        table = new AtomicLongArray(capacityFor(expectedSize));
+    }
+
+    boolean contains(long key) {
+        AtomicLongArray slots = table;
+        int mask = slots.length() - 1;
+        for (int i = spread(key) & mask; ; i = (i + 1) & mask) {
+            long slot = slots.get(i);
+            if (slot == key) {
+                return true;
+            }
+            if (slot == EMPTY) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * @param key the key, must not be {@code 0}
+     * @return whether the key was added
+     */
+    synchronized boolean add(long key) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("0 is reserved");
+        }
+        // Keep the load factor at most 1/2 so that probe sequences stay short
+        if ((size + 1) * 2 > table.length()) {
+            AtomicLongArray grown = new AtomicLongArray(table.length() * 2);
+            for (int i = 0; i < table.length(); i++) {
+                long existing = table.get(i);
+                if (existing != EMPTY) {
+                    insert(grown, existing);
+                }
+            }
+            table = grown;
+        }
+        if (insert(table, key)) {
+            size++;
+            return true;
+        }
+        return false;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    private static boolean insert(AtomicLongArray slots, long key) {
+        int mask = slots.length() - 1;
+        for (int i = spread(key) & mask; ; i = (i + 1) & mask) {
+            long slot = slots.get(i);
+            if (slot == key) {
+                return false;
+            }
+            if (slot == EMPTY) {
+                slots.set(i, key);
+                return true;
+            }
+        }
+    }
+
+    private static int spread(long key) {
+        long hash = key * 0x9e3779b97f4a7c15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
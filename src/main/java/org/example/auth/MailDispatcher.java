@@ -0,0 +1,253 @@
+package org.example.auth;
+
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.Transport;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.example.web.IdentityContext;
+import org.example.web.IdentityUtility;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends mail in the background over a small set of long-lived SMTP connections.
+ * Each worker owns one {@link Transport}, authenticates it once and keeps it open while there is
+ * traffic, draining the queue in batches so that a burst of messages shares a single connection.
+ * Failed messages are retried with exponential backoff; the dispatcher only needs a
+ * {@link Session}, so it can be pointed at a local SMTP stub.
+ */
+public class MailDispatcher {
+    private static final Logger logger = LogManager.getLogger(MailDispatcher.class);
+
+    private final Session session;
+    private final String username;
+    private final String password;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long idleMillis;
+    private final BlockingQueue<Outgoing> queue;
+    private final ScheduledExecutorService retryScheduler;
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean running = true;
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder totalLatencyNanos = new LongAdder();
+    private final LongAccumulator maxLatencyNanos = new LongAccumulator(Long::max, 0L);
+
+    /**
+     * @param session the mail session, carrying the SMTP host and port
+     * @param username the SMTP user, or {@code null} for an unauthenticated server
+     * @param password the SMTP password
+     * @param connections the number of workers, each holding one connection
+     * @param queueCapacity the number of messages waiting to be sent
+     * @param batchSize the number of messages a worker takes from the queue at once
+     * @param maxAttempts the attempts made for a message before it is dropped
+     * @param initialBackoffMillis the delay before the first retry, doubled on every attempt
+     * @param idleMillis the inactivity after which a worker closes its connection
+     * @param threadFactory the factory of the worker threads
+     */
+    public MailDispatcher(Session session, String username, String password, int connections, int queueCapacity,
+                          int batchSize, int maxAttempts, long initialBackoffMillis, long idleMillis,
+                          ThreadFactory threadFactory) {
+        this.session = session;
+        this.username = username;
+        this.password = password;
+        this.batchSize = batchSize;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.idleMillis = idleMillis;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        for (int i = 0; i < connections; i++) {
+            Thread worker = threadFactory.newThread(this::work);
+            worker.setName("mail-dispatcher-" + i);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * Queues a message and returns immediately.
+     *
+     * @return {@code false} when the queue is full
+     */
+    public boolean dispatch(Message message) {
+        if (!running || !queue.offer(new Outgoing(message, System.nanoTime()))) {
+            rejected.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Stops the workers, giving them up to {@code timeoutMillis} to flush the queue.
+     */
+    public void shutdown(long timeoutMillis) {
+        running = false;
+        retryScheduler.shutdownNow();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (Thread worker : workers) {
+            try {
+                worker.join(Math.max(1L, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            worker.interrupt();
+        }
+        if (!queue.isEmpty()) {
+            logger.warn("Mail dispatcher stopped with {} unsent messages", queue.size());
+        }
+    }
+
+    private void work() {
+        Connection connection = new Connection();
+        List<Outgoing> batch = new ArrayList<>(batchSize);
+        try {
+            while (running || !queue.isEmpty()) {
+                Outgoing first = queue.poll(Math.min(idleMillis, 1000L), TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (System.nanoTime() - connection.lastUse > TimeUnit.MILLISECONDS.toNanos(idleMillis)) {
+                        connection.close();
+                    }
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                for (Outgoing outgoing : batch) {
+                    // Each message is sent on behalf of the caller that queued it
+                    IdentityUtility.runAs(outgoing.identity, () -> send(connection, outgoing));
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            connection.close();
+        }
+    }
+
+    private void send(Connection connection, Outgoing outgoing) {
+        try {
+            connection.send(outgoing.message);
+            long latency = System.nanoTime() - outgoing.enqueued;
+            sent.increment();
+            totalLatencyNanos.add(latency);
+            maxLatencyNanos.accumulate(latency);
+        } catch (MessagingException e) {
+            // The connection may be broken, the next message starts over with a fresh one
+            connection.close();
+            retry(outgoing, e);
+        }
+    }
+
+    private void retry(Outgoing outgoing, MessagingException cause) {
+        int attempt = ++outgoing.attempts;
+        if (attempt >= maxAttempts || !running) {
+            failed.increment();
+            logger.error("Giving up on mail after {} attempts", attempt, cause);
+            return;
+        }
+        retried.increment();
+        long delay = initialBackoffMillis << Math.min(attempt - 1, 16);
+        logger.warn("Mail delivery failed, retrying in {} ms: {}", delay, cause.getMessage());
+        retryScheduler.schedule(() -> {
+            if (!queue.offer(outgoing)) {
+                failed.increment();
+                logger.error("Mail queue full, dropping a retried message");
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public int getConnections() {
+        return workers.size();
+    }
+
+    public long getSentCount() {
+        return sent.sum();
+    }
+
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    public long getRetriedCount() {
+        return retried.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return the mean time from queueing to delivery, in nanoseconds
+     */
+    public long getMeanLatencyNanos() {
+        long count = sent.sum();
+        return count == 0 ? 0L : totalLatencyNanos.sum() / count;
+    }
+
+    public long getMaxLatencyNanos() {
+        return maxLatencyNanos.get();
+    }
+
+    /**
+     * The SMTP connection of one worker, opened on demand and only used by that worker.
+     */
+    private final class Connection {
+        private Transport transport;
+        private long lastUse = System.nanoTime();
+
+        void send(Message message) throws MessagingException {
+            if (transport == null || !transport.isConnected()) {
+                transport = session.getTransport("smtp");
+                transport.connect(username, password);
+            }
+            transport.sendMessage(message, message.getAllRecipients());
+            lastUse = System.nanoTime();
+        }
+
+        void close() {
+            if (transport == null) {
+                return;
+            }
+            try {
+                transport.close();
+            } catch (MessagingException e) {
+                logger.debug("Failed to close SMTP connection", e);
+            }
+            transport = null;
+        }
+    }
+
+    private static final class Outgoing {
+        final Message message;
+        final long enqueued;
+        final IdentityContext identity = IdentityUtility.current();
+        int attempts;
+
+        Outgoing(Message message, long enqueued) {
+            this.message = message;
+            this.enqueued = enqueued;
+        }
+    }
+}
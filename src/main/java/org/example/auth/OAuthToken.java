@@ -1,96 +1,109 @@
 package org.example.auth;
 
 import jakarta.inject.Inject;
+import jakarta.json.Json;
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.container.Suspended;
 import jakarta.ws.rs.core.*;
-import tn.supcom.appsec.entities.Identity;
-import tn.supcom.appsec.repositories.TenantRepository;
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.ConfigProvider;
+import org.example.web.RateLimited;
 import tn.supcom.appsec.services.IdentityServices;
 
-import java.io.InputStream;
-import java.util.Objects;
-
-@Path("/")
-public class IdentityRegistration {
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.concurrent.CompletionException;
 
+/**
+ * Token endpoint of the resource owner password grant: checks the client, then the user's
+ * credentials on the password hashing pool, and issues an access token. A successful login with a
+ * hash computed under stale Argon2 parameters upgrades the hash in the background.
+ */
+@Path("/oauth/token")
+@RateLimited
+public class OAuthTokenEndpoint {
+    private static final Config config = ConfigProvider.getConfig();
+    private static final long JWT_LIFETIME = config.getValue("jwt.lifetime.duration", Long.class);
 
     @Inject
     IdentityServices identityServices;
     @Inject
-    TenantRepository tenantRepository;
+    CachedIdentityRepository identityRepository;
+    @Inject
+    TenantRegistry tenantRegistry;
+    @Inject
+    JwtManager jwtManager;
 
-    @GET
-    @Path("/register/authorize")
-    @Produces(MediaType.TEXT_HTML)
-    public Response authorizeRegistration(@Context UriInfo uriInfo) {
-        var params = uriInfo.getQueryParameters();
-        var clientId = params.getFirst("client_id");
-        if (clientId == null || clientId.isEmpty()) {
-            return informUserAboutError("Invalid client_id :" + clientId);
+    @POST
+    @Consumes(MediaType.APPLICATION_FORM_URLENCODED)
+    @Produces(MediaType.APPLICATION_JSON)
+    public void token(@FormParam("grant_type") String grantType,
+                      @FormParam("client_id") String clientId,
+                      @FormParam("client_secret") String clientSecret,
+                      @FormParam("username") String username,
+                      @FormParam("password") String password,
+                      @FormParam("scope") String scope,
+                      @Suspended AsyncResponse asyncResponse) {
+        if (!GrantType.PASSWORD.id().equals(grantType)) {
+            asyncResponse.resume(error(Response.Status.BAD_REQUEST, "unsupported_grant_type"));
+            return;
         }
-        var tenant = tenantRepository.findByName(clientId);
-        if (tenant == null) {
-            return informUserAboutError("Invalid client_id :" + clientId);
+        var tenant = clientId == null ? null : tenantRegistry.find(clientId);
+        if (tenant == null || clientSecret == null || tenant.getSecret() == null
+                || !MessageDigest.isEqual(tenant.getSecret().getBytes(StandardCharsets.UTF_8), clientSecret.getBytes(StandardCharsets.UTF_8))) {
+            asyncResponse.resume(error(Response.Status.UNAUTHORIZED, "invalid_client"));
+            return;
         }
-        String redirectUri = params.getFirst("redirect_uri");
-        if (tenant.getRedirectUri() != null && !tenant.getRedirectUri().isEmpty()) {
-            if (redirectUri != null && !redirectUri.isEmpty() && !tenant.getRedirectUri().equals(redirectUri)) {
-                return informUserAboutError("redirect_uri is pre-registred and should match");
-            }
-        } else {
-            if (redirectUri == null || redirectUri.isEmpty()) {
-                return informUserAboutError("redirect_uri is not pre-registred and should be provided");
-            }
+        if (!tenant.supports(GrantType.PASSWORD)) {
+            asyncResponse.resume(error(Response.Status.BAD_REQUEST, "unauthorized_client"));
+            return;
+        }
+        var approvedScopes = scope == null ? "" : scope;
+        if (!tenant.isSatisfiedBy(tenant.scopes(approvedScopes))) {
+            asyncResponse.resume(error(Response.Status.BAD_REQUEST, "invalid_scope"));
+            return;
+        }
+        if (username == null || password == null) {
+            asyncResponse.resume(error(Response.Status.BAD_REQUEST, "invalid_request"));
+            return;
         }
-        StreamingOutput stream = output -> {
-            try (InputStream is = Objects.requireNonNull(getClass().getResource("/signup.html")).openStream()){
-                output.write(is.readAllBytes());
-            }
-        };
-        return Response.ok(stream)
-                .location(uriInfo.getBaseUri().resolve("/register"))
-                .build();
-    }
-
-    @POST
-    @Path("/register")
-    @Consumes(MediaType.APPLICATION_FORM_URLENCODED)
-    @Produces(MediaType.TEXT_HTML)
-    public Response register(@FormParam("username")String username,
-                             @FormParam("email")String email,
-                             @FormParam("password")String password
-    ) {
-
-    }
-
-    @POST
-    @Path("/register/activate")
-    public Response activate(@FormParam("code") String code
-    ) {
         try {
-            identityServices.activateIdentity(code);
-            return Response.ok().build();
-        } catch (Exception e){
-            return informUserAboutError(e.getMessage());
+            // Checked on the password hashing pool, the request thread is released meanwhile
+            identityServices.authenticate(username, password.toCharArray()).whenComplete((valid, e) -> {
+                if (e != null) {
+                    var cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    asyncResponse.resume(cause);
+                    return;
+                }
+                if (!valid) {
+                    asyncResponse.resume(error(Response.Status.BAD_REQUEST, "invalid_grant"));
+                    return;
+                }
+                long roles = identityRepository.findRolesByUsername(username).orElse(0L);
+                if (!tenant.allowsRoles(roles)) {
+                    asyncResponse.resume(error(Response.Status.BAD_REQUEST, "invalid_grant"));
+                    return;
+                }
+                var token = jwtManager.generateToken(tenant.getName(), username, approvedScopes, roles);
+                asyncResponse.resume(Response.ok(Json.createObjectBuilder()
+                                .add("access_token", token)
+                                .add("token_type", "Bearer")
+                                .add("expires_in", JWT_LIFETIME)
+                                .add("scope", approvedScopes)
+                                .build().toString())
+                        .header(HttpHeaders.CACHE_CONTROL, "no-store")
+                        .build());
+            });
+        } catch (RuntimeException e) {
+            asyncResponse.resume(e);
         }
     }
 
-    private Response informUserAboutError(String error) {
-        return Response.status(Response.Status.BAD_REQUEST).entity("""
-                <!DOCTYPE html>
-                <html>
-                <head>
-                    <meta charset="UTF-8"/>
-                    <title>Error</title>
-                </head>
-                <body>
-                <aside class="container">
-                    <p>%s</p>
-                </aside>
-                </body>
-                </html>
-                """.formatted(error)).build();
+    private static Response error(Response.Status status, String error) {
+        return Response.status(status)
+                .type(MediaType.APPLICATION_JSON)
+                .entity(Json.createObjectBuilder().add("error", error).build().toString())
+                .build();
     }
-
-
 }
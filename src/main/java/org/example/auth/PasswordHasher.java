@@ -0,0 +1,184 @@
+package org.example.auth;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import jakarta.enterprise.concurrent.ManagedThreadFactory;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.ConfigProvider;
+import org.example.metrics.Gauge;
+import org.example.metrics.Metrics;
+import org.example.metrics.Stage;
+import org.example.web.IdentityUtility;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Runs Argon2 hashing off the request threads on a fixed pool sized from the core count and a
+ * native memory budget, so a signup or login burst cannot allocate more than the budget nor
+ * starve unrelated requests of CPU. Work that waited in the bounded queue past its deadline is
+ * rejected instead of being hashed for a caller that already gave up.
+ */
+@ApplicationScoped
+public class PasswordHasher {
+    private static final Config config = ConfigProvider.getConfig();
+    private static final Gauge WORKERS = Metrics.gauge("argon2_pool_workers", "Argon2 hashing threads.", null).get();
+    private static final Gauge QUEUE_DEPTH = Metrics.gauge("argon2_pool_queue_depth", "Hashes waiting for a thread.", null).get();
+    private static final Gauge ACTIVE = Metrics.gauge("argon2_pool_active", "Hashes being computed.", null).get();
+
+    @Resource
+    ManagedThreadFactory managedThreadFactory;
+
+    private final int queueSize = config.getOptionalValue("argon2.pool.queue.size", Integer.class).orElse(256);
+    private final long queueTimeoutMillis = config.getOptionalValue("argon2.pool.queue.timeout.ms", Long.class).orElse(2000L);
+    private ThreadPoolExecutor executor;
+    private int workers;
+
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder totalLatencyNanos = new LongAdder();
+    private final LongAccumulator maxLatencyNanos = new LongAccumulator(Long::max, 0L);
+
+    @PostConstruct
+    public void init() {
+        if (config.getOptionalValue("argon2.calibration.enabled", Boolean.class).orElse(false)) {
+            // Calibrate before sizing the pool, the memory cost may change
+            Argon2Utils.calibrate(config.getOptionalValue("argon2.calibration.target.ms", Long.class).orElse(250L),
+                    config.getOptionalValue("argon2.calibration.memory.max", Integer.class).orElse(Argon2Utils.memoryCost()),
+                    config.getOptionalValue("argon2.calibration.memory.min", Integer.class).orElse(19456));
+        }
+        var cores = Runtime.getRuntime().availableProcessors();
+        // Budget of native memory for concurrent hashes, in KiB
+        long memoryBudget = config.getOptionalValue("argon2.pool.memory.budget", Long.class)
+                .orElse((long) cores * Argon2Utils.memoryCost());
+        workers = (int) Math.max(1L, Math.min(cores, memoryBudget / Argon2Utils.memoryCost()));
+        ThreadFactory threadFactory = managedThreadFactory != null ? managedThreadFactory : Executors.defaultThreadFactory();
+        executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+        WORKERS.set(this::getWorkers);
+        QUEUE_DEPTH.set(this::getQueueDepth);
+        ACTIVE.set(this::getActiveCount);
+    }
+
+    /**
+     * Creates the bean at startup, as delivering the event instantiates it: calibration takes
+     * seconds and would otherwise run on the first signup or login.
+     */
+    public void onStart(@Observes @Initialized(ApplicationScoped.class) Object event) {
+        // init() already ran
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Hashes a password; the array is wiped once hashed or rejected.
+     */
+    public CompletionStage<String> hash(char[] password) {
+        return hash(password, queueTimeoutMillis);
+    }
+
+    /**
+     * Hashes a password, waiting in the queue at most {@code queueTimeoutMillis}.
+     */
+    public CompletionStage<String> hash(char[] password, long queueTimeoutMillis) {
+        return submit(() -> Argon2Utils.hash(password), password, queueTimeoutMillis);
+    }
+
+    /**
+     * Checks a password against a stored hash; the array is wiped once checked or rejected.
+     */
+    public CompletionStage<Boolean> check(String hash, char[] password) {
+        return submit(() -> Argon2Utils.check(hash, password), password, queueTimeoutMillis);
+    }
+
+    private <T> CompletionStage<T> submit(Supplier<T> work, char[] password, long timeoutMillis) {
+        var future = new CompletableFuture<T>();
+        var enqueued = System.nanoTime();
+        var deadline = enqueued + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        try {
+            // The caller stays bound while hashing and in the completion stages run by the worker
+            executor.execute(IdentityUtility.wrap(() -> {
+                if (System.nanoTime() - deadline > 0) {
+                    rejected.increment();
+                    Stage.ARGON2_HASH.failed();
+                    Arrays.fill(password, '\0');
+                    future.completeExceptionally(new RejectedExecutionException("Password hashing queue deadline exceeded"));
+                    return;
+                }
+                try {
+                    var start = Stage.start();
+                    var result = work.get();
+                    Stage.ARGON2_HASH.record(start);
+                    future.complete(result);
+                } catch (RuntimeException e) {
+                    Stage.ARGON2_HASH.failed();
+                    future.completeExceptionally(e);
+                } finally {
+                    var latency = System.nanoTime() - enqueued;
+                    completed.increment();
+                    totalLatencyNanos.add(latency);
+                    maxLatencyNanos.accumulate(latency);
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            Stage.ARGON2_HASH.failed();
+            Arrays.fill(password, '\0');
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public int getQueueCapacity() {
+        return queueSize;
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public long getCompletedCount() {
+        return completed.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return the mean time from submission to completion, in nanoseconds
+     */
+    public long getMeanLatencyNanos() {
+        var count = completed.sum();
+        return count == 0 ? 0L : totalLatencyNanos.sum() / count;
+    }
+
+    public long getMaxLatencyNanos() {
+        return maxLatencyNanos.get();
+    }
+}
@@ -0,0 +1,65 @@
+package org.example.auth;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Locale;
+
+/**
+ * Exact match of a pre-registered redirect URI after normalization: the scheme and host are
+ * lower-cased, the default port and the fragment are dropped and an empty path becomes {@code /}.
+ * Path and query are compared as is, so no prefix or wildcard matching takes place.
+ */
+public final class RedirectUriMatcher {
+    private final String normalized;
+
+    private RedirectUriMatcher(String normalized) {
+        this.normalized = normalized;
+    }
+
+    /**
+     * @return the matcher, or {@code null} when the registered URI is not an absolute URI
+     */
+    public static RedirectUriMatcher of(String registeredUri) {
+        String normalized = normalize(registeredUri);
+        return normalized == null ? null : new RedirectUriMatcher(normalized);
+    }
+
+    public boolean matches(String redirectUri) {
+        return normalized.equals(normalize(redirectUri));
+    }
+
+    public String getRedirectUri() {
+        return normalized;
+    }
+
+    static String normalize(String uri) {
+        if (uri == null || uri.isEmpty()) {
+            return null;
+        }
+        try {
+            URI parsed = new URI(uri);
+            if (!parsed.isAbsolute() || parsed.getHost() == null || parsed.getRawUserInfo() != null) {
+                return null;
+            }
+            String scheme = parsed.getScheme().toLowerCase(Locale.ROOT);
+            int port = parsed.getPort();
+            if (("https".equals(scheme) && port == 443) || ("http".equals(scheme) && port == 80)) {
+                port = -1;
+            }
+            String path = parsed.getRawPath() == null || parsed.getRawPath().isEmpty() ? "/" : parsed.getRawPath();
+            StringBuilder builder = new StringBuilder(uri.length())
+                    .append(scheme).append("://")
+                    .append(parsed.getHost().toLowerCase(Locale.ROOT));
+            if (port != -1) {
+                builder.append(':').append(port);
+            }
+            builder.append(path);
+            if (parsed.getRawQuery() != null) {
+                builder.append('?').append(parsed.getRawQuery());
+            }
+            return builder.toString();
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package org.example.auth;
+
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.ConfigProvider;
+
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Consumer;
+
+/**
+ * Shared store of the token revocations made on every node.
+ * A node publishes each revocation it accepts; verifiers load and watch the store so that a token
+ * revoked through one node is rejected by all of them. Without a store, revocations only apply
+ * to the node they were made on.
+ */
+public interface RevocationStore extends AutoCloseable {
+
+    /**
+     * Store used when no revocation directory is configured.
+     */
+    RevocationStore NONE = new RevocationStore() {
+        @Override
+        public void publish(Revocation revocation) {
+        }
+
+        @Override
+        public Collection<Revocation> load() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public void watch(Consumer<Revocation> listener) {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    /**
+     * Atomically publishes a revocation.
+     */
+    void publish(Revocation revocation);
+
+    /**
+     * @return every revocation that may still apply to a live token
+     */
+    Collection<Revocation> load();
+
+    /**
+     * Notifies the listener of every revocation published from now on, by any node.
+     */
+    void watch(Consumer<Revocation> listener);
+
+    @Override
+    void close();
+
+    /**
+     * @param threadFactory the factory of the thread watching the store
+     */
+    static RevocationStore fromConfig(ThreadFactory threadFactory) {
+        Config config = ConfigProvider.getConfig();
+        var directory = config.getOptionalValue("token.revocation.directory", String.class);
+        if (directory.isEmpty()) {
+            return NONE;
+        }
+        var secret = config.getOptionalValue("token.revocation.secret", String.class)
+                .orElseGet(() -> config.getValue("key.ring.secret", String.class));
+        return new FileRevocationStore(Paths.get(directory.get()), secret, config.getValue("jwt.lifetime.duration", Long.class), threadFactory);
+    }
+
+    final class Revocation {
+        public static final String JTI = "jti";
+        public static final String SUBJECT = "sub";
+
+        private final String kind;
+        private final String value;
+        private final long revokedAt;
+
+        /**
+         * @param kind {@link #JTI} or {@link #SUBJECT}
+         * @param value the revoked {@code jti} or subject
+         * @param revokedAt epoch second of the revocation
+         */
+        public Revocation(String kind, String value, long revokedAt) {
+            this.kind = kind;
+            this.value = value;
+            this.revokedAt = revokedAt;
+        }
+
+        public String getKind() {
+            return kind;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public long getRevokedAt() {
+            return revokedAt;
+        }
+    }
+}
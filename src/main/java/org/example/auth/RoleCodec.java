@@ -0,0 +1,128 @@
+package org.example.auth;
+
+import jakarta.json.JsonNumber;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonString;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Table driven conversions between {@link Role} bitmasks and role names.
+ * Lookup tables are built once from the configured roles; decoded name sets are immutable
+ * and interned so that common masks share a single instance.
+ */
+public final class RoleCodec {
+    private static final int MAX_INTERNED_MASKS = 1024;
+
+    private static final String[] NAME_BY_BIT = new String[Long.SIZE];
+    private static final Map<String, Long> BIT_BY_NAME = new ConcurrentHashMap<>();
+    private static final Map<Long, Set<String>> interned = new ConcurrentHashMap<>();
+
+    static {
+        for (int bit = 0; bit < Long.SIZE - 1; bit++) {
+            String name = Role.byValue(1L << bit);
+            if (name != null) {
+                NAME_BY_BIT[bit] = name;
+                BIT_BY_NAME.put(name, 1L << bit);
+            }
+        }
+    }
+
+    private RoleCodec() {
+    }
+
+    /**
+     * @param name a configured role name
+     * @return the bit of the role, or {@code 0L} when the name is unknown
+     */
+    public static long bit(String name) {
+        Long bit = BIT_BY_NAME.get(name);
+        return bit == null ? 0L : bit;
+    }
+
+    public static long mask(String... names) {
+        long mask = 0L;
+        for (String name : names) {
+            mask |= bit(name);
+        }
+        return mask;
+    }
+
+    public static long mask(Collection<String> names) {
+        long mask = 0L;
+        for (String name : names) {
+            mask |= bit(name);
+        }
+        return mask;
+    }
+
+    /**
+     * Decodes a mask into the names of its configured roles.
+     *
+     * @param mask the role bitmask
+     * @return an immutable, possibly shared, set of role names
+     */
+    public static Set<String> names(long mask) {
+        if (mask == 0L) {
+            return Collections.emptySet();
+        }
+        Set<String> names = interned.get(mask);
+        if (names != null) {
+            return names;
+        }
+        names = decode(mask);
+        if (interned.size() < MAX_INTERNED_MASKS) {
+            Set<String> previous = interned.putIfAbsent(mask, names);
+            if (previous != null) {
+                return previous;
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Reads the role mask of a token payload, falling back to a legacy {@code groups} array.
+     *
+     * @param payload the token payload
+     * @param maskClaim the name of the numeric role mask claim
+     * @return the role bitmask
+     */
+    public static long rolesOf(JsonObject payload, String maskClaim) {
+        JsonNumber mask = payload.getJsonNumber(maskClaim);
+        if (mask != null) {
+            return mask.longValueExact();
+        }
+        var groups = payload.getJsonArray("groups");
+        if (groups == null) {
+            return 0L;
+        }
+        long roles = 0L;
+        for (JsonString group : groups.getValuesAs(JsonString.class)) {
+            roles |= bit(group.getString());
+        }
+        return roles;
+    }
+
+    public static String[] toArray(long mask) {
+        return names(mask).toArray(new String[0]);
+    }
+
+    private static Set<String> decode(long mask) {
+        Set<String> names = new LinkedHashSet<>(Long.bitCount(mask) * 2);
+        long remaining = mask;
+        while (remaining != 0L) {
+            int bit = Long.numberOfTrailingZeros(remaining);
+            remaining &= remaining - 1;
+            String name = NAME_BY_BIT[bit];
+            if (name != null) {
+                names.add(name);
+            }
+        }
+        return Collections.unmodifiableSet(names);
+    }
+}
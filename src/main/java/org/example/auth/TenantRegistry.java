@@ -0,0 +1,130 @@
+package org.example.auth;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import jakarta.enterprise.concurrent.ManagedScheduledExecutorService;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.ConfigProvider;
+import tn.supcom.appsec.entities.Tenant;
+import tn.supcom.appsec.repositories.TenantRepository;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * In-memory view of every {@link Tenant}, compiled once into {@link CompiledTenant}s.
+ * The tenants are loaded at startup and swapped in as a new immutable snapshot on every refresh,
+ * so client validation is a map lookup and a few bit operations, without locking nor a database
+ * round trip. Call {@link #refresh()} after changing a tenant to publish it right away.
+ */
+@ApplicationScoped
+public class TenantRegistry {
+    private static final Logger logger = LogManager.getLogger(TenantRegistry.class);
+    private static final Config config = ConfigProvider.getConfig();
+
+    @Inject
+    TenantRepository tenantRepository;
+    @Resource
+    ManagedScheduledExecutorService managedScheduler;
+
+    private final long refreshSeconds = config.getOptionalValue("tenant.registry.refresh.seconds", Long.class).orElse(60L);
+    private volatile Snapshot snapshot = new Snapshot(Map.of());
+    private ScheduledExecutorService ownScheduler;
+    private ScheduledFuture<?> refresher;
+
+    public void onStart(@Observes @Initialized(ApplicationScoped.class) Object event) {
+        refresh();
+        ScheduledExecutorService scheduler = managedScheduler;
+        if (scheduler == null) {
+            scheduler = ownScheduler = Executors.newSingleThreadScheduledExecutor();
+        }
+        refresher = scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                refresh();
+            } catch (RuntimeException e) {
+                // Keep serving the previous snapshot
+                logger.error("Tenant registry refresh failed", e);
+            }
+        }, refreshSeconds, refreshSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (refresher != null) {
+            refresher.cancel(false);
+        }
+        if (ownScheduler != null) {
+            ownScheduler.shutdown();
+        }
+    }
+
+    /**
+     * Reloads every tenant and publishes the new snapshot.
+     */
+    public synchronized void refresh() {
+        List<Tenant> tenants;
+        try (Stream<Tenant> all = tenantRepository.findAll()) {
+            tenants = all.toList();
+        }
+        Map<String, Integer> scopeBits = new HashMap<>();
+        for (Tenant tenant : tenants) {
+            for (String scope : split(tenant.getRequiredScopes())) {
+                if (!scope.isEmpty()) {
+                    scopeBits.putIfAbsent(scope, scopeBits.size());
+                }
+            }
+        }
+        Map<String, Integer> scopeDictionary = Map.copyOf(scopeBits);
+        Map<String, CompiledTenant> compiled = new HashMap<>(tenants.size() * 2);
+        for (Tenant tenant : tenants) {
+            if (tenant.getName() != null) {
+                try {
+                    compiled.put(tenant.getName(), new CompiledTenant(tenant, scopeDictionary));
+                } catch (IllegalArgumentException e) {
+                    // Left out, its clients are refused rather than redirected anywhere
+                    logger.error("Tenant {} rejected: {}", tenant.getName(), e.getMessage());
+                }
+            }
+        }
+        snapshot = new Snapshot(Map.copyOf(compiled));
+        logger.debug("Tenant registry loaded {} tenants", compiled.size());
+    }
+
+    /**
+     * @return the tenant, or {@code null} when the client is unknown
+     */
+    public CompiledTenant find(String clientId) {
+        return clientId == null ? null : snapshot.tenants.get(clientId);
+    }
+
+    public int size() {
+        return snapshot.tenants.size();
+    }
+
+    static String[] split(String values) {
+        if (values == null || values.isBlank()) {
+            return new String[0];
+        }
+        return values.trim().split("[,\\s]+");
+    }
+
+    private static final class Snapshot {
+        final Map<String, CompiledTenant> tenants;
+
+        Snapshot(Map<String, CompiledTenant> tenants) {
+            this.tenants = tenants;
+        }
+    }
+}
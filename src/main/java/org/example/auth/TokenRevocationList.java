@@ -0,0 +1,167 @@
+package org.example.auth;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Tokens revoked before their expiry, by {@code jti} or by subject.
+ * <p>
+ * A token lives at most one JWT lifetime, so a revocation made at time {@code t} is useless
+ * after {@code t + lifetime}. Revocations are therefore grouped in buckets spanning one lifetime
+ * each: only the current and the previous bucket can hold live revocations, and older buckets
+ * are dropped whole when the ring wraps around, without scanning entries. Revoked {@code jti}s
+ * are kept as 64-bit hashes in primitive hash sets, so a check is a few array probes and
+ * allocates nothing.
+ * <p>
+ * The list only holds what was applied to it on this node; revocations reach the other nodes
+ * through a {@link RevocationStore}.
+ */
+public class TokenRevocationList {
+    private static final int RING_SIZE = 3;
+
+    private final long lifetimeSeconds;
+    private final AtomicReferenceArray<Bucket> ring = new AtomicReferenceArray<>(RING_SIZE);
+
+    /**
+     * @param lifetimeSeconds the lifetime of the tokens, {@code jwt.lifetime.duration}
+     */
+    public TokenRevocationList(long lifetimeSeconds) {
+        this.lifetimeSeconds = Math.max(1L, lifetimeSeconds);
+        long current = Instant.now().getEpochSecond() / this.lifetimeSeconds;
+        for (long index = current - RING_SIZE + 1; index <= current; index++) {
+            ring.set(slot(index), new Bucket(index));
+        }
+    }
+
+    /**
+     * Revokes the token with the given {@code jti}.
+     */
+    public void revokeToken(String jti) {
+        revokeToken(jti, Instant.now().getEpochSecond());
+    }
+
+    /**
+     * Applies a revocation of the token with the given {@code jti} made at the given time,
+     * possibly on another node; ignored if it can no longer apply to a live token.
+     */
+    public void revokeToken(String jti, long revokedAt) {
+        Bucket bucket = bucket(revokedAt / lifetimeSeconds);
+        if (bucket != null) {
+            bucket.jtis.add(hash(jti));
+        }
+    }
+
+    /**
+     * Revokes every token of the subject issued up to now.
+     */
+    public void revokeSubject(String subject) {
+        revokeSubject(subject, Instant.now().getEpochSecond());
+    }
+
+    /**
+     * Applies a revocation of every token of the subject issued up to {@code revokedAt},
+     * possibly made on another node; ignored if it can no longer apply to a live token.
+     */
+    public void revokeSubject(String subject, long revokedAt) {
+        Bucket bucket = bucket(revokedAt / lifetimeSeconds);
+        if (bucket != null) {
+            bucket.subjects.merge(subject, revokedAt, Math::max);
+        }
+    }
+
+    /**
+     * @param jti the {@code jti} claim
+     * @param subject the {@code sub} claim
+     * @param issuedAt the {@code iat} claim, in epoch seconds
+     * @return whether the token was revoked
+     */
+    public boolean isRevoked(String jti, String subject, long issuedAt) {
+        long current = Instant.now().getEpochSecond() / lifetimeSeconds;
+        long jtiHash = jti == null ? 0L : hash(jti);
+        for (long index = current - 1; index <= current; index++) {
+            Bucket bucket = ring.get(slot(index));
+            // A bucket left over from a previous turn of the ring is expired
+            if (bucket == null || bucket.index != index) {
+                continue;
+            }
+            if (jtiHash != 0L && bucket.jtis.contains(jtiHash)) {
+                return true;
+            }
+            if (subject != null && !bucket.subjects.isEmpty()) {
+                Long revokedAt = bucket.subjects.get(subject);
+                if (revokedAt != null && issuedAt <= revokedAt) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of revocations that may still apply to a live token
+     */
+    public int size() {
+        long current = Instant.now().getEpochSecond() / lifetimeSeconds;
+        int size = 0;
+        for (long index = current - 1; index <= current; index++) {
+            Bucket bucket = ring.get(slot(index));
+            if (bucket != null && bucket.index == index) {
+                size += bucket.jtis.size() + bucket.subjects.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the bucket of the given index, or {@code null} if it is too old to hold live revocations
+     */
+    private Bucket bucket(long index) {
+        long current = Instant.now().getEpochSecond() / lifetimeSeconds;
+        if (index < current - 1) {
+            return null;
+        }
+        // A revocation dated ahead by a node whose clock runs fast must not displace a live bucket
+        index = Math.min(index, current);
+        Bucket bucket = ring.get(slot(index));
+        if (bucket.index == index) {
+            return bucket;
+        }
+        synchronized (ring) {
+            bucket = ring.get(slot(index));
+            if (bucket.index < index) {
+                // Replaces a bucket two lifetimes old, every token it could revoke has expired
+                bucket = new Bucket(index);
+                ring.set(slot(index), bucket);
+            }
+            return bucket;
+        }
+    }
+
+    private static int slot(long index) {
+        return (int) Math.floorMod(index, (long) RING_SIZE);
+    }
+
+    // 64-bit FNV-1a, mixed; 0 is reserved by the hash set
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash == 0L ? 1L : hash;
+    }
+
+    private static final class Bucket {
+        final long index;
+        final LongHashSet jtis = new LongHashSet(1024);
+        final Map<String, Long> subjects = new ConcurrentHashMap<>();
+
+        Bucket(long index) {
+            this.index = index;
+        }
+    }
+}
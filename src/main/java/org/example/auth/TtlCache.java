@@ -0,0 +1,114 @@
+package org.example.auth;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Bounded read-through cache whose entries expire a fixed time after being loaded.
+ * A {@code null} loaded value is cached as a negative entry with its own, usually shorter, TTL.
+ * A load that races with an invalidation is not cached, so an invalidated value cannot come back
+ * from a read that started before the write.
+ */
+public class TtlCache<K, V> {
+    private final Map<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public TtlCache(int maxEntries, long ttlMillis, long negativeTtlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(negativeTtlMillis);
+    }
+
+    /**
+     * Returns the cached value of the key, loading it on a miss.
+     *
+     * @return the value, or {@code null} when the loader found none
+     */
+    public V get(K key, Function<K, V> loader) {
+        long now = System.nanoTime();
+        Entry<V> entry = entries.get(key);
+        if (entry != null && now - entry.expiresAt < 0) {
+            hits.increment();
+            return entry.value;
+        }
+        misses.increment();
+        long generation = invalidations.get();
+        V value = loader.apply(key);
+        if (ttlFor(value) > 0) {
+            if (entries.size() >= maxEntries) {
+                evict(now);
+            }
+            entries.put(key, new Entry<>(value, System.nanoTime() + ttlFor(value)));
+            if (invalidations.get() != generation) {
+                // Invalidated while loading, the value may predate the write
+                entries.remove(key);
+            }
+        }
+        return value;
+    }
+
+    public void invalidate(K key) {
+        invalidations.incrementAndGet();
+        entries.remove(key);
+    }
+
+    public void invalidateAll() {
+        invalidations.incrementAndGet();
+        entries.clear();
+    }
+
+    private long ttlFor(V value) {
+        return value == null ? negativeTtlNanos : ttlNanos;
+    }
+
+    /**
+     * Drops the expired entries, then arbitrary ones until there is room for a new entry.
+     */
+    private void evict(long now) {
+        entries.values().removeIf(entry -> now - entry.expiresAt >= 0);
+        Iterator<Map.Entry<K, Entry<V>>> iterator = entries.entrySet().iterator();
+        while (entries.size() >= maxEntries && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            evictions.increment();
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        final long expiresAt;
+
+        Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package org.example.metrics;
+
+import java.util.function.DoubleSupplier;
+
+/**
+ * Value read from its owner when scraped, such as a queue depth.
+ */
+public final class Gauge implements Sample {
+    private volatile DoubleSupplier supplier = () -> 0d;
+
+    /**
+     * Binds the gauge to its source, replacing any previous one.
+     */
+    public void set(DoubleSupplier supplier) {
+        this.supplier = supplier;
+    }
+
+    @Override
+    public void writeTo(StringBuilder out, String name, String labels) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(supplier.getAsDouble()).append('\n');
+    }
+}
@@ -0,0 +1,80 @@
+package org.example.metrics;
+
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram over fixed bucket bounds. An observation is a binary search over the bounds and two
+ * striped additions, buckets are only made cumulative when scraped.
+ */
+public final class Histogram implements Sample {
+    private final double[] bounds;
+    private final LongAdder[] counts;
+    private final DoubleAdder sum = new DoubleAdder();
+
+    Histogram(double[] bounds) {
+        this.bounds = bounds;
+        this.counts = new LongAdder[bounds.length + 1];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    public void observe(double value) {
+        int low = 0;
+        int high = bounds.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (value <= bounds[middle]) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        counts[low].increment();
+        sum.add(value);
+    }
+
+    /**
+     * Observes a duration given in nanoseconds, exported in seconds.
+     */
+    public void observeNanos(long nanos) {
+        observe(nanos / 1e9);
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : counts) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    @Override
+    public void writeTo(StringBuilder out, String name, String labels) {
+        String separator = labels.isEmpty() ? "" : ",";
+        long cumulative = 0;
+        for (int i = 0; i < counts.length; i++) {
+            cumulative += counts[i].sum();
+            out.append(name).append("_bucket{").append(labels).append(separator).append("le=\"")
+                    .append(i < bounds.length ? Double.toString(bounds[i]) : "+Inf").append("\"} ")
+                    .append(cumulative).append('\n');
+        }
+        String braces = labels.isEmpty() ? "" : "{" + labels + "}";
+        out.append(name).append("_sum").append(braces).append(' ').append(sum.sum()).append('\n');
+        out.append(name).append("_count").append(braces).append(' ').append(cumulative).append('\n');
+    }
+
+    /**
+     * @return {@code count} bounds starting at {@code start}, each {@code factor} times the previous
+     */
+    public static double[] exponentialBounds(double start, double factor, int count) {
+        double[] bounds = new double[count];
+        double bound = start;
+        for (int i = 0; i < count; i++) {
+            bounds[i] = bound;
+            bound *= factor;
+        }
+        return bounds;
+    }
+}
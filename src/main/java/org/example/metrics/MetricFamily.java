@@ -0,0 +1,80 @@
+package org.example.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * A named metric with at most one label, holding one child per label value.
+ * The number of distinct label values is capped, later values share an {@code other} child, so
+ * a label fed from request data such as a tenant cannot grow the registry without bound.
+ */
+public final class MetricFamily<T extends Sample> {
+    static final String OVERFLOW = "other";
+
+    private final String name;
+    private final String help;
+    private final String type;
+    private final String labelName;
+    private final int maxLabelValues;
+    private final Supplier<T> factory;
+    private final Map<String, Child<T>> children = new ConcurrentHashMap<>();
+
+    MetricFamily(String name, String help, String type, String labelName, int maxLabelValues, Supplier<T> factory) {
+        this.name = name;
+        this.help = help;
+        this.type = type;
+        this.labelName = labelName;
+        this.maxLabelValues = maxLabelValues;
+        this.factory = factory;
+    }
+
+    /**
+     * @return the child of the unlabelled family
+     */
+    public T get() {
+        return labels("");
+    }
+
+    public T labels(String value) {
+        if (value == null) {
+            value = "";
+        }
+        Child<T> child = children.get(value);
+        if (child == null) {
+            if (children.size() >= maxLabelValues) {
+                value = OVERFLOW;
+            }
+            child = children.computeIfAbsent(value, this::newChild);
+        }
+        return child.sample;
+    }
+
+    private Child<T> newChild(String value) {
+        String labels = labelName == null ? "" : labelName + "=\"" + escape(value) + "\"";
+        return new Child<>(factory.get(), labels);
+    }
+
+    void writeTo(StringBuilder out) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        for (Child<T> child : children.values()) {
+            child.sample.writeTo(out, name, child.labels);
+        }
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static final class Child<T> {
+        final T sample;
+        // Rendered once, scrapes do not escape label values again
+        final String labels;
+
+        Child(T sample, String labels) {
+            this.sample = sample;
+            this.labels = labels;
+        }
+    }
+}
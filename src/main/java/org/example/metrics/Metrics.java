@@ -0,0 +1,72 @@
+package org.example.metrics;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Process-wide metric registry, scraped in the Prometheus text format by {@link MetricsEndpoint}.
+ * Families are created once, usually in static fields; recording only touches striped adders.
+ */
+public final class Metrics {
+    /**
+     * Request property, and servlet request attribute, holding the tenant of the caller.
+     */
+    public static final String TENANT = "org.example.tenant";
+    public static final String UNKNOWN_TENANT = "anonymous";
+
+    private static final int MAX_LABEL_VALUES = 256;
+    private static final List<MetricFamily<?>> families = new CopyOnWriteArrayList<>();
+
+    static final double[] LATENCY_BOUNDS = Histogram.exponentialBounds(0.0001, 2, 18);
+    static final double[] BYTE_BOUNDS = Histogram.exponentialBounds(1024, 4, 12);
+    static final double[] PIXEL_BOUNDS = Histogram.exponentialBounds(4096, 4, 10);
+
+    public static final MetricFamily<Histogram> STAGE_DURATION = histogram("stage_duration_seconds",
+            "Duration of a processing stage.", "stage", LATENCY_BOUNDS);
+    public static final MetricFamily<Counter> STAGE_ERRORS = counter("stage_errors_total",
+            "Failures of a processing stage.", "stage");
+    public static final MetricFamily<Histogram> IMAGE_BYTES = histogram("steganography_image_bytes",
+            "Size of the uploaded images.", "tenant", BYTE_BOUNDS);
+    public static final MetricFamily<Histogram> IMAGE_PIXELS = histogram("steganography_image_pixels",
+            "Width times height of the decoded images.", "tenant", PIXEL_BOUNDS);
+    public static final MetricFamily<Histogram> PAYLOAD_BYTES = histogram("steganography_payload_bytes",
+            "Size of the embedded or extracted messages.", "tenant", Histogram.exponentialBounds(16, 4, 10));
+
+    private Metrics() {
+    }
+
+    public static MetricFamily<Histogram> histogram(String name, String help, String labelName, double[] bounds) {
+        return register(new MetricFamily<>(name, help, "histogram", labelName, MAX_LABEL_VALUES, () -> new Histogram(bounds)));
+    }
+
+    /**
+     * @param name the counter name, ending with {@code _total}
+     */
+    public static MetricFamily<Counter> counter(String name, String help, String labelName) {
+        return register(new MetricFamily<>(name, help, "counter", labelName, MAX_LABEL_VALUES, Counter::new));
+    }
+
+    public static MetricFamily<Gauge> gauge(String name, String help, String labelName) {
+        return register(new MetricFamily<>(name, help, "gauge", labelName, MAX_LABEL_VALUES, Gauge::new));
+    }
+
+    private static <T extends Sample> MetricFamily<T> register(MetricFamily<T> family) {
+        families.add(family);
+        return family;
+    }
+
+    public static String tenantOrUnknown(Object tenant) {
+        return tenant instanceof String && !((String) tenant).isEmpty() ? (String) tenant : UNKNOWN_TENANT;
+    }
+
+    /**
+     * Renders every family in the Prometheus text exposition format, version 0.0.4.
+     */
+    public static String scrape() {
+        StringBuilder out = new StringBuilder(8192);
+        for (MetricFamily<?> family : families) {
+            family.writeTo(out);
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,26 @@
+package org.example.metrics;
+
+import jakarta.annotation.security.RolesAllowed;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.Response;
+import org.example.web.Secured;
+
+/**
+ * Prometheus scrape endpoint. The samples name tenants, so the scraper authenticates with a bearer
+ * token holding the {@code metrics} role, which must be one of the configured {@code roles} or be
+ * mapped onto one with {@code roles.alias.metrics}.
+ */
+@Path("/metrics")
+@Secured
+@RolesAllowed("metrics")
+public class MetricsEndpoint {
+    private static final String TEXT_FORMAT = "text/plain; version=0.0.4; charset=utf-8";
+
+    @GET
+    @Produces(TEXT_FORMAT)
+    public Response scrape() {
+        return Response.ok(Metrics.scrape(), TEXT_FORMAT).build();
+    }
+}
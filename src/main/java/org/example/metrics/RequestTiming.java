@@ -0,0 +1,105 @@
+package org.example.metrics;
+
+/**
+ * Stage timings and image metadata of a single request, kept as a request property so that
+ * filters and resources of the same request write into it without any global state.
+ * One instance and one small array per request; stages are indexed by ordinal.
+ */
+public final class RequestTiming {
+    /**
+     * Request property, and servlet request attribute, holding the timing of the request.
+     */
+    public static final String PROPERTY = "org.example.timing";
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private final long start = System.nanoTime();
+    private final long[] stageNanos = new long[STAGES.length];
+    private int imageWidth = -1;
+    private int imageHeight = -1;
+    private long imageBytes = -1;
+    private long payloadBytes = -1;
+
+    /**
+     * @return the timing stored in the property, or a detached one when the request has none
+     */
+    public static RequestTiming of(Object property) {
+        return property instanceof RequestTiming ? (RequestTiming) property : new RequestTiming();
+    }
+
+    /**
+     * Records a stage both in the request and in the {@link Metrics#STAGE_DURATION} histograms.
+     *
+     * @return the end of the stage, usable as the start of the next one
+     */
+    public long record(Stage stage, long startNanos) {
+        long now = stage.record(startNanos);
+        stageNanos[stage.ordinal()] += now - startNanos;
+        return now;
+    }
+
+    public void image(int width, int height, long bytes) {
+        this.imageWidth = width;
+        this.imageHeight = height;
+        this.imageBytes = bytes;
+    }
+
+    public void imageBytes(long bytes) {
+        this.imageBytes = bytes;
+    }
+
+    public void payloadBytes(long bytes) {
+        this.payloadBytes = bytes;
+    }
+
+    public long getElapsedNanos() {
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Renders the {@code Server-Timing} header value, one metric per recorded stage plus the total.
+     */
+    public String toServerTiming(long totalNanos) {
+        StringBuilder header = new StringBuilder(128);
+        for (int i = 0; i < STAGES.length; i++) {
+            if (stageNanos[i] != 0) {
+                appendMetric(header, STAGES[i].id(), stageNanos[i]).append(", ");
+            }
+        }
+        return appendMetric(header, "total", totalNanos).toString();
+    }
+
+    private static StringBuilder appendMetric(StringBuilder header, String name, long nanos) {
+        // Milliseconds with three decimals, without going through String.format
+        long micros = nanos / 1000;
+        header.append(name).append(";dur=").append(micros / 1000).append('.');
+        long fraction = micros % 1000;
+        if (fraction < 100) {
+            header.append('0');
+        }
+        if (fraction < 10) {
+            header.append('0');
+        }
+        return header.append(fraction);
+    }
+
+    public long getStageNanos(Stage stage) {
+        return stageNanos[stage.ordinal()];
+    }
+
+    public int getImageWidth() {
+        return imageWidth;
+    }
+
+    public int getImageHeight() {
+        return imageHeight;
+    }
+
+    public long getImageBytes() {
+        return imageBytes;
+    }
+
+    public long getPayloadBytes() {
+        return payloadBytes;
+    }
+}
@@ -0,0 +1,13 @@
+package org.example.metrics;
+
+/**
+ * One labelled child of a {@link MetricFamily}, able to write itself in the Prometheus text format.
+ */
+interface Sample {
+
+    /**
+     * @param name the metric name
+     * @param labels the rendered label pairs without braces, possibly empty
+     */
+    void writeTo(StringBuilder out, String name, String labels);
+}
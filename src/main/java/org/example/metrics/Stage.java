@@ -0,0 +1,61 @@
+package org.example.metrics;
+
+/**
+ * Timed stages of the steganography and authentication pipelines, exported as
+ * {@code stage_duration_seconds{stage="..."}}.
+ * <p>
+ * Stages chain without extra clock reads:
+ * <pre>{@code
+ * long t = Stage.start();
+ * ... decode ...
+ * t = Stage.IMAGE_DECODE.record(t);
+ * ... embed ...
+ * Stage.EMBED.record(t);
+ * }</pre>
+ */
+public enum Stage {
+    UPLOAD_STAGING("upload_staging"),
+    IMAGE_ADMISSION("image_admission"),
+    IMAGE_DECODE("image_decode"),
+    EMBED("embed"),
+    EXTRACT("extract"),
+    PNG_ENCODE("png_encode"),
+    AUTHENTICATION("authentication"),
+    KEY_FETCH("key_fetch"),
+    SIGNATURE_VERIFY("signature_verify"),
+    CLAIM_PARSE("claim_parse"),
+    ARGON2_HASH("argon2_hash");
+
+    private final String id;
+    private final Histogram duration;
+    private final Counter errors;
+
+    Stage(String id) {
+        this.id = id;
+        this.duration = Metrics.STAGE_DURATION.labels(id);
+        this.errors = Metrics.STAGE_ERRORS.labels(id);
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the time elapsed since {@code startNanos}.
+     *
+     * @return the end of the stage, usable as the start of the next one
+     */
+    public long record(long startNanos) {
+        long now = System.nanoTime();
+        duration.observeNanos(now - startNanos);
+        return now;
+    }
+
+    public void failed() {
+        errors.inc();
+    }
+}
@@ -0,0 +1,29 @@
+package org.example.steganography;
+
+/**
+ * The dimensions and pixel layout declared by an image container, read before any pixel data.
+ *
+ * @param format the container format, {@code png}, {@code jpeg}, {@code bmp} or {@code gif}
+ * @param width the width in pixels
+ * @param height the height in pixels
+ * @param bitsPerPixel the bits per pixel of the raster {@link javax.imageio.ImageIO} decodes it to
+ */
+public record ImageHeader(String format, int width, int height, int bitsPerPixel) {
+
+    public long pixels() {
+        return (long) width * height;
+    }
+
+    /**
+     * @return the size of the decoded raster in bytes, rows padded to whole bytes, or
+     * {@link Long#MAX_VALUE} if it does not fit in a long
+     */
+    public long rasterBytes() {
+        try {
+            long rowBytes = (Math.multiplyExact((long) width, (long) bitsPerPixel) + 7) / 8;
+            return Math.multiplyExact(rowBytes, (long) height);
+        } catch (ArithmeticException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+}
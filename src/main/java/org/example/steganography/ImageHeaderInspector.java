@@ -0,0 +1,193 @@
+package org.example.steganography;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Reads the dimensions of PNG, JPEG, BMP and GIF images from their container headers, without
+ * decompressing anything, so that the memory of the decoded raster is known before decoding.
+ * The bits per pixel follow the raster layouts {@link javax.imageio.ImageIO} decodes to: packed
+ * samples below 8 bits, one byte per 8-bit sample and two per 16-bit sample.
+ */
+public final class ImageHeaderInspector {
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    // JPEG segments are skipped, not read, but a header spread over more than this is not an image
+    private static final long MAX_JPEG_HEADER_BYTES = 1L << 20;
+
+    private ImageHeaderInspector() {
+    }
+
+    /**
+     * @return the header, or {@code null} if the file is none of the supported formats
+     * @throws IOException if the header is truncated or malformed
+     */
+    public static ImageHeader inspect(Path file) throws IOException {
+        try (InputStream stream = new BufferedInputStream(Files.newInputStream(file), 8192)) {
+            return inspect(stream);
+        }
+    }
+
+    /**
+     * Reads the header from the start of the stream, consuming part of it.
+     */
+    public static ImageHeader inspect(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream.markSupported() ? stream : new BufferedInputStream(stream));
+        in.mark(8);
+        byte[] magic = new byte[8];
+        int read = in.readNBytes(magic, 0, magic.length);
+        in.reset();
+        if (read >= 8 && startsWith(magic, PNG_SIGNATURE)) {
+            return png(in);
+        }
+        if (read >= 3 && (magic[0] & 0xff) == 0xff && (magic[1] & 0xff) == 0xd8 && (magic[2] & 0xff) == 0xff) {
+            return jpeg(in);
+        }
+        if (read >= 2 && magic[0] == 'B' && magic[1] == 'M') {
+            return bmp(in);
+        }
+        if (read >= 6 && magic[0] == 'G' && magic[1] == 'I' && magic[2] == 'F') {
+            return gif(in);
+        }
+        return null;
+    }
+
+    private static ImageHeader png(DataInputStream in) throws IOException {
+        in.skipNBytes(8);
+        int length = in.readInt();
+        if (length != 13 || in.readInt() != 0x49484452) { // IHDR
+            throw new IOException("PNG does not start with an IHDR chunk");
+        }
+        int width = in.readInt();
+        int height = in.readInt();
+        int bitDepth = in.readUnsignedByte();
+        int colorType = in.readUnsignedByte();
+        int channels;
+        switch (colorType) {
+            case 0: channels = 1; break; // grayscale
+            case 2: channels = 3; break; // RGB
+            case 3: channels = 1; break; // palette index
+            case 4: channels = 2; break; // grayscale and alpha
+            case 6: channels = 4; break; // RGBA
+            default: throw new IOException("Invalid PNG color type " + colorType);
+        }
+        return checked("png", width, height, channels * bitDepth);
+    }
+
+    private static ImageHeader jpeg(DataInputStream in) throws IOException {
+        in.skipNBytes(2);
+        long position = 2;
+        while (position < MAX_JPEG_HEADER_BYTES) {
+            int marker = in.readUnsignedByte();
+            if (marker != 0xff) {
+                throw new IOException("Invalid JPEG marker");
+            }
+            int type = in.readUnsignedByte();
+            while (type == 0xff) { // fill bytes
+                type = in.readUnsignedByte();
+                position++;
+            }
+            position += 2;
+            if (type == 0xd8 || type == 0x01 || (type >= 0xd0 && type <= 0xd7)) {
+                continue; // markers without a segment
+            }
+            if (type == 0xd9 || type == 0xda) {
+                throw new IOException("JPEG has no frame header before its scan");
+            }
+            int length = in.readUnsignedShort();
+            if (length < 2) {
+                throw new IOException("Invalid JPEG segment length");
+            }
+            // SOF0-15, except DHT (c4), JPG (c8) and DAC (cc)
+            if (type >= 0xc0 && type <= 0xcf && type != 0xc4 && type != 0xc8 && type != 0xcc) {
+                int precision = in.readUnsignedByte();
+                int height = in.readUnsignedShort();
+                int width = in.readUnsignedShort();
+                int components = in.readUnsignedByte();
+                if (height == 0) {
+                    throw new IOException("JPEG height defined by a DNL marker is not supported");
+                }
+                return checked("jpeg", width, height, components * (precision > 8 ? 16 : 8));
+            }
+            in.skipNBytes(length - 2);
+            position += length;
+        }
+        throw new IOException("JPEG frame header not found");
+    }
+
+    private static ImageHeader bmp(DataInputStream in) throws IOException {
+        in.skipNBytes(14);
+        int dibSize = Integer.reverseBytes(in.readInt());
+        int width, height, bitCount;
+        if (dibSize == 12) { // OS/2 BITMAPCOREHEADER
+            width = Short.toUnsignedInt(Short.reverseBytes(in.readShort()));
+            height = Short.toUnsignedInt(Short.reverseBytes(in.readShort()));
+            in.skipNBytes(2);
+            bitCount = Short.toUnsignedInt(Short.reverseBytes(in.readShort()));
+        } else if (dibSize >= 40) {
+            width = Integer.reverseBytes(in.readInt());
+            height = Integer.reverseBytes(in.readInt());
+            // A negative height is a top-down bitmap
+            height = height == Integer.MIN_VALUE ? -1 : Math.abs(height);
+            in.skipNBytes(2);
+            bitCount = Short.toUnsignedInt(Short.reverseBytes(in.readShort()));
+        } else {
+            throw new IOException("Unsupported BMP header size " + dibSize);
+        }
+        if (bitCount == 0 || bitCount > 32) {
+            throw new IOException("Unsupported BMP bit count " + bitCount);
+        }
+        return checked("bmp", width, height, bitCount);
+    }
+
+    private static ImageHeader gif(DataInputStream in) throws IOException {
+        in.skipNBytes(10);
+        int flags = in.readUnsignedByte();
+        in.skipNBytes(2);
+        int tableBits = (flags & 0x07) + 1;
+        if ((flags & 0x80) != 0) {
+            in.skipNBytes(3L << tableBits); // global color table
+        }
+        // The decoded raster is the first frame's, which may be larger than the logical screen
+        while (true) {
+            int block = in.readUnsignedByte();
+            if (block == 0x2c) { // image descriptor
+                in.skipNBytes(4);
+                int width = Short.toUnsignedInt(Short.reverseBytes(in.readShort()));
+                int height = Short.toUnsignedInt(Short.reverseBytes(in.readShort()));
+                int frameFlags = in.readUnsignedByte();
+                if ((frameFlags & 0x80) != 0) { // local color table
+                    tableBits = (frameFlags & 0x07) + 1;
+                }
+                // Indices are packed 1, 2 or 4 to a byte when the color table is small enough
+                return checked("gif", width, height, tableBits <= 2 ? tableBits : tableBits <= 4 ? 4 : 8);
+            }
+            if (block != 0x21) { // extension
+                throw new IOException("GIF has no image descriptor");
+            }
+            in.skipNBytes(1);
+            for (int size = in.readUnsignedByte(); size != 0; size = in.readUnsignedByte()) {
+                in.skipNBytes(size);
+            }
+        }
+    }
+
+    private static ImageHeader checked(String format, int width, int height, int bitsPerPixel) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IOException("Invalid " + format + " dimensions " + width + "x" + height);
+        }
+        return new ImageHeader(format, width, height, bitsPerPixel);
+    }
+
+    private static boolean startsWith(byte[] bytes, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
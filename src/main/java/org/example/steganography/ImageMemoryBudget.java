@@ -0,0 +1,86 @@
+package org.example.steganography;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.ConfigProvider;
+import org.example.metrics.Gauge;
+import org.example.metrics.Metrics;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Node-wide budget of memory for decoded image rasters. A request reserves the size of its raster,
+ * known from {@link ImageHeaderInspector}, before decoding and releases it once the image is no
+ * longer referenced, so concurrent uploads cannot together exhaust the heap. Permits are KiB so
+ * that budgets of several GiB fit in a {@link Semaphore}.
+ * <p>
+ * {@code image.memory.budget.mb} defaults to a quarter of the maximum heap, and
+ * {@code image.memory.wait.ms} is how long a request queues for budget before it is turned away.
+ */
+@ApplicationScoped
+public class ImageMemoryBudget {
+    private static final Config config = ConfigProvider.getConfig();
+    private static final Gauge BUDGET = Metrics.gauge("image_memory_budget_bytes", "Memory budget for decoded image rasters.", null).get();
+    private static final Gauge RESERVED = Metrics.gauge("image_memory_reserved_bytes", "Memory reserved by images being processed.", null).get();
+
+    private final int totalKib = (int) Math.min(Integer.MAX_VALUE, config.getOptionalValue("image.memory.budget.mb", Long.class)
+            .map(mb -> mb * 1024L).orElse(Runtime.getRuntime().maxMemory() / 4 / 1024));
+    private final long waitMillis = config.getOptionalValue("image.memory.wait.ms", Long.class).orElse(0L);
+    private final Semaphore permits = new Semaphore(totalKib, true);
+
+    @PostConstruct
+    public void init() {
+        BUDGET.set(() -> totalKib * 1024d);
+        RESERVED.set(() -> (totalKib - permits.availablePermits()) * 1024d);
+    }
+
+    /**
+     * @return whether a raster of this size could ever be admitted
+     */
+    public boolean fits(long bytes) {
+        return kib(bytes) <= totalKib;
+    }
+
+    /**
+     * Reserves memory for a raster, waiting at most {@code image.memory.wait.ms}.
+     *
+     * @return the reservation to close once the raster is released, or {@code null} if the budget
+     * stayed exhausted
+     */
+    public Reservation reserve(long bytes) throws InterruptedException {
+        if (!fits(bytes)) {
+            return null;
+        }
+        int kib = (int) kib(bytes);
+        boolean acquired = waitMillis > 0L
+                ? permits.tryAcquire(kib, waitMillis, TimeUnit.MILLISECONDS)
+                : permits.tryAcquire(kib);
+        return acquired ? new Reservation(kib) : null;
+    }
+
+    private static long kib(long bytes) {
+        return bytes == Long.MAX_VALUE ? Long.MAX_VALUE : (bytes + 1023) / 1024;
+    }
+
+    /**
+     * Memory held for one raster, returned to the budget on {@link #close()}.
+     */
+    public final class Reservation implements AutoCloseable {
+        private final int kib;
+        private boolean released;
+
+        private Reservation(int kib) {
+            this.kib = kib;
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                permits.release(kib);
+            }
+        }
+    }
+}
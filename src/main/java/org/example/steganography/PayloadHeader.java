@@ -0,0 +1,133 @@
+package org.example.steganography;
+
+import java.util.zip.CRC32C;
+
+/**
+ * Header in front of every embedded payload, 12 bytes big-endian:
+ * <pre>
+ * 0  magic    "STG"
+ * 3  version  high 4 bits, currently 1
+ *    flags    low 4 bits: bit 0 compressed, bit 1 encrypted, bits 2-3 embedding profile
+ * 4  length   length of the payload in bytes, after compression
+ * 8  crc32c   CRC32C of the payload as embedded
+ * </pre>
+ * The magic is the first thing read, so an image without a payload is told apart after 24 pixels,
+ * and a decoder allocates nothing until the length has been checked against the image capacity.
+ */
+public final class PayloadHeader {
+    public static final int BYTES = 12;
+    public static final int MAGIC_BYTES = 3;
+    public static final int VERSION = 1;
+
+    public static final int FLAG_COMPRESSED = 0x1;
+    public static final int FLAG_ENCRYPTED = 0x2;
+    /** One bit per pixel, in the least significant bit of the blue channel. */
+    public static final int PROFILE_LSB1 = 0x0;
+    private static final int PROFILE_MASK = 0xc;
+
+    private static final byte[] MAGIC = {'S', 'T', 'G'};
+
+    private final int version;
+    private final int flags;
+    private final int length;
+    private final int crc;
+
+    private PayloadHeader(int version, int flags, int length, int crc) {
+        this.version = version;
+        this.flags = flags;
+        this.length = length;
+        this.crc = crc;
+    }
+
+    /**
+     * @param flags the flags, with the embedding profile
+     * @param payload the payload as embedded
+     */
+    public static PayloadHeader of(int flags, byte[] payload) {
+        return new PayloadHeader(VERSION, flags, payload.length, checksum(payload));
+    }
+
+    /**
+     * @param header the first {@link #MAGIC_BYTES} bytes or more of an embedded payload
+     */
+    public static boolean hasMagic(byte[] header) {
+        for (int i = 0; i < MAGIC_BYTES; i++) {
+            if (header[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param header the first {@link #BYTES} bytes of an embedded payload
+     * @return the header, or {@code null} if the bytes do not start with the magic
+     */
+    public static PayloadHeader parse(byte[] header) {
+        if (header.length < BYTES || !hasMagic(header)) {
+            return null;
+        }
+        return new PayloadHeader((header[3] >>> 4) & 0xf, header[3] & 0xf, readInt(header, 4), readInt(header, 8));
+    }
+
+    public byte[] toBytes() {
+        byte[] header = new byte[BYTES];
+        System.arraycopy(MAGIC, 0, header, 0, MAGIC_BYTES);
+        header[3] = (byte) ((version << 4) | (flags & 0xf));
+        writeInt(header, 4, length);
+        writeInt(header, 8, crc);
+        return header;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public int getProfile() {
+        return flags & PROFILE_MASK;
+    }
+
+    public boolean isCompressed() {
+        return (flags & FLAG_COMPRESSED) != 0;
+    }
+
+    public boolean isEncrypted() {
+        return (flags & FLAG_ENCRYPTED) != 0;
+    }
+
+    /**
+     * @return the length of the payload in bytes; negative when the header is corrupt
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return whether the payload matches the checksum of the header
+     */
+    public boolean matches(byte[] payload) {
+        return payload.length == length && checksum(payload) == crc;
+    }
+
+    private static int checksum(byte[] payload) {
+        CRC32C crc32c = new CRC32C();
+        crc32c.update(payload, 0, payload.length);
+        return (int) crc32c.getValue();
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16
+                | (bytes[offset + 2] & 0xff) << 8 | (bytes[offset + 3] & 0xff);
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,406 @@
+package org.example.steganography;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import jakarta.enterprise.concurrent.ManagedThreadFactory;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.json.Json;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonObjectBuilder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.ConfigProvider;
+
+import static org.apache.logging.log4j.util.Unbox.box;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Sweeps a ZIP or tar archive of images for embedded payloads.
+ * Entries are read from the stream as they arrive and inspected in parallel; only the pixels
+ * holding the {@link PayloadHeader} are decoded, from the JPEG and BMP readers through a source
+ * region and from PNGs by {@link PngPrefixDecoder}, so a scan costs about the I/O of the archive.
+ * Buffered entries are bounded by {@code scan.buffer.mb} per scan and by the node-wide
+ * {@link ImageMemoryBudget}, reserved before the bytes are read: the archive is not read further
+ * while the workers are behind or the node is short of memory. Every entry is reported as a JSON
+ * object once inspected, in completion order, followed by a summary.
+ */
+@ApplicationScoped
+public class PayloadScanner {
+    private static final Logger logger = LogManager.getLogger(PayloadScanner.class);
+    private static final Config config = ConfigProvider.getConfig();
+    private static final long MAX_PIXELS = config.getOptionalValue("image.max.pixels", Long.class).orElse(50_000_000L);
+    // Entries of unknown size are buffered from this capacity, doubled as needed
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+
+    @Resource
+    ManagedThreadFactory managedThreadFactory;
+    @Inject
+    ImageMemoryBudget memoryBudget;
+
+    private final int workers = config.getOptionalValue("scan.workers", Integer.class)
+            .orElse(Runtime.getRuntime().availableProcessors());
+    private final int bufferKib = (int) Math.min(Integer.MAX_VALUE,
+            config.getOptionalValue("scan.buffer.mb", Long.class).orElse(256L) * 1024L);
+    private final int maxEntryBytes = (int) Math.min(Integer.MAX_VALUE - 8, bufferKib * 1024L);
+    private ExecutorService executor;
+
+    @PostConstruct
+    public void init() {
+        ThreadFactory threadFactory = managedThreadFactory != null ? managedThreadFactory : Executors.defaultThreadFactory();
+        executor = Executors.newFixedThreadPool(Math.max(1, workers), threadFactory);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Scans every entry of the archive, reporting to {@code report} from the calling thread.
+     *
+     * @return the final summary, also the last object reported
+     * @throws IllegalArgumentException if the stream is neither a ZIP nor a tar archive
+     */
+    public JsonObject scan(InputStream archive, Consumer<JsonObject> report) throws IOException {
+        var run = new Run(report);
+        try {
+            InputStream in = new BufferedInputStream(archive, 64 * 1024);
+            if (isGzip(in)) {
+                in = new BufferedInputStream(new GZIPInputStream(in, 64 * 1024), 64 * 1024);
+            }
+            if (isZip(in)) {
+                try (ZipInputStream zip = new ZipInputStream(in)) {
+                    for (ZipEntry entry; (entry = zip.getNextEntry()) != null; ) {
+                        if (!entry.isDirectory()) {
+                            run.submit(entry.getName(), entry.getSize(), zip);
+                        }
+                    }
+                }
+            } else if (isTar(in)) {
+                try (TarInputStream tar = new TarInputStream(in)) {
+                    for (TarInputStream.Entry entry; (entry = tar.getNextEntry()) != null; ) {
+                        if (entry.regular) {
+                            run.submit(entry.name, entry.size, tar);
+                        }
+                    }
+                }
+            } else {
+                throw new IllegalArgumentException("Not a ZIP or tar archive");
+            }
+            run.finish();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Scan interrupted", e);
+        }
+        var summary = run.summary("done");
+        report.accept(summary);
+        return summary;
+    }
+
+    /**
+     * The state of one scan: everything but the inspection runs on the calling thread.
+     */
+    private final class Run {
+        private final Consumer<JsonObject> report;
+        private final long start = System.nanoTime();
+        private final Semaphore buffered = new Semaphore(bufferKib);
+        private final BlockingQueue<JsonObject> results = new LinkedBlockingQueue<>();
+        private int pending;
+        private long entries;
+        private long payloads;
+        private long bytes;
+
+        Run(Consumer<JsonObject> report) {
+            this.report = report;
+        }
+
+        /**
+         * @param size the size declared by the archive, or {@code -1} if unknown
+         */
+        void submit(String name, long size, InputStream entry) throws IOException, InterruptedException {
+            // Entries larger than the whole buffer or the node budget could never be admitted
+            if (size > maxEntryBytes) {
+                skip(name, entry, "Entry larger than the scan buffer");
+                return;
+            }
+            if (!memoryBudget.fits(Math.max(0L, size))) {
+                skip(name, entry, "Entry larger than the image memory budget");
+                return;
+            }
+            int capacity = (int) (size >= 0 ? Math.max(1L, size) : Math.min(INITIAL_CAPACITY, maxEntryBytes));
+            Hold hold = new Hold();
+            reserve(hold, capacity);
+            byte[] content = new byte[capacity];
+            int length = 0;
+            try {
+                while (true) {
+                    length += entry.readNBytes(content, length, capacity - length);
+                    if (length < capacity) {
+                        break;
+                    }
+                    int next = entry.read();
+                    if (next < 0) {
+                        break;
+                    }
+                    int grown = (int) Math.min(maxEntryBytes, capacity * 2L);
+                    if (size >= 0 || length >= maxEntryBytes || !memoryBudget.fits(grown)) {
+                        hold.close();
+                        skip(name, entry, size >= 0 ? "Entry larger than its declared size"
+                                : length >= maxEntryBytes ? "Entry larger than the scan buffer"
+                                : "Entry larger than the image memory budget");
+                        return;
+                    }
+                    // Only the growth is reserved, the old array is garbage once copied; holding both
+                    // could need more than the scan buffer and wait forever
+                    reserve(hold, grown - capacity);
+                    content = Arrays.copyOf(content, grown);
+                    capacity = grown;
+                    content[length++] = (byte) next;
+                }
+            } catch (IOException | InterruptedException | RuntimeException e) {
+                hold.close();
+                throw e;
+            }
+            bytes += length;
+            pending++;
+            byte[] buffer = content;
+            int bufferLength = length;
+            Hold held = hold;
+            executor.execute(() -> {
+                JsonObject result = null;
+                try {
+                    result = inspect(name, buffer, bufferLength);
+                } catch (IOException | DataFormatException | RuntimeException e) {
+                    result = error(name, String.valueOf(e.getMessage()));
+                } finally {
+                    // Always reported, the calling thread waits for every submitted entry
+                    results.add(result != null ? result : error(name, "Inspection failed"));
+                    held.close();
+                }
+            });
+            drain();
+        }
+
+        private void skip(String name, InputStream entry, String reason) throws IOException {
+            entry.transferTo(OutputStream.nullOutputStream());
+            accept(result(name).add("status", "skipped").add("reason", reason).build());
+        }
+
+        /**
+         * Adds memory to a hold, from the scan buffer then from the node-wide budget, reporting
+         * completed entries, which release theirs, while waiting.
+         */
+        private void reserve(Hold hold, int bytes) throws InterruptedException {
+            int kib = Math.max(1, (int) ((bytes + 1023L) / 1024));
+            while (true) {
+                if (buffered.tryAcquire(kib, 10L, TimeUnit.MILLISECONDS)) {
+                    ImageMemoryBudget.Reservation reservation = memoryBudget.reserve(bytes);
+                    if (reservation != null) {
+                        hold.add(kib, reservation);
+                        return;
+                    }
+                    buffered.release(kib);
+                    // Held by other requests, wait for an entry of this scan to complete or for time to pass
+                    JsonObject result = results.poll(10L, TimeUnit.MILLISECONDS);
+                    if (result != null) {
+                        pending--;
+                        accept(result);
+                    }
+                }
+                drain();
+            }
+        }
+
+        void finish() throws InterruptedException {
+            while (pending > 0) {
+                accept(results.take());
+                pending--;
+            }
+        }
+
+        private void drain() {
+            JsonObject result;
+            while ((result = results.poll()) != null) {
+                pending--;
+                accept(result);
+            }
+        }
+
+        private void accept(JsonObject result) {
+            entries++;
+            if ("payload".equals(result.getString("status"))) {
+                payloads++;
+            }
+            report.accept(result);
+        }
+
+        /**
+         * Memory held by one buffered entry, in the scan buffer and in the node-wide budget.
+         */
+        private final class Hold implements AutoCloseable {
+            private final List<ImageMemoryBudget.Reservation> reservations = new ArrayList<>(1);
+            private int kib;
+
+            void add(int kib, ImageMemoryBudget.Reservation reservation) {
+                this.kib += kib;
+                reservations.add(reservation);
+            }
+
+            @Override
+            public void close() {
+                reservations.forEach(ImageMemoryBudget.Reservation::close);
+                reservations.clear();
+                buffered.release(kib);
+                kib = 0;
+            }
+        }
+
+        JsonObject summary(String status) {
+            long elapsed = System.nanoTime() - start;
+            double seconds = Math.max(1e-9, elapsed / 1e9);
+            return Json.createObjectBuilder()
+                    .add("status", status)
+                    .add("entries", entries)
+                    .add("payloads", payloads)
+                    .add("bytes", bytes)
+                    .add("elapsedMillis", TimeUnit.NANOSECONDS.toMillis(elapsed))
+                    .add("entriesPerSecond", Math.round(entries / seconds))
+                    .build();
+        }
+    }
+
+    private static JsonObject inspect(String name, byte[] content, int length) throws IOException, DataFormatException {
+        ImageHeader image = ImageHeaderInspector.inspect(new ByteArrayInputStream(content, 0, length));
+        if (image == null) {
+            return result(name).add("status", "unsupported").build();
+        }
+        var result = result(name)
+                .add("format", image.format())
+                .add("width", image.width())
+                .add("height", image.height());
+        if (image.pixels() < SteganographyService.HEADER_PIXELS) {
+            return result.add("status", "clean").build();
+        }
+        BufferedImage region = "png".equals(image.format())
+                ? PngPrefixDecoder.decode(content, length, SteganographyService.HEADER_PIXELS)
+                : null;
+        if (region == null) {
+            // The ImageIO readers may buffer whole rows or more whatever the source region
+            if (image.pixels() > MAX_PIXELS) {
+                return result.add("status", "skipped").add("reason", "Image larger than image.max.pixels").build();
+            }
+            region = readRegion(content, length, image);
+        }
+        PayloadHeader header = SteganographyService.readHeader(region, image.width(), image.height());
+        if (header == null) {
+            return result.add("status", "clean").build();
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Payload of {} bytes found in {}", box(header.getLength()), name);
+        }
+        return result.add("status", "payload")
+                .add("length", header.getLength())
+                .add("profile", header.getProfile())
+                .add("compressed", header.isCompressed())
+                .add("encrypted", header.isEncrypted())
+                .build();
+    }
+
+    private static BufferedImage readRegion(byte[] content, int length, ImageHeader image) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(content, 0, length))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IOException("No reader for " + image.format());
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceRegion(SteganographyService.headerRegion(image.width(), image.height()));
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static JsonObjectBuilder result(String name) {
+        return Json.createObjectBuilder().add("entry", name);
+    }
+
+    private static JsonObject error(String name, String reason) {
+        return result(name).add("status", "error").add("reason", reason).build();
+    }
+
+    private static boolean isGzip(InputStream in) throws IOException {
+        byte[] magic = peek(in, 2);
+        return magic.length == 2 && (magic[0] & 0xff) == 0x1f && (magic[1] & 0xff) == 0x8b;
+    }
+
+    private static boolean isZip(InputStream in) throws IOException {
+        byte[] magic = peek(in, 4);
+        // A local file header, or the end of an empty archive
+        return magic.length == 4 && magic[0] == 'P' && magic[1] == 'K'
+                && ((magic[2] == 3 && magic[3] == 4) || (magic[2] == 5 && magic[3] == 6));
+    }
+
+    private static boolean isTar(InputStream in) throws IOException {
+        byte[] block = peek(in, 512);
+        if (block.length < 512) {
+            return false;
+        }
+        // ustar and GNU archives carry a magic, v7 archives only a valid header checksum
+        if (block[257] == 'u' && block[258] == 's' && block[259] == 't' && block[260] == 'a' && block[261] == 'r') {
+            return true;
+        }
+        String stored = new String(block, 148, 8, StandardCharsets.US_ASCII).trim();
+        int end = stored.indexOf('\0');
+        stored = (end >= 0 ? stored.substring(0, end) : stored).trim();
+        long sum = 0;
+        for (int i = 0; i < 512; i++) {
+            sum += i >= 148 && i < 156 ? ' ' : block[i] & 0xff;
+        }
+        try {
+            return !stored.isEmpty() && Long.parseLong(stored, 8) == sum;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static byte[] peek(InputStream in, int length) throws IOException {
+        in.mark(length);
+        byte[] bytes = in.readNBytes(length);
+        in.reset();
+        return bytes;
+    }
+}
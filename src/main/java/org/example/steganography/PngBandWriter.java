@@ -0,0 +1,602 @@
+package org.example.steganography;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Writes 8-bit truecolor PNGs whose rows are compressed in independent bands, and rewrites the
+ * low bits of their blue channel band by band.
+ * <p>
+ * The image data is still a single zlib stream, readable by any decoder, but it is laid out as:
+ * an {@code IDAT} chunk holding the zlib header, one {@code IDAT} chunk per band of rows, each
+ * band deflated from an empty dictionary and ended by a full flush, and a last {@code IDAT} chunk
+ * holding the final empty block and the Adler-32 of the whole stream. The first row of a band is
+ * never filtered against the row above it. A band can therefore be inflated, edited and deflated
+ * again without touching the others, and the Adler-32 of the stream is recombined from the
+ * per-band checksums kept in the private {@code sgBX} chunk. Within a band, only the rows holding
+ * a changed bit and the row below each are filtered again. The chunk is unsafe to copy, so
+ * editors that rewrite the image data drop it and such files fall back to a full decode.
+ * <p>
+ * The index comes with the upload and is not trusted: the image must start with the one
+ * {@code IHDR} the upload was admitted on, bands are at most {@link #MAX_BAND_ROWS} rows, and
+ * every band inflated for an update must match its checksum, as must the stream checksum
+ * recombined from them.
+ */
+public final class PngBandWriter {
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    private static final int IHDR = 0x49484452;
+    private static final int IDAT = 0x49444154;
+    private static final int IEND = 0x49454e44;
+    // Ancillary, private, reserved bit clear, unsafe to copy
+    private static final int BAND_INDEX = 0x73674258; // sgBX
+    // The level of the JDK PNG writer, and the matching zlib header: 32 KiB window, fast level
+    private static final int COMPRESSION_LEVEL = 4;
+    private static final byte[] ZLIB_HEADER = {0x78, 0x5e};
+    // A final, empty block with fixed Huffman codes
+    private static final byte[] FINAL_BLOCK = {0x03, 0x00};
+    private static final int ADLER_BASE = 65521;
+
+    /** The most rows in a band, which bounds the memory of an update to a few bands of rows. */
+    public static final int MAX_BAND_ROWS = 256;
+
+    private PngBandWriter() {
+    }
+
+    /**
+     * The outcome of {@link #update(byte[], ImageHeader, byte[])}.
+     */
+    public static final class Update {
+        private final byte[] png;
+        private final int changedPixels;
+        private final int rewrittenBands;
+
+        Update(byte[] png, int changedPixels, int rewrittenBands) {
+            this.png = png;
+            this.changedPixels = changedPixels;
+            this.rewrittenBands = rewrittenBands;
+        }
+
+        public byte[] getPng() {
+            return png;
+        }
+
+        public int getChangedPixels() {
+            return changedPixels;
+        }
+
+        public int getRewrittenBands() {
+            return rewrittenBands;
+        }
+    }
+
+    /**
+     * Writes the image as an 8-bit RGB PNG, or RGBA if it has alpha.
+     *
+     * @param bandRows the number of rows compressed together, at most {@link #MAX_BAND_ROWS}
+     */
+    public static void write(BufferedImage image, int bandRows, OutputStream output) throws IOException {
+        if (bandRows <= 0 || bandRows > MAX_BAND_ROWS) {
+            throw new IllegalArgumentException("Band of " + bandRows + " rows, expected 1 to " + MAX_BAND_ROWS);
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int channels = image.getColorModel().hasAlpha() ? 4 : 3;
+        int bands = (height + bandRows - 1) / bandRows;
+        int stride = 1 + width * channels;
+
+        DataOutputStream out = new DataOutputStream(output);
+        out.write(SIGNATURE);
+        writeChunk(out, IHDR, ihdr(width, height, channels));
+        writeChunk(out, IDAT, ZLIB_HEADER);
+
+        int[] argb = new int[width];
+        byte[] previous = new byte[width * channels];
+        byte[] current = new byte[width * channels];
+        byte[] filtered = new byte[stride];
+        byte[] scratch = new byte[stride];
+        Deflater deflater = new Deflater(COMPRESSION_LEVEL, true);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        int[] adlers = new int[bands];
+        try {
+            for (int band = 0; band < bands; band++) {
+                int firstRow = band * bandRows;
+                int rows = Math.min(bandRows, height - firstRow);
+                Adler32 adler = new Adler32();
+                compressed.reset();
+                for (int y = firstRow; y < firstRow + rows; y++) {
+                    image.getRGB(0, y, width, 1, argb, 0, width);
+                    for (int x = 0, i = 0; x < width; x++) {
+                        int pixel = argb[x];
+                        current[i++] = (byte) (pixel >>> 16);
+                        current[i++] = (byte) (pixel >>> 8);
+                        current[i++] = (byte) pixel;
+                        if (channels == 4) {
+                            current[i++] = (byte) (pixel >>> 24);
+                        }
+                    }
+                    filter(current, y == firstRow ? null : previous, channels, filtered, scratch);
+                    adler.update(filtered, 0, stride);
+                    deflate(deflater, filtered, compressed, y == firstRow + rows - 1);
+                    byte[] swap = previous;
+                    previous = current;
+                    current = swap;
+                }
+                writeChunk(out, IDAT, compressed.toByteArray());
+                adlers[band] = (int) adler.getValue();
+            }
+        } finally {
+            deflater.end();
+        }
+        out.write(tail(bandRows, adlers, stride, height));
+        out.flush();
+    }
+
+    /**
+     * @return the memory {@link #update} needs besides the PNG and its result, for an image of this size
+     */
+    public static long updateBytes(int width, int height) {
+        long stride = 1 + 4L * width;
+        // The inflated band, its unfiltered rows and the band deflated again
+        return 3 * Math.min(MAX_BAND_ROWS, Math.max(0, height)) * stride;
+    }
+
+    /**
+     * Embeds bits one per pixel, most significant bit of each byte first, in the least significant
+     * bit of the blue channel, rewriting only the bands where a bit changes.
+     *
+     * @param png a PNG written by {@link #write}
+     * @param header the header the PNG was admitted on, its memory sized by {@link #updateBytes}
+     * @param embedded the bytes to embed from the first pixel on
+     * @return the updated PNG, or {@code null} if the PNG was not written by {@link #write}, does
+     * not match the header or its band index does not match the image data
+     * @throws IllegalArgumentException if the bytes exceed the capacity of the image
+     */
+    public static Update update(byte[] png, ImageHeader header, byte[] embedded) throws DataFormatException {
+        Layout layout = Layout.parse(png);
+        if (layout == null || layout.width != header.width() || layout.height != header.height()
+                || 8 * layout.channels != header.bitsPerPixel()) {
+            return null;
+        }
+        int stride = layout.stride;
+        // Unchanged bands keep their stored checksum, which must add up to the one of the stream
+        if (streamAdler(layout.bandRows, layout.adlers, stride, layout.height) != layout.adler) {
+            return null;
+        }
+        long bits = embedded.length * 8L;
+        if (bits > (long) layout.width * layout.height) {
+            throw new IllegalArgumentException("Message of " + embedded.length + " bytes does not fit in a "
+                    + layout.width + "x" + layout.height + " image");
+        }
+        int lastBand = bits == 0 ? -1 : (int) ((bits - 1) / layout.width / layout.bandRows);
+        byte[][] bands = new byte[layout.bands][];
+        byte[] scratch = new byte[stride];
+        int[] adlers = layout.adlers.clone();
+        int changedPixels = 0;
+        int rewrittenBands = 0;
+
+        for (int band = 0; band <= lastBand; band++) {
+            int firstRow = band * layout.bandRows;
+            int rows = Math.min(layout.bandRows, layout.height - firstRow);
+            byte[] raw = inflate(png, layout.bandOffsets[band], layout.bandLengths[band], rows * stride);
+            if (raw == null) {
+                return null;
+            }
+            Adler32 adler = new Adler32();
+            adler.update(raw, 0, raw.length);
+            if ((int) adler.getValue() != layout.adlers[band]) {
+                return null;
+            }
+            // Rows holding bits, and the row below them whose filter may depend on them
+            int payloadRows = (int) Math.min(rows, (bits + layout.width - 1) / layout.width - firstRow);
+            byte[][] pixels = unfilter(raw, Math.min(rows, payloadRows + 1), stride, layout.channels);
+            if (pixels == null) {
+                return null;
+            }
+            boolean[] rowChanged = new boolean[rows];
+            int changed = 0;
+            for (int y = 0; y < payloadRows; y++) {
+                long rowStart = (long) (firstRow + y) * layout.width;
+                for (int x = 0; x < layout.width && rowStart + x < bits; x++) {
+                    long index = rowStart + x;
+                    int bit = (embedded[(int) (index >>> 3)] >> (7 - (int) (index & 7))) & 1;
+                    int blue = x * layout.channels + 2;
+                    if ((pixels[y][blue] & 1) != bit) {
+                        pixels[y][blue] = (byte) ((pixels[y][blue] & 0xfe) | bit);
+                        rowChanged[y] = true;
+                        changed++;
+                    }
+                }
+            }
+            if (changed == 0) {
+                continue;
+            }
+            changedPixels += changed;
+            rewrittenBands++;
+            // Other rows filter to the same bytes, refilter the rest with their own filter type
+            for (int y = 0; y < pixels.length; y++) {
+                if (rowChanged[y] || (y > 0 && rowChanged[y - 1])) {
+                    applyFilter(raw[y * stride], pixels[y], y == 0 ? null : pixels[y - 1], layout.channels, scratch);
+                    System.arraycopy(scratch, 0, raw, y * stride, stride);
+                }
+            }
+            adler.reset();
+            adler.update(raw, 0, raw.length);
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(layout.bandLengths[band] + 64);
+            Deflater deflater = new Deflater(COMPRESSION_LEVEL, true);
+            try {
+                deflate(deflater, raw, compressed, true);
+            } finally {
+                deflater.end();
+            }
+            bands[band] = compressed.toByteArray();
+            adlers[band] = (int) adler.getValue();
+        }
+        if (rewrittenBands == 0) {
+            return new Update(png, 0, 0);
+        }
+
+        // Assembled in place, the unchanged chunks are most of the file
+        byte[] tail = tail(layout.bandRows, adlers, stride, layout.height);
+        int head = layout.bandOffsets[0] - 8;
+        long size = head + tail.length;
+        for (int band = 0; band < layout.bands; band++) {
+            size += 12 + (bands[band] != null ? bands[band].length : layout.bandLengths[band]);
+        }
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Updated image larger than 2 GiB");
+        }
+        byte[] updated = new byte[(int) size];
+        // Signature, header and the zlib header chunk
+        System.arraycopy(png, 0, updated, 0, head);
+        int position = head;
+        for (int band = 0; band < layout.bands; band++) {
+            if (bands[band] != null) {
+                position = putChunk(updated, position, IDAT, bands[band]);
+            } else {
+                int length = layout.bandLengths[band] + 12;
+                System.arraycopy(png, layout.bandOffsets[band] - 8, updated, position, length);
+                position += length;
+            }
+        }
+        System.arraycopy(tail, 0, updated, position, tail.length);
+        return new Update(updated, changedPixels, rewrittenBands);
+    }
+
+    /**
+     * @return what follows the bands: the end of the zlib stream, the band index and the end of the image
+     */
+    private static byte[] tail(int bandRows, int[] adlers, int stride, int height) {
+        int adler = streamAdler(bandRows, adlers, stride, height);
+        byte[] trailer = new byte[FINAL_BLOCK.length + 4];
+        System.arraycopy(FINAL_BLOCK, 0, trailer, 0, FINAL_BLOCK.length);
+        writeInt(trailer, FINAL_BLOCK.length, adler);
+
+        byte[] index = new byte[8 + 4 * adlers.length];
+        writeInt(index, 0, bandRows);
+        writeInt(index, 4, adlers.length);
+        for (int band = 0; band < adlers.length; band++) {
+            writeInt(index, 8 + 4 * band, adlers[band]);
+        }
+
+        byte[] tail = new byte[3 * 12 + trailer.length + index.length];
+        int position = putChunk(tail, 0, IDAT, trailer);
+        position = putChunk(tail, position, BAND_INDEX, index);
+        putChunk(tail, position, IEND, new byte[0]);
+        return tail;
+    }
+
+    /**
+     * @return the Adler-32 of the whole image data, from the checksum of each band
+     */
+    private static int streamAdler(int bandRows, int[] adlers, int stride, int height) {
+        long adler = 1L;
+        for (int band = 0; band < adlers.length; band++) {
+            long rows = Math.min(bandRows, height - (long) band * bandRows);
+            adler = combine(adler, adlers[band] & 0xffffffffL, rows * stride);
+        }
+        return (int) adler;
+    }
+
+    private static byte[] ihdr(int width, int height, int channels) {
+        byte[] ihdr = new byte[13];
+        writeInt(ihdr, 0, width);
+        writeInt(ihdr, 4, height);
+        ihdr[8] = 8; // bit depth
+        ihdr[9] = (byte) (channels == 4 ? 6 : 2); // RGBA or RGB
+        return ihdr; // deflate, adaptive filtering, not interlaced
+    }
+
+    private static void writeChunk(DataOutputStream out, int type, byte[] data) throws IOException {
+        byte[] chunk = new byte[data.length + 12];
+        putChunk(chunk, 0, type, data);
+        out.write(chunk);
+    }
+
+    /**
+     * @return the position after the chunk
+     */
+    private static int putChunk(byte[] bytes, int position, int type, byte[] data) {
+        writeInt(bytes, position, data.length);
+        writeInt(bytes, position + 4, type);
+        System.arraycopy(data, 0, bytes, position + 8, data.length);
+        CRC32 crc = new CRC32();
+        crc.update(bytes, position + 4, data.length + 4);
+        writeInt(bytes, position + 8 + data.length, (int) crc.getValue());
+        return position + data.length + 12;
+    }
+
+    private static void deflate(Deflater deflater, byte[] input, ByteArrayOutputStream output, boolean endOfBand) {
+        deflater.setInput(input);
+        byte[] buffer = new byte[8192];
+        int flush = endOfBand ? Deflater.FULL_FLUSH : Deflater.NO_FLUSH;
+        while (true) {
+            int written = deflater.deflate(buffer, 0, buffer.length, flush);
+            output.write(buffer, 0, written);
+            // Done once the input is consumed and, for a flush, the output drained
+            if (written < buffer.length && deflater.needsInput()) {
+                return;
+            }
+        }
+    }
+
+    private static byte[] inflate(byte[] png, int offset, int length, int size) throws DataFormatException {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(png, offset, length);
+            byte[] raw = new byte[size];
+            int filled = 0;
+            while (filled < size) {
+                int inflated = inflater.inflate(raw, filled, size - filled);
+                if (inflated == 0 && (inflater.needsInput() || inflater.finished())) {
+                    return null;
+                }
+                filled += inflated;
+            }
+            return raw;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Chooses, per row, the filter with the smallest sum of absolute values. The first row of a
+     * band has no row above it, only None and Sub apply.
+     *
+     * @param scratch a buffer as long as {@code filtered}
+     */
+    private static void filter(byte[] row, byte[] above, int channels, byte[] filtered, byte[] scratch) {
+        int bestFilter = -1;
+        long bestSum = Long.MAX_VALUE;
+        int filters = above == null ? 2 : 5;
+        for (int filter = 0; filter < filters; filter++) {
+            applyFilter(filter, row, above, channels, scratch);
+            long sum = 0;
+            for (int i = 1; i < scratch.length; i++) {
+                sum += Math.abs(scratch[i]);
+            }
+            if (sum < bestSum) {
+                bestSum = sum;
+                bestFilter = filter;
+                System.arraycopy(scratch, 0, filtered, 0, scratch.length);
+            }
+        }
+    }
+
+    private static void applyFilter(int filter, byte[] row, byte[] above, int channels, byte[] out) {
+        int length = row.length;
+        out[0] = (byte) filter;
+        switch (filter) {
+            case 1:
+                System.arraycopy(row, 0, out, 1, Math.min(channels, length));
+                for (int i = channels; i < length; i++) {
+                    out[i + 1] = (byte) (row[i] - row[i - channels]);
+                }
+                break;
+            case 2:
+                for (int i = 0; i < length; i++) {
+                    out[i + 1] = (byte) (row[i] - above[i]);
+                }
+                break;
+            case 3:
+                for (int i = 0; i < length; i++) {
+                    int a = i >= channels ? row[i - channels] & 0xff : 0;
+                    out[i + 1] = (byte) (row[i] - ((a + (above[i] & 0xff)) >>> 1));
+                }
+                break;
+            case 4:
+                for (int i = 0; i < length; i++) {
+                    int a = i >= channels ? row[i - channels] & 0xff : 0;
+                    int c = i >= channels ? above[i - channels] & 0xff : 0;
+                    out[i + 1] = (byte) (row[i] - paeth(a, above[i] & 0xff, c));
+                }
+                break;
+            default:
+                System.arraycopy(row, 0, out, 1, length);
+                break;
+        }
+    }
+
+    /**
+     * @param rows the number of leading rows of the band to unfilter
+     * @return the unfiltered rows, or {@code null} if the first row depends on the band above
+     */
+    private static byte[][] unfilter(byte[] raw, int rows, int stride, int channels) {
+        byte[][] pixels = new byte[rows][stride - 1];
+        for (int y = 0; y < rows; y++) {
+            int filter = raw[y * stride] & 0xff;
+            if (filter > 4 || (y == 0 && filter >= 2)) {
+                return null;
+            }
+            byte[] row = pixels[y];
+            byte[] above = y == 0 ? null : pixels[y - 1];
+            for (int i = 0; i < row.length; i++) {
+                int x = raw[y * stride + 1 + i] & 0xff;
+                int a = i >= channels ? row[i - channels] & 0xff : 0;
+                int b = above == null ? 0 : above[i] & 0xff;
+                int c = above == null || i < channels ? 0 : above[i - channels] & 0xff;
+                switch (filter) {
+                    case 1: x += a; break;
+                    case 2: x += b; break;
+                    case 3: x += (a + b) >>> 1; break;
+                    case 4: x += paeth(a, b, c); break;
+                    default: break;
+                }
+                row[i] = (byte) x;
+            }
+        }
+        return pixels;
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    /**
+     * The Adler-32 of two concatenated sequences, from the checksum of each and the length of the second.
+     */
+    static long combine(long adler1, long adler2, long length2) {
+        long remainder = length2 % ADLER_BASE;
+        long sum1 = adler1 & 0xffff;
+        long sum2 = (remainder * sum1) % ADLER_BASE;
+        sum1 += (adler2 & 0xffff) + ADLER_BASE - 1;
+        sum2 += ((adler1 >>> 16) & 0xffff) + ((adler2 >>> 16) & 0xffff) + ADLER_BASE - remainder;
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum2 >= 2L * ADLER_BASE) {
+            sum2 -= 2L * ADLER_BASE;
+        }
+        if (sum2 >= ADLER_BASE) {
+            sum2 -= ADLER_BASE;
+        }
+        return sum1 | (sum2 << 16);
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16
+                | (bytes[offset + 2] & 0xff) << 8 | (bytes[offset + 3] & 0xff);
+    }
+
+    /**
+     * Where the bands of a PNG written by {@link #write} are.
+     */
+    private static final class Layout {
+        int ihdrOffset;
+        int width;
+        int height;
+        int channels;
+        int stride;
+        int bandRows;
+        int bands;
+        int adler;
+        int[] adlers;
+        int[] bandOffsets;
+        int[] bandLengths;
+
+        static Layout parse(byte[] png) {
+            if (png.length < 8 || !Arrays.equals(png, 0, 8, SIGNATURE, 0, 8)) {
+                return null;
+            }
+            Layout layout = new Layout();
+            List<int[]> idats = new ArrayList<>();
+            int position = 8;
+            while (position + 12 <= png.length) {
+                int length = readInt(png, position);
+                int type = readInt(png, position + 4);
+                int data = position + 8;
+                if (length < 0 || length > png.length - data - 4) {
+                    return null;
+                }
+                // Exactly one IHDR, the first chunk
+                if ((position == 8) != (type == IHDR)) {
+                    return null;
+                }
+                if (type == IHDR) {
+                    if (length != 13) {
+                        return null;
+                    }
+                    layout.ihdrOffset = data;
+                    layout.width = readInt(png, data);
+                    layout.height = readInt(png, data + 4);
+                    int bitDepth = png[data + 8];
+                    int colorType = png[data + 9];
+                    if (bitDepth != 8 || (colorType != 2 && colorType != 6) || png[data + 12] != 0) {
+                        return null;
+                    }
+                    layout.channels = colorType == 6 ? 4 : 3;
+                } else if (type == BAND_INDEX) {
+                    if (layout.adlers != null || length < 8) {
+                        return null;
+                    }
+                    layout.bandRows = readInt(png, data);
+                    layout.bands = readInt(png, data + 4);
+                    if (layout.bandRows <= 0 || layout.bandRows > MAX_BAND_ROWS || layout.bands <= 0
+                            || length != 8 + 4L * layout.bands) {
+                        return null;
+                    }
+                    layout.adlers = new int[layout.bands];
+                    for (int band = 0; band < layout.bands; band++) {
+                        layout.adlers[band] = readInt(png, data + 8 + 4 * band);
+                    }
+                } else if (type == IDAT) {
+                    idats.add(new int[]{data, length});
+                } else if (type == IEND) {
+                    break;
+                } else if ((png[position + 4] & 0x20) == 0) {
+                    return null; // an unknown critical chunk
+                }
+                position = data + length + 4;
+            }
+            if (layout.width <= 0 || layout.height <= 0 || layout.adlers == null) {
+                return null;
+            }
+            // A band of rows must fit in an array
+            long stride = 1 + (long) layout.width * layout.channels;
+            if (stride * layout.bandRows > Integer.MAX_VALUE - 8) {
+                return null;
+            }
+            layout.stride = (int) stride;
+            // The zlib header, one chunk per band, the trailer
+            if (idats.size() != layout.bands + 2
+                    || layout.bands != ((long) layout.height + layout.bandRows - 1) / layout.bandRows
+                    || idats.get(0)[1] != ZLIB_HEADER.length
+                    || idats.get(layout.bands + 1)[1] != FINAL_BLOCK.length + 4) {
+                return null;
+            }
+            layout.adler = readInt(png, idats.get(layout.bands + 1)[0] + FINAL_BLOCK.length);
+            layout.bandOffsets = new int[layout.bands];
+            layout.bandLengths = new int[layout.bands];
+            for (int band = 0; band < layout.bands; band++) {
+                layout.bandOffsets[band] = idats.get(band + 1)[0];
+                layout.bandLengths[band] = idats.get(band + 1)[1];
+            }
+            return layout;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package org.example.steganography;
+
+import java.awt.image.BufferedImage;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decodes the first pixels of a PNG without inflating the rest of the image data. The ImageIO PNG
+ * reader inflates every row even for a one-row source region, which makes header scans as slow
+ * as full decodes. Only the layouts this service writes are handled, 8-bit truecolor with or
+ * without alpha, not interlaced; other PNGs yield {@code null} and are left to ImageIO.
+ */
+final class PngPrefixDecoder {
+    private static final int IHDR = 0x49484452;
+    private static final int IDAT = 0x49444154;
+    private static final int IEND = 0x49454e44;
+
+    private PngPrefixDecoder() {
+    }
+
+    /**
+     * @param png the PNG file
+     * @param pixels the number of leading pixels, in row-major order, to decode
+     * @return the pixels in an image as wide as the PNG, at most {@code pixels} wide, or
+     * {@code null} if the layout is not supported or the PNG holds fewer pixels
+     */
+    static BufferedImage decode(byte[] png, int pixels) throws DataFormatException {
+        return decode(png, png.length, pixels);
+    }
+
+    /**
+     * @param end the length of the PNG at the start of {@code png}
+     * @see #decode(byte[], int)
+     */
+    static BufferedImage decode(byte[] png, int end, int pixels) throws DataFormatException {
+        int position = 8;
+        int width = 0, height = 0, channels = 0;
+        Inflater inflater = null;
+        byte[] raw = null;
+        int filled = 0;
+        try {
+            while (position + 8 <= end) {
+                int length = readInt(png, position);
+                int type = readInt(png, position + 4);
+                int data = position + 8;
+                if (length < 0 || length > end - data) {
+                    return null;
+                }
+                if (type == IHDR) {
+                    width = readInt(png, data);
+                    height = readInt(png, data + 4);
+                    int bitDepth = png[data + 8] & 0xff;
+                    int colorType = png[data + 9] & 0xff;
+                    int interlace = png[data + 12] & 0xff;
+                    if (bitDepth != 8 || interlace != 0 || (colorType != 2 && colorType != 6)
+                            || width <= 0 || height <= 0 || (long) width * height < pixels) {
+                        return null;
+                    }
+                    channels = colorType == 6 ? 4 : 3;
+                    int rows = rows(width, pixels);
+                    int lastRowPixels = pixels - (rows - 1) * width;
+                    // Every row is a filter byte then the samples, the last one is only needed up to the last pixel
+                    raw = new byte[(rows - 1) * (1 + width * channels) + 1 + lastRowPixels * channels];
+                    inflater = new Inflater();
+                } else if (type == IDAT && inflater != null) {
+                    inflater.setInput(png, data, length);
+                    while (filled < raw.length && !inflater.needsInput() && !inflater.finished()) {
+                        filled += inflater.inflate(raw, filled, raw.length - filled);
+                    }
+                    if (filled == raw.length) {
+                        return unfilter(raw, width, channels, pixels);
+                    }
+                } else if (type == IEND) {
+                    return null;
+                }
+                position = data + length + 4; // CRC
+            }
+            return null;
+        } finally {
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+    }
+
+    private static int rows(int width, int pixels) {
+        return (int) (((long) pixels + width - 1) / width);
+    }
+
+    private static BufferedImage unfilter(byte[] raw, int width, int channels, int pixels) throws DataFormatException {
+        int columns = Math.min(width, pixels);
+        int rows = rows(width, pixels);
+        BufferedImage image = new BufferedImage(columns, rows, BufferedImage.TYPE_INT_ARGB);
+        // Sized from the decoded columns, not the declared width: a single row may be declared
+        // hundreds of millions of pixels wide. With several rows, every row is decoded in full.
+        int columnBytes = columns * channels;
+        int stride = 1 + columnBytes;
+        byte[] previous = new byte[columnBytes];
+        byte[] current = new byte[columnBytes];
+        for (int y = 0; y < rows; y++) {
+            int start = y * stride;
+            int rowBytes = Math.min(columnBytes, raw.length - start - 1);
+            int filter = raw[start] & 0xff;
+            for (int i = 0; i < rowBytes; i++) {
+                int x = raw[start + 1 + i] & 0xff;
+                int a = i >= channels ? current[i - channels] & 0xff : 0;
+                int b = previous[i] & 0xff;
+                int c = i >= channels ? previous[i - channels] & 0xff : 0;
+                switch (filter) {
+                    case 0: break;
+                    case 1: x += a; break;
+                    case 2: x += b; break;
+                    case 3: x += (a + b) >>> 1; break;
+                    case 4: x += paeth(a, b, c); break;
+                    default: throw new DataFormatException("Invalid PNG filter " + filter);
+                }
+                current[i] = (byte) x;
+            }
+            for (int px = 0; px < rowBytes / channels; px++) {
+                int offset = px * channels;
+                int alpha = channels == 4 ? current[offset + 3] & 0xff : 0xff;
+                image.setRGB(px, y, alpha << 24 | (current[offset] & 0xff) << 16
+                        | (current[offset + 1] & 0xff) << 8 | (current[offset + 2] & 0xff));
+            }
+            byte[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return image;
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16
+                | (bytes[offset + 2] & 0xff) << 8 | (bytes[offset + 3] & 0xff);
+    }
+}
@@ -3,19 +3,83 @@ package org.example.steganography;
 import jakarta.enterprise.context.ApplicationScoped; // Add this import
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.ConfigProvider;
 
+import static org.apache.logging.log4j.util.Unbox.box;
+
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 import javax.imageio.ImageIO;
 
 /**
  * Service class for encoding and decoding messages using steganography.
  * This class is now a CDI-managed bean with application scope.
+ * <p>
+ * A message is embedded as its UTF-8 bytes, deflated when that makes them shorter, behind a
+ * {@link PayloadHeader}, one bit per pixel in the least significant bit of the blue channel.
+ * Images written before the header existed hold a bare 32-bit length followed by one byte per
+ * character; they are only decoded when {@code steganography.legacy.format.enabled} is set.
+ * <p>
+ * Images are written by {@link PngBandWriter}, {@code steganography.png.band.rows} rows per
+ * compressed band, at most {@link PngBandWriter#MAX_BAND_ROWS}, so that
+ * {@link #updatePng(byte[], ImageHeader, byte[])} can replace the message of an encoded image by rewriting
+ * only the bands whose bits change.
  */
 @ApplicationScoped // Add this annotation to make it a CDI-managed bean
 public class SteganographyService {
 
     private static final Logger logger = LogManager.getLogger(SteganographyService.class);
+    private static final Config config = ConfigProvider.getConfig();
+
+    // The legacy format: one bit per pixel, after the 32-bit length
+    private static final int LEGACY_LENGTH_BITS = 32;
+
+    private final boolean legacyFormatEnabled = config.getOptionalValue("steganography.legacy.format.enabled", Boolean.class).orElse(false);
+    private final int compressionMinBytes = config.getOptionalValue("steganography.compression.min.bytes", Integer.class).orElse(256);
+    private final int maxMessageBytes = config.getOptionalValue("steganography.max.message.bytes", Integer.class).orElse(16 * 1024 * 1024);
+    private final int pngBandRows = Math.min(PngBandWriter.MAX_BAND_ROWS,
+            config.getOptionalValue("steganography.png.band.rows", Integer.class).orElse(32));
+
+    /** The leading pixels, in row-major order, that hold the {@link PayloadHeader}. */
+    public static final int HEADER_PIXELS = PayloadHeader.BYTES * 8;
+
+    /**
+     * @return the number of bytes, header included, an image of this size can hold
+     */
+    public static long capacity(int width, int height) {
+        return (long) width * height / 8;
+    }
+
+    /**
+     * Serializes a message as it is embedded: header, then payload.
+     *
+     * @param message the message
+     * @return the bytes to embed, see {@link #capacity(int, int)}
+     */
+    public byte[] preparePayload(String message) {
+        byte[] payload = message.getBytes(StandardCharsets.UTF_8);
+        int flags = PayloadHeader.PROFILE_LSB1;
+        if (payload.length >= compressionMinBytes) {
+            byte[] compressed = deflate(payload);
+            if (compressed.length < payload.length) {
+                payload = compressed;
+                flags |= PayloadHeader.FLAG_COMPRESSED;
+            }
+        }
+        byte[] header = PayloadHeader.of(flags, payload).toBytes();
+        byte[] embedded = new byte[header.length + payload.length];
+        System.arraycopy(header, 0, embedded, 0, header.length);
+        System.arraycopy(payload, 0, embedded, header.length, payload.length);
+        return embedded;
+    }
 
     /**
      * Encodes a message into an image using LSB steganography.
@@ -23,59 +87,233 @@ public class SteganographyService {
      * @param image   The image to encode the message into.
      * @param message The message to encode.
      * @return The image with the encoded message.
+     * @throws IllegalArgumentException if the message exceeds the capacity of the image
      */
     public BufferedImage encodeMessage(BufferedImage image, String message) {
-        logger.info("Starting message encoding process...");
+        return encodePayload(image, preparePayload(message));
+    }
 
-        int textLength = message.length();
+    /**
+     * Embeds bytes returned by {@link #preparePayload(String)} into an image.
+     *
+     * @throws IllegalArgumentException if the bytes exceed the capacity of the image
+     */
+    public BufferedImage encodePayload(BufferedImage image, byte[] embedded) {
         int imageWidth = image.getWidth();
         int imageHeight = image.getHeight();
-        int imageIndex = 0;
-
-        // Embed the length of the text first (32 bits)
-        for (int i = 0; i < 32; i++) {
-            int x = imageIndex % imageWidth;
-            int y = imageIndex / imageWidth;
-            int rgb = image.getRGB(x, y);
-            int bit = (textLength >> (31 - i)) & 1; // Extract the bit
-            rgb = (rgb & 0xFFFFFFFE) | bit; // Set the LSB
-            image.setRGB(x, y, rgb);
-            imageIndex++;
+        if (embedded.length > capacity(imageWidth, imageHeight)) {
+            throw new IllegalArgumentException("Message of " + embedded.length + " bytes does not fit in a "
+                    + imageWidth + "x" + imageHeight + " image");
         }
-
-        // Embed the text (8 bits per character)
-        for (char c : message.toCharArray()) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Encoding {} bytes into a {}x{} image", box(embedded.length), box(imageWidth), box(imageHeight));
+        }
+        int imageIndex = 0;
+        // 8 bits per byte, most significant first
+        for (byte b : embedded) {
             for (int i = 0; i < 8; i++) {
                 int x = imageIndex % imageWidth;
                 int y = imageIndex / imageWidth;
                 int rgb = image.getRGB(x, y);
-                int bit = (c >> (7 - i)) & 1; // Extract the bit
+                int bit = (b >> (7 - i)) & 1; // Extract the bit
                 rgb = (rgb & 0xFFFFFFFE) | bit; // Set the LSB
                 image.setRGB(x, y, rgb);
                 imageIndex++;
             }
         }
-
-        logger.info("Message successfully encoded into the image.");
         return image;
     }
 
+    /**
+     * Replaces the message of a PNG written by {@link #writePng(BufferedImage, OutputStream)}
+     * without decoding it: only the bands of rows holding a changed bit are inflated, edited and
+     * deflated again, the others are copied as they are.
+     *
+     * @param header the header the PNG was admitted on
+     * @param embedded the bytes returned by {@link #preparePayload(String)}
+     * @return the updated PNG, or {@code null} if the PNG was not written by this service or does
+     * not match the header
+     * @throws IllegalArgumentException if the bytes exceed the capacity of the image
+     */
+    public PngBandWriter.Update updatePng(byte[] png, ImageHeader header, byte[] embedded) {
+        try {
+            PngBandWriter.Update update = PngBandWriter.update(png, header, embedded);
+            if (update != null && logger.isDebugEnabled()) {
+                logger.debug("Updated a banded PNG of {} bytes, {} pixels changed in {} bands",
+                        box(png.length), box(update.getChangedPixels()), box(update.getRewrittenBands()));
+            }
+            return update;
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupt PNG image data", e);
+        }
+    }
+
+    /**
+     * Writes an encoded image as a PNG that {@link #updatePng(byte[], ImageHeader, byte[])} can update in place.
+     */
+    public void writePng(BufferedImage image, OutputStream output) throws IOException {
+        PngBandWriter.write(image, pngBandRows, output);
+    }
+
     /**
      * Decodes a message from an image using LSB steganography.
      *
      * @param image The image containing the encoded message.
      * @return The decoded message.
+     * @throws IllegalArgumentException if the image holds no valid message
      */
     public String decodeMessage(BufferedImage image) {
-        logger.info("Starting message decoding process...");
+        int imageWidth = image.getWidth();
+        int imageHeight = image.getHeight();
+        long pixels = (long) imageWidth * imageHeight;
+
+        // Most images hold no message, they are turned away after the magic
+        if (pixels >= PayloadHeader.BYTES * 8L && PayloadHeader.hasMagic(readBytes(image, 0, PayloadHeader.MAGIC_BYTES))) {
+            return decodePayload(image);
+        }
+        if (legacyFormatEnabled) {
+            return decodeLegacy(image);
+        }
+        throw new IllegalArgumentException("Image does not hold a message");
+    }
+
+    /**
+     * @return the smallest region, from the origin, holding the {@link #HEADER_PIXELS} of an image
+     */
+    public static Rectangle headerRegion(int width, int height) {
+        if (width >= HEADER_PIXELS) {
+            return new Rectangle(0, 0, HEADER_PIXELS, 1);
+        }
+        return new Rectangle(0, 0, width, Math.min(height, (HEADER_PIXELS + width - 1) / width));
+    }
+
+    /**
+     * Reads the payload header without reading the payload.
+     *
+     * @param region the image, or its {@link #headerRegion(int, int)}
+     * @param width the width of the whole image
+     * @param height the height of the whole image
+     * @return the header, or {@code null} if the image holds no message of a supported version
+     */
+    public static PayloadHeader readHeader(BufferedImage region, int width, int height) {
+        if ((long) width * height < HEADER_PIXELS) {
+            return null;
+        }
+        PayloadHeader header = PayloadHeader.parse(readBytes(region, 0, PayloadHeader.BYTES));
+        if (header == null || header.getVersion() != PayloadHeader.VERSION
+                || header.getLength() < 0 || header.getLength() > capacity(width, height) - PayloadHeader.BYTES) {
+            return null;
+        }
+        return header;
+    }
+
+    private String decodePayload(BufferedImage image) {
+        int imageWidth = image.getWidth();
+        int imageHeight = image.getHeight();
+        PayloadHeader header = PayloadHeader.parse(readBytes(image, 0, PayloadHeader.BYTES));
+        if (header.getVersion() != PayloadHeader.VERSION) {
+            throw new IllegalArgumentException("Unsupported message format version " + header.getVersion());
+        }
+        if (header.getProfile() != PayloadHeader.PROFILE_LSB1) {
+            throw new IllegalArgumentException("Unsupported embedding profile " + header.getProfile());
+        }
+        if (header.isEncrypted()) {
+            throw new IllegalArgumentException("Encrypted messages are not supported");
+        }
+        // Bound the allocation by the capacity before trusting the length
+        if (header.getLength() < 0 || header.getLength() > capacity(imageWidth, imageHeight) - PayloadHeader.BYTES) {
+            throw new IllegalArgumentException("Image does not hold a message");
+        }
+        byte[] payload = readBytes(image, PayloadHeader.BYTES * 8L, header.getLength());
+        if (!header.matches(payload)) {
+            throw new IllegalArgumentException("Message checksum mismatch");
+        }
+        if (header.isCompressed()) {
+            payload = inflate(payload);
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Decoded {} bytes from a {}x{} image", box(payload.length), box(imageWidth), box(imageHeight));
+        }
+        return new String(payload, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads bytes embedded one bit per pixel, most significant bit first.
+     */
+    private static byte[] readBytes(BufferedImage image, long firstPixel, int length) {
+        int imageWidth = image.getWidth();
+        byte[] bytes = new byte[length];
+        long imageIndex = firstPixel;
+        for (int i = 0; i < length; i++) {
+            int b = 0;
+            for (int j = 0; j < 8; j++) {
+                int x = (int) (imageIndex % imageWidth);
+                int y = (int) (imageIndex / imageWidth);
+                b = (b << 1) | (image.getRGB(x, y) & 1);
+                imageIndex++;
+            }
+            bytes[i] = (byte) b;
+        }
+        return bytes;
+    }
+
+    private static byte[] deflate(byte[] bytes) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 16);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private byte[] inflate(byte[] bytes) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length * 2);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int inflated = inflater.inflate(buffer);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("Truncated compressed message");
+                }
+                // The checksum only covers the compressed bytes, bound what they expand to
+                if (out.size() + inflated > maxMessageBytes) {
+                    throw new IllegalArgumentException("Message larger than " + maxMessageBytes + " bytes");
+                }
+                out.write(buffer, 0, inflated);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupt compressed message", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Decodes an image written before the payload header: a 32-bit length in characters, then
+     * the low byte of every character.
+     */
+    private String decodeLegacy(BufferedImage image) {
 
         int imageWidth = image.getWidth();
         int imageHeight = image.getHeight();
+        if ((long) imageWidth * imageHeight < LEGACY_LENGTH_BITS) {
+            throw new IllegalArgumentException("Image does not hold a message");
+        }
         int imageIndex = 0;
         int textLength = 0;
 
         // Extract the length of the text (first 32 bits)
-        for (int i = 0; i < 32; i++) {
+        for (int i = 0; i < LEGACY_LENGTH_BITS; i++) {
             int x = imageIndex % imageWidth;
             int y = imageIndex / imageWidth;
             int rgb = image.getRGB(x, y);
@@ -83,9 +321,13 @@ public class SteganographyService {
             textLength = (textLength << 1) | bit;
             imageIndex++;
         }
+        // Images without a message hold an arbitrary length, never trust it beyond the capacity
+        if (textLength < 0 || textLength > ((long) imageWidth * imageHeight - LEGACY_LENGTH_BITS) / 8) {
+            throw new IllegalArgumentException("Image does not hold a message");
+        }
 
         // Extract the text (8 bits per character)
-        StringBuilder extractedText = new StringBuilder();
+        StringBuilder extractedText = new StringBuilder(textLength);
         for (int i = 0; i < textLength; i++) {
             char c = 0;
             for (int j = 0; j < 8; j++) {
@@ -99,7 +341,9 @@ public class SteganographyService {
             extractedText.append(c);
         }
 
-        logger.info("Message successfully decoded from the image.");
+        if (logger.isDebugEnabled()) {
+            logger.debug("Decoded {} legacy characters from a {}x{} image", box(textLength), box(imageWidth), box(imageHeight));
+        }
         return extractedText.toString();
     }
-}
\ No newline at end of file
+}
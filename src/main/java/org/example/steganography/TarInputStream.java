@@ -0,0 +1,189 @@
+package org.example.steganography;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the entries of a ustar, GNU or pax tar stream one after the other, like
+ * {@link java.util.zip.ZipInputStream}: {@link #getNextEntry()} moves to the next entry and the
+ * read methods return its content. Only names and sizes are interpreted; links, devices and
+ * directories are reported as entries that are not regular files.
+ */
+final class TarInputStream extends InputStream {
+    private static final int BLOCK = 512;
+
+    private final InputStream in;
+    private final byte[] header = new byte[BLOCK];
+    private long remaining;
+    private long padding;
+
+    TarInputStream(InputStream in) {
+        this.in = in;
+    }
+
+    static final class Entry {
+        final String name;
+        final long size;
+        final boolean regular;
+
+        Entry(String name, long size, boolean regular) {
+            this.name = name;
+            this.size = size;
+            this.regular = regular;
+        }
+    }
+
+    /**
+     * Skips what is left of the current entry and reads the header of the next one.
+     *
+     * @return the next entry, or {@code null} at the end of the archive
+     */
+    Entry getNextEntry() throws IOException {
+        String longName = null;
+        while (true) {
+            skipFully(remaining + padding);
+            remaining = padding = 0;
+            if (in.readNBytes(header, 0, BLOCK) < BLOCK || isZero(header)) {
+                return null;
+            }
+            char type = (char) header[156];
+            long size = size();
+            remaining = size;
+            padding = (BLOCK - size % BLOCK) % BLOCK;
+            if (type == 'L') { // GNU long name, the name of the next entry
+                longName = trim(readContent(size));
+                continue;
+            }
+            if (type == 'x') { // pax extended header, may hold the path of the next entry
+                String path = paxPath(readContent(size));
+                if (path != null) {
+                    longName = path;
+                }
+                continue;
+            }
+            if (type == 'g') { // pax global header
+                readContent(size);
+                continue;
+            }
+            String name = longName != null ? longName : name();
+            boolean regular = type == '0' || type == '\0' || type == '7';
+            return new Entry(name, size, regular);
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (remaining <= 0) {
+            return -1;
+        }
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException("Truncated tar entry");
+        }
+        remaining--;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (remaining <= 0) {
+            return -1;
+        }
+        int read = in.read(buffer, offset, (int) Math.min(length, remaining));
+        if (read < 0) {
+            throw new EOFException("Truncated tar entry");
+        }
+        remaining -= read;
+        return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private byte[] readContent(long size) throws IOException {
+        if (size > 1 << 20) {
+            throw new IOException("Tar extended header too large");
+        }
+        byte[] content = readNBytes((int) size);
+        if (content.length < size) {
+            throw new EOFException("Truncated tar entry");
+        }
+        return content;
+    }
+
+    private String name() {
+        String name = string(0, 100);
+        // ustar splits long paths in a prefix and a name
+        if (header[257] == 'u' && header[258] == 's' && header[259] == 't' && header[260] == 'a' && header[261] == 'r') {
+            String prefix = string(345, 155);
+            if (!prefix.isEmpty()) {
+                name = prefix + "/" + name;
+            }
+        }
+        return name;
+    }
+
+    private long size() throws IOException {
+        // GNU base-256 encoding for sizes of 8 GiB and more
+        if ((header[124] & 0x80) != 0) {
+            long size = header[124] & 0x7f;
+            for (int i = 125; i < 136; i++) {
+                size = (size << 8) | (header[i] & 0xff);
+            }
+            return size;
+        }
+        String octal = string(124, 12).trim();
+        try {
+            return octal.isEmpty() ? 0L : Long.parseLong(octal, 8);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid tar entry size " + octal, e);
+        }
+    }
+
+    private String string(int offset, int length) {
+        int end = offset;
+        while (end < offset + length && header[end] != 0) {
+            end++;
+        }
+        return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    // Records are "<length> <key>=<value>\n"
+    private static String paxPath(byte[] content) {
+        String records = new String(content, StandardCharsets.UTF_8);
+        for (String record : records.split("\n")) {
+            int space = record.indexOf(' ');
+            if (space > 0 && record.startsWith("path=", space + 1)) {
+                return record.substring(space + 1 + "path=".length());
+            }
+        }
+        return null;
+    }
+
+    private static String trim(byte[] name) {
+        int end = name.length;
+        while (end > 0 && name[end - 1] == 0) {
+            end--;
+        }
+        return new String(name, 0, end, StandardCharsets.UTF_8);
+    }
+
+    private void skipFully(long bytes) throws IOException {
+        if (bytes > 0) {
+            in.skipNBytes(bytes);
+        }
+    }
+
+    private static boolean isZero(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -2,33 +2,33 @@ package org.example.web;
 
 import jakarta.annotation.Priority;
 import jakarta.ejb.EJBException;
-import jakarta.json.Json;
-import jakarta.json.JsonString;
 import jakarta.security.enterprise.CallerPrincipal;
 import jakarta.ws.rs.Priorities;
 import jakarta.ws.rs.container.ContainerRequestContext;
 import jakarta.ws.rs.container.ContainerRequestFilter;
+import jakarta.ws.rs.container.ContainerResponseContext;
+import jakarta.ws.rs.container.ContainerResponseFilter;
 import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.Response;
-import jakarta.ws.rs.core.SecurityContext;
 import jakarta.ws.rs.ext.Provider;
 import org.eclipse.microprofile.config.Config;
 import org.eclipse.microprofile.config.ConfigProvider;
+import org.example.metrics.Metrics;
+import org.example.metrics.RequestTiming;
+import org.example.metrics.Stage;
 
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
-import java.io.StringReader;
 import java.security.Principal;
-import java.util.Arrays;
 
 
 @Secured
 @Provider
 @Priority(Priorities.AUTHENTICATION)
-public class AuthenticationFilter implements ContainerRequestFilter {
+public class AuthenticationFilter implements ContainerRequestFilter, ContainerResponseFilter {
     private static final Config config = ConfigProvider.getConfig();
     private static final String REALM = config.getValue("jwt.realm",String.class);
-    private static final String CLAIM_ROLES = config.getValue("jwt.claim.roles",String.class);
+    private static final String CLAIM_ROLES_MASK = config.getOptionalValue("jwt.claim.roles.mask",String.class).orElse("rmask");
     private static final String AUTHENTICATION_SCHEME = "Bearer";
 
 
@@ -46,42 +46,37 @@ public class AuthenticationFilter implements ContainerRequestFilter {
         String token = authorizationHeader
                 .substring(AUTHENTICATION_SCHEME.length()).trim();
 
+        RequestTiming timing = RequestTiming.of(requestContext.getProperty(RequestTiming.PROPERTY));
+        long start = Stage.start();
         try {
             InitialContext context = new InitialContext();
             JwtManagerVerifier jwtManagerVerifier = (JwtManagerVerifier) context.lookup("java:module/JwtManagerVerifier");
             var claims = jwtManagerVerifier.verifyToken(token);
             if(!claims.isEmpty()){
-                final var roles = Json.createReader(new StringReader(claims.get(CLAIM_ROLES))).readArray().getValuesAs(JsonString.class).stream().map(JsonString::getString).toList().toArray(new String[0]);
+                if (jwtManagerVerifier.isRevoked(claims.get("jti"), claims.get("sub"), Long.parseLong(claims.get("iat")))) {
+                    abortWithUnauthorized(requestContext);
+                    return;
+                }
+                final long roles = Long.parseLong(claims.get(CLAIM_ROLES_MASK));
                 final Principal userPrincipal = new CallerPrincipal(claims.get("sub"));
                 final boolean isSecure = requestContext.getSecurityContext().isSecure();
-                IdentityUtility.iAm(claims.get("sub"));
-                requestContext.setSecurityContext(new SecurityContext() {
-                    @Override
-                    public Principal getUserPrincipal() {
-                        return userPrincipal;
-                    }
-
-                    @Override
-                    public boolean isUserInRole(String role) {
-                        return Arrays.asList(roles).contains(role);
-                    }
-
-                    @Override
-                    public boolean isSecure() {
-                        return isSecure;
-                    }
-
-                    @Override
-                    public String getAuthenticationScheme() {
-                        return AUTHENTICATION_SCHEME;
-                    }
-                });
+                IdentityUtility.bind(requestContext, new IdentityContext(claims.get("sub"), roles, claims.get("tenant-id")));
+                requestContext.setProperty(Metrics.TENANT, claims.get("tenant-id"));
+                requestContext.setSecurityContext(new RoleMaskSecurityContext(userPrincipal, roles, isSecure, AUTHENTICATION_SCHEME));
             }
         } catch (EJBException | NamingException e) {
             abortWithUnauthorized(requestContext);
+        } finally {
+            timing.record(Stage.AUTHENTICATION, start);
         }
     }
 
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+        // The caller stays on the request, the thread goes back to the pool without it
+        IdentityUtility.clear();
+    }
+
     private boolean isTokenBasedAuthentication(String authorizationHeader) {
         return authorizationHeader != null && authorizationHeader.toLowerCase()
                 .startsWith(AUTHENTICATION_SCHEME.toLowerCase() + " ");
@@ -0,0 +1,23 @@
+package org.example.web;
+
+import jakarta.ws.rs.Priorities;
+import jakarta.ws.rs.container.DynamicFeature;
+import jakarta.ws.rs.container.ResourceInfo;
+import jakarta.ws.rs.core.FeatureContext;
+import jakarta.ws.rs.ext.Provider;
+
+/**
+ * Binds a precompiled {@link AuthorizationFilter} to each resource method at deployment time.
+ * Methods that are open to everyone get no filter at all.
+ */
+@Provider
+public class AuthorizationFeature implements DynamicFeature {
+
+    @Override
+    public void configure(ResourceInfo resourceInfo, FeatureContext context) {
+        AuthorizationFilter filter = AuthorizationFilter.compile(resourceInfo.getResourceClass(), resourceInfo.getResourceMethod());
+        if (filter != null) {
+            context.register(filter, Priorities.AUTHORIZATION);
+        }
+    }
+}
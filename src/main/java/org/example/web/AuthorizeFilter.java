@@ -1,94 +1,139 @@
 package org.example.web;
 
-import jakarta.annotation.Priority;
 import jakarta.annotation.security.DenyAll;
 import jakarta.annotation.security.PermitAll;
 import jakarta.annotation.security.RolesAllowed;
-import jakarta.ws.rs.Priorities;
 import jakarta.ws.rs.WebApplicationException;
 import jakarta.ws.rs.container.ContainerRequestContext;
 import jakarta.ws.rs.container.ContainerRequestFilter;
-import jakarta.ws.rs.container.ResourceInfo;
-import jakarta.ws.rs.core.Context;
 import jakarta.ws.rs.core.Response;
-import jakarta.ws.rs.ext.Provider;
+import jakarta.ws.rs.core.SecurityContext;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.ConfigProvider;
+import org.example.auth.RoleCodec;
 
 import java.lang.reflect.Method;
+import java.util.Arrays;
+
+/**
+ * Authorization decision for a single resource method.
+ * Instances are compiled once per method by {@link AuthorizationFeature} at deployment time,
+ * so the request path never reflects on annotations.
+ * <p>
+ * Names in {@link RolesAllowed} must be among the configured {@code roles}, or be mapped onto one
+ * of them with {@code roles.alias.<name>}: for instance {@code roles.alias.admin=operator} lets
+ * {@code @RolesAllowed("admin")} accept callers holding the {@code operator} role. A method whose
+ * names all resolve to unknown roles is denied to everyone, which is logged at deployment.
+ */
+public abstract class AuthorizationFilter implements ContainerRequestFilter {
+    private static final Logger logger = LogManager.getLogger(AuthorizationFilter.class);
+    private static final Config config = ConfigProvider.getConfig();
 
-@Provider
-@Priority(Priorities.AUTHORIZATION)
-public class AuthorizationFilter implements ContainerRequestFilter {
-    @Context
-    private ResourceInfo resourceInfo;
-
-    @Override
-    public void filter(ContainerRequestContext requestContext) {
-        Method method = resourceInfo.getResourceMethod();
-
+    /**
+     * Compiles the security annotations of a resource method into an evaluator.
+     *
+     * @param resourceClass the resource class
+     * @param method the resource method
+     * @return the filter to bind, or {@code null} when the method is open to everyone
+     */
+    public static AuthorizationFilter compile(Class<?> resourceClass, Method method) {
         // @DenyAll on the method takes precedence over @RolesAllowed and @PermitAll
         if (method.isAnnotationPresent(DenyAll.class)) {
-            refuseRequest();
+            return Deny.INSTANCE;
         }
 
         // @RolesAllowed on the method takes precedence over @PermitAll
         RolesAllowed rolesAllowed = method.getAnnotation(RolesAllowed.class);
         if (rolesAllowed != null) {
-            performAuthorization(rolesAllowed.value(), requestContext);
-            return;
+            return requireRoles(method, rolesAllowed.value());
         }
 
         // @PermitAll on the method takes precedence over @RolesAllowed on the class
         if (method.isAnnotationPresent(PermitAll.class)) {
-            // Do nothing
-            return;
+            return null;
         }
 
         // @PermitAll must not be attached to classes
 
         // @RolesAllowed on the class takes precedence over @PermitAll on the class
-        rolesAllowed =
-                resourceInfo.getResourceClass().getAnnotation(RolesAllowed.class);
+        rolesAllowed = resourceClass.getAnnotation(RolesAllowed.class);
         if (rolesAllowed != null) {
-            performAuthorization(rolesAllowed.value(), requestContext);
-            return;
+            return requireRoles(method, rolesAllowed.value());
         }
 
         // @DenyAll on the class
-        if (resourceInfo.getResourceClass().isAnnotationPresent(DenyAll.class)) {
-            refuseRequest();
+        if (resourceClass.isAnnotationPresent(DenyAll.class)) {
+            return Deny.INSTANCE;
         }
 
         // Authorization is not required for non-annotated methods
+        return null;
+    }
+
+    private static AuthorizationFilter requireRoles(Method method, String[] rolesAllowed) {
+        String[] roleNames = new String[rolesAllowed.length];
+        for (int i = 0; i < rolesAllowed.length; i++) {
+            roleNames[i] = config.getOptionalValue("roles.alias." + rolesAllowed[i], String.class).orElse(rolesAllowed[i]);
+        }
+        long mask = RoleCodec.mask(roleNames);
+        if (mask == 0L) {
+            // An empty or unknown role list can never be satisfied
+            logger.warn("{}.{} requires roles {} none of which is configured, every request will be refused",
+                    method.getDeclaringClass().getSimpleName(), method.getName(), Arrays.toString(roleNames));
+            return Deny.INSTANCE;
+        }
+        return new RequireRoles(mask, roleNames);
+    }
+
+    static void refuseRequest() {
+        throw new WebApplicationException("You don't have permissions to perform this action.", Response.Status.UNAUTHORIZED);
     }
 
     /**
-     * Perform authorization based on roles.
-     *
-     * @param rolesAllowed the allowed roles
-     * @param requestContext the request context
+     * Refuses every request.
      */
-    private void performAuthorization(String[] rolesAllowed,
-                                      ContainerRequestContext requestContext) {
+    static final class Deny extends AuthorizationFilter {
+        static final Deny INSTANCE = new Deny();
 
-        if (rolesAllowed.length > 0 && !isAuthenticated(requestContext)) {
+        @Override
+        public void filter(ContainerRequestContext requestContext) {
             refuseRequest();
         }
+    }
+
+    /**
+     * Accepts authenticated callers holding at least one of the required roles.
+     */
+    static final class RequireRoles extends AuthorizationFilter {
+        private final long requiredRoles;
+        private final String[] roleNames;
 
-        for (final String role : rolesAllowed) {
-            if (requestContext.getSecurityContext().isUserInRole(role)) {
+        RequireRoles(long requiredRoles, String[] roleNames) {
+            this.requiredRoles = requiredRoles;
+            this.roleNames = roleNames.clone();
+        }
+
+        @Override
+        public void filter(ContainerRequestContext requestContext) {
+            SecurityContext securityContext = requestContext.getSecurityContext();
+            if (securityContext == null || securityContext.getUserPrincipal() == null) {
+                refuseRequest();
+            }
+            if (securityContext instanceof RoleMaskSecurityContext) {
+                if ((((RoleMaskSecurityContext) securityContext).getRoleMask() & requiredRoles) == 0L) {
+                    refuseRequest();
+                }
                 return;
             }
+            // Security context supplied by the container, fall back to role names
+            for (String role : roleNames) {
+                if (securityContext.isUserInRole(role)) {
+                    return;
+                }
+            }
+            refuseRequest();
         }
-
-        refuseRequest();
-    }
-
-    private boolean isAuthenticated(final ContainerRequestContext requestContext) {
-        // Return true if the user is authenticated or false otherwise
-        return requestContext.getSecurityContext().getUserPrincipal() != null;
-    }
-
-    private void refuseRequest() {
-        throw new WebApplicationException("You don't have permissions to perform this action.", Response.Status.UNAUTHORIZED);
     }
 }
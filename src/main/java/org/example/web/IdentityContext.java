@@ -0,0 +1,43 @@
+package org.example.web;
+
+import org.example.auth.RoleCodec;
+
+/**
+ * The authenticated caller of a request: username, {@link org.example.auth.Role} bitmask and tenant.
+ * Immutable, so one instance is shared by the request and every task it hands to another thread.
+ */
+public final class IdentityContext {
+    /** Request property holding the caller of the request. */
+    public static final String PROPERTY = "org.example.identity";
+
+    private final String username;
+    private final long roleMask;
+    private final String tenant;
+
+    public IdentityContext(String username, long roleMask, String tenant) {
+        this.username = username;
+        this.roleMask = roleMask;
+        this.tenant = tenant;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public long getRoleMask() {
+        return roleMask;
+    }
+
+    public String getTenant() {
+        return tenant;
+    }
+
+    public boolean hasRole(String role) {
+        return (roleMask & RoleCodec.bit(role)) != 0L;
+    }
+
+    @Override
+    public String toString() {
+        return "IdentityContext[" + username + ", roles=0x" + Long.toHexString(roleMask) + ", tenant=" + tenant + "]";
+    }
+}
@@ -0,0 +1,23 @@
+package org.example.web;
+
+import jakarta.servlet.ServletRequestEvent;
+import jakarta.servlet.ServletRequestListener;
+import jakarta.servlet.annotation.WebListener;
+
+/**
+ * Guarantees that a pooled container thread never carries a caller from one request to the next,
+ * including for requests aborted before, or completed after, the JAX-RS response filters.
+ */
+@WebListener
+public class IdentityContextListener implements ServletRequestListener {
+
+    @Override
+    public void requestInitialized(ServletRequestEvent event) {
+        IdentityUtility.clear();
+    }
+
+    @Override
+    public void requestDestroyed(ServletRequestEvent event) {
+        IdentityUtility.clear();
+    }
+}
@@ -1,34 +1,132 @@
 package org.example.web;
 
-import java.util.Set;
+import jakarta.ws.rs.container.ContainerRequestContext;
 
-public class IdentityUtility {
-    private static final ThreadLocal<String> username = new ThreadLocal<>();
-    private static final ThreadLocal<Set<String>> roles = new ThreadLocal<>();
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 
-    private static final ThreadLocal<String> tenant = new ThreadLocal<>();
+/**
+ * Access to the caller of the current request.
+ * <p>
+ * The caller is held by the request, as the {@link IdentityContext#PROPERTY} property, and bound to
+ * the thread running it for the duration of a scope only: {@link #runAs} and {@link #callAs} restore
+ * the previous binding when they return, and the request binding made by the
+ * {@link AuthenticationFilter} is removed by its response filter and, for requests completed
+ * elsewhere, by {@link IdentityContextListener} when the container thread is handed back. Work moved
+ * to another thread carries the caller along through {@link #wrap(Runnable)},
+ * {@link #wrap(Callable)} and {@link #propagating(Executor)}.
+ * <p>
+ * A single thread-local slot holds one immutable reference, so a thread costs one entry whatever
+ * the number of fields, and virtual threads that never run a scope cost none.
+ */
+public final class IdentityUtility {
+    private static final ThreadLocal<IdentityContext> current = new ThreadLocal<>();
 
-    public static void iAm(String username){
-        IdentityUtility.username.set(username);
+    private IdentityUtility() {
     }
 
-    public static String whoAmI(){
-        return username.get();
+    /**
+     * Binds the caller to the request and to the thread running its filters and resource method.
+     */
+    static void bind(ContainerRequestContext requestContext, IdentityContext identity) {
+        requestContext.setProperty(IdentityContext.PROPERTY, identity);
+        current.set(identity);
     }
 
-    public static void setRoles(Set<String> roles){
-        IdentityUtility.roles.set(roles);
+    /**
+     * Removes the binding of the current thread.
+     */
+    static void clear() {
+        current.remove();
     }
 
-    public static Set<String> getRoles(){
-        return IdentityUtility.roles.get();
+    /**
+     * @return the caller bound to the current thread, or {@code null} outside an authenticated request
+     */
+    public static IdentityContext current() {
+        return current.get();
     }
 
-    public static void tenantWithName(String tenant){
-        IdentityUtility.tenant.set(tenant);
+    /**
+     * @return the caller of the request, or {@code null} if it is not authenticated
+     */
+    public static IdentityContext of(ContainerRequestContext requestContext) {
+        Object identity = requestContext.getProperty(IdentityContext.PROPERTY);
+        return identity instanceof IdentityContext ? (IdentityContext) identity : null;
     }
 
-    public static String whichTenant(){
-        return IdentityUtility.tenant.get();
+    public static String whoAmI() {
+        IdentityContext identity = current.get();
+        return identity == null ? null : identity.getUsername();
+    }
+
+    /**
+     * @return the {@link org.example.auth.Role} bitmask of the caller, {@code 0} if there is none
+     */
+    public static long getRoles() {
+        IdentityContext identity = current.get();
+        return identity == null ? 0L : identity.getRoleMask();
+    }
+
+    public static String whichTenant() {
+        IdentityContext identity = current.get();
+        return identity == null ? null : identity.getTenant();
+    }
+
+    /**
+     * Runs the task with the given caller bound, then restores the previous binding.
+     */
+    public static void runAs(IdentityContext identity, Runnable task) {
+        IdentityContext previous = current.get();
+        set(identity);
+        try {
+            task.run();
+        } finally {
+            set(previous);
+        }
+    }
+
+    /**
+     * Calls the task with the given caller bound, then restores the previous binding.
+     */
+    public static <T> T callAs(IdentityContext identity, Callable<T> task) throws Exception {
+        IdentityContext previous = current.get();
+        set(identity);
+        try {
+            return task.call();
+        } finally {
+            set(previous);
+        }
+    }
+
+    /**
+     * @return the task, running with the caller bound when it is submitted
+     */
+    public static Runnable wrap(Runnable task) {
+        IdentityContext identity = current.get();
+        return identity == null ? task : () -> runAs(identity, task);
+    }
+
+    /**
+     * @return the task, running with the caller bound when it is submitted
+     */
+    public static <T> Callable<T> wrap(Callable<T> task) {
+        IdentityContext identity = current.get();
+        return identity == null ? task : () -> callAs(identity, task);
+    }
+
+    /**
+     * @return an executor running every task with the caller bound when the task is submitted
+     */
+    public static Executor propagating(Executor executor) {
+        return task -> executor.execute(wrap(task));
+    }
+
+    private static void set(IdentityContext identity) {
+        if (identity == null) {
+            current.remove();
+        } else {
+            current.set(identity);
+        }
     }
 }
@@ -1,43 +1,101 @@
 package org.example.web;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
 import jakarta.ejb.*;
+import jakarta.enterprise.concurrent.ManagedThreadFactory;
 import jakarta.json.Json;
 import jakarta.json.JsonObject;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.eclipse.microprofile.config.Config;
 import org.eclipse.microprofile.config.ConfigProvider;
+import org.example.auth.Ed25519Jwk;
+import org.example.auth.KeyRingStore;
+import org.example.auth.RevocationStore;
+import org.example.auth.RoleCodec;
+import org.example.auth.TokenRevocationList;
+import org.example.metrics.Stage;
 
 import java.io.IOException;
 import java.io.StringReader;
-import java.math.BigInteger;
 import java.net.URI;
+import java.net.URLEncoder;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.security.*;
 import java.security.spec.*;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 @Startup
 @Singleton
 @LocalBean
 public class JwtManagerVerifier {
+    private static final Logger logger = LogManager.getLogger(JwtManagerVerifier.class);
     private final static String curve = "Ed25519";
-    private final static Signature signatureAlgorithm;
-
-    static {
-        try {
-            signatureAlgorithm = Signature.getInstance(curve);
-        } catch (NoSuchAlgorithmException e) {
-            throw new EJBException(e);
-        }
-    }
     private static final Config config = ConfigProvider.getConfig();
     private static final String JWK_ENDPOINT = config.getValue("jwt.jwk.endpoint", String.class);
+    private static final String CLAIM_ROLES_MASK = config.getOptionalValue("jwt.claim.roles.mask", String.class).orElse("rmask");
+    private static final long JWT_LIFETIME = config.getValue("jwt.lifetime.duration", Long.class);
+    // Outbound key fetches: at most one new fetch per interval, unknown kids not asked for again for a while
+    private static final long JWKS_MIN_INTERVAL_MS = config.getOptionalValue("jwt.jwks.min.refresh.ms", Long.class).orElse(1000L);
+    private static final long JWKS_NEGATIVE_TTL_MS = config.getOptionalValue("jwt.jwks.negative.ttl.ms", Long.class).orElse(60_000L);
+    private static final long JWKS_TIMEOUT_MS = config.getOptionalValue("jwt.jwks.timeout.ms", Long.class).orElse(2000L);
+    private static final int JWKS_NEGATIVE_MAX = 10_000;
+    private static final Pattern KID = Pattern.compile("[A-Za-z0-9_-]{1,128}");
+    private static final Pattern MAX_AGE = Pattern.compile("max-age=(\\d+)");
 
+    private final Map<String, KeyRingStore.PublishedKey> publicKeys = new ConcurrentHashMap<>();
+    @Resource
+    ManagedThreadFactory managedThreadFactory;
+    private KeyRingStore keyRing;
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofMillis(JWKS_TIMEOUT_MS)).build();
+    private final Map<String, Long> unknownKids = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<KeyRingStore.PublishedKey>> fetching = new ConcurrentHashMap<>();
+    private final AtomicLong nextFetchAt = new AtomicLong();
+    private final AtomicReference<CompletableFuture<Map<String, KeyRingStore.PublishedKey>>> keySetFetch = new AtomicReference<>();
+    private final TokenRevocationList revocations = new TokenRevocationList(JWT_LIFETIME);
+    private RevocationStore revocationStore;
+
+    @PostConstruct
+    public void init() {
+        ThreadFactory threadFactory = managedThreadFactory != null ? managedThreadFactory : Executors.defaultThreadFactory();
+        keyRing = KeyRingStore.fromConfig(threadFactory);
+        revocationStore = RevocationStore.fromConfig(threadFactory);
+        // Keys published by any node are verified locally, without a round trip to the issuer
+        keyRing.watch(key -> publicKeys.put(key.getKid(), key));
+        keyRing.load().forEach(key -> publicKeys.put(key.getKid(), key));
+        // Likewise for revocations, watched before loading so that none is missed in between
+        revocationStore.watch(this::apply);
+        revocationStore.load().forEach(this::apply);
+    }
+
+    @PreDestroy
+    public void close() {
+        keyRing.close();
+        revocationStore.close();
+    }
 
+    @Lock(LockType.READ)
     public Map<String,String> verifyToken(String token) {
+        var t = Stage.start();
         var parts = token.split("\\.");
         var header = Json.createReader(new StringReader(new String(Base64.getUrlDecoder().decode(parts[0])))).readObject();
         var kid = header.getString("kid");
@@ -45,71 +103,312 @@ public class JwtManagerVerifier {
             throw new EJBException("Invalid token");
         }
         var publicKey = getPublicKeyFromKid(kid);
+        t = Stage.KEY_FETCH.record(t);
         if(publicKey == null) {
+            Stage.KEY_FETCH.failed();
             return Collections.emptyMap();
         }
         try {
+            // Verifications run concurrently, a Signature is not thread-safe
+            var signatureAlgorithm = Signature.getInstance(curve);
             signatureAlgorithm.initVerify(publicKey);
             signatureAlgorithm.update((parts[0]+"."+parts[1]).getBytes(StandardCharsets.UTF_8));
             if(!signatureAlgorithm.verify(Base64.getUrlDecoder().decode(parts[2]))) {
+                Stage.SIGNATURE_VERIFY.failed();
                 return Collections.emptyMap();
             }
+            t = Stage.SIGNATURE_VERIFY.record(t);
             var payload = Json.createReader(new StringReader(new String(Base64.getUrlDecoder().decode(parts[1])))).readObject();
             var exp = payload.getJsonNumber("exp");
             if(exp == null) {
+                Stage.CLAIM_PARSE.failed();
                 throw new EJBException("Invalid token");
             }
             if(Instant.ofEpochSecond(exp.longValue()).isBefore(Instant.now())) {
                 return Collections.emptyMap();
             }
-            return Map.of("tenant-id",payload.getString("tenant-id"),
+            var iat = payload.getJsonNumber("iat");
+            if(iat == null || !payload.containsKey("jti")) {
+                // Revocations are matched on both, a token without them could never be revoked
+                Stage.CLAIM_PARSE.failed();
+                throw new EJBException("Invalid token");
+            }
+            var claims = Map.of("tenant-id",payload.getString("tenant-id"),
                     "sub",payload.getString("sub"),
                     "upn",payload.getString("upn"),
                     "scope",payload.getString("scope"),
-                    "groups",payload.getJsonArray("groups").toString());
-        } catch (InvalidKeyException | SignatureException e) {
+                    "jti",payload.getString("jti"),
+                    "iat",Long.toString(iat.longValue()),
+                    CLAIM_ROLES_MASK,Long.toString(RoleCodec.rolesOf(payload, CLAIM_ROLES_MASK)));
+            Stage.CLAIM_PARSE.record(t);
+            return claims;
+        } catch (InvalidKeyException | SignatureException | NoSuchAlgorithmException e) {
+            Stage.SIGNATURE_VERIFY.failed();
             throw new EJBException(e);
         }
     }
 
 
+    @Lock(LockType.READ)
+    public boolean isRevoked(String jti, String subject, long issuedAt) {
+        return revocations.isRevoked(jti, subject, issuedAt);
+    }
+
+    /**
+     * Revokes a token on this node and publishes the revocation to the other nodes, when a
+     * {@code token.revocation.directory} is configured; otherwise it only applies to this node.
+     */
+    @Lock(LockType.READ)
+    public void revokeToken(String jti) {
+        var revocation = new RevocationStore.Revocation(RevocationStore.Revocation.JTI, jti, Instant.now().getEpochSecond());
+        apply(revocation);
+        revocationStore.publish(revocation);
+    }
+
+    /**
+     * Revokes every token of a subject issued up to now, on this node and, through the
+     * revocation store, on the others.
+     */
+    @Lock(LockType.READ)
+    public void revokeSubject(String subject) {
+        var revocation = new RevocationStore.Revocation(RevocationStore.Revocation.SUBJECT, subject, Instant.now().getEpochSecond());
+        apply(revocation);
+        revocationStore.publish(revocation);
+    }
+
+    private void apply(RevocationStore.Revocation revocation) {
+        if (RevocationStore.Revocation.JTI.equals(revocation.getKind())) {
+            revocations.revokeToken(revocation.getValue(), revocation.getRevokedAt());
+        } else if (RevocationStore.Revocation.SUBJECT.equals(revocation.getKind())) {
+            revocations.revokeSubject(revocation.getValue(), revocation.getRevokedAt());
+        }
+    }
+
+    @Lock(LockType.READ)
+    public int getRevocationCount() {
+        return revocations.size();
+    }
+
+    /**
+     * @return the key, from the key ring or fetched from the issuer, or {@code null} if unknown or retired
+     */
+    @Lock(LockType.READ)
     public PublicKey getPublicKeyFromKid(String kid) {
+        var cached = publicKeys.get(kid);
+        if (cached != null && cached.getNotAfter() < Instant.now().getEpochSecond()) {
+            publicKeys.remove(kid, cached);
+            cached = null;
+        }
+        if (cached == null) {
+            cached = fetchKey(kid);
+        }
+        return cached == null ? null : cached.getPublicKey();
+    }
+
+    /**
+     * Asks the issuer for one key, outside of any lock. Callers asking for the same kid share the
+     * fetch; a new fetch starts at most every {@code jwt.jwks.min.refresh.ms}, and a kid the issuer
+     * does not know is not asked for again for {@code jwt.jwks.negative.ttl.ms}, so tokens with
+     * forged kids cannot turn into outbound requests. A kid that finds the interval already used
+     * is not turned away: it waits for the next fetch, which reads the whole key set once for every
+     * kid waiting, so a stream of forged kids cannot keep a rotated key from being fetched.
+     */
+    private KeyRingStore.PublishedKey fetchKey(String kid) {
+        if (!KID.matcher(kid).matches()) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        Long unknownUntil = unknownKids.get(kid);
+        if (unknownUntil != null) {
+            if (now < unknownUntil) {
+                return null;
+            }
+            unknownKids.remove(kid, unknownUntil);
+        }
+        var pending = fetching.get(kid);
+        if (pending == null) {
+            long next = nextFetchAt.get();
+            if (keySetFetch.get() != null || now < next || !nextFetchAt.compareAndSet(next, now + JWKS_MIN_INTERVAL_MS)) {
+                return awaitKeySet(kid);
+            }
+            var fetch = new CompletableFuture<KeyRingStore.PublishedKey>();
+            pending = fetching.putIfAbsent(kid, fetch);
+            if (pending == null) {
+                try {
+                    var key = requestKey(kid);
+                    if (key != null) {
+                        publicKeys.put(kid, key);
+                    }
+                    fetch.complete(key);
+                    return key;
+                } catch (RuntimeException e) {
+                    fetch.complete(null);
+                    throw e;
+                } finally {
+                    fetching.remove(kid, fetch);
+                }
+            }
+        }
         try {
-            String jwkUrl = JWK_ENDPOINT + "?kid=" + kid;
-            HttpClient client = HttpClient.newHttpClient();
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(jwkUrl))
+            return pending.get(JWKS_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Joins the next fetch of the whole key set, starting it if none is scheduled: the first
+     * waiter sleeps until the interval allows a fetch and reads the set for everyone.
+     *
+     * @return the key, or {@code null} if the issuer does not publish it or cannot be reached in time
+     */
+    private KeyRingStore.PublishedKey awaitKeySet(String kid) {
+        var scheduled = keySetFetch.get();
+        if (scheduled == null) {
+            var fetch = new CompletableFuture<Map<String, KeyRingStore.PublishedKey>>();
+            if (keySetFetch.compareAndSet(null, fetch)) {
+                Map<String, KeyRingStore.PublishedKey> keys = null;
+                try {
+                    keys = fetchKeySet();
+                } finally {
+                    keySetFetch.set(null);
+                    fetch.complete(keys);
+                }
+                return keyOf(keys, kid);
+            }
+            scheduled = keySetFetch.get();
+            if (scheduled == null) {
+                // Completed in between, this kid was already in or out of it
+                return publicKeys.get(kid);
+            }
+        }
+        try {
+            return keyOf(scheduled.get(JWKS_MIN_INTERVAL_MS + 2 * JWKS_TIMEOUT_MS, TimeUnit.MILLISECONDS), kid);
+        } catch (ExecutionException | TimeoutException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * @param keys the key set, {@code null} if it could not be fetched
+     */
+    private KeyRingStore.PublishedKey keyOf(Map<String, KeyRingStore.PublishedKey> keys, String kid) {
+        if (keys == null) {
+            return null;
+        }
+        var key = keys.get(kid);
+        if (key == null) {
+            rememberUnknown(kid);
+        }
+        return key;
+    }
+
+    /**
+     * Waits for the fetch interval, then reads the issuer's whole {@code /jwks} key set.
+     *
+     * @return the keys by kid, or {@code null} if the issuer cannot be reached
+     */
+    private Map<String, KeyRingStore.PublishedKey> fetchKeySet() {
+        try {
+            while (true) {
+                long now = System.currentTimeMillis();
+                long next = nextFetchAt.get();
+                if (now >= next) {
+                    if (nextFetchAt.compareAndSet(next, now + JWKS_MIN_INTERVAL_MS)) {
+                        break;
+                    }
+                } else {
+                    Thread.sleep(next - now);
+                }
+            }
+            var request = HttpRequest.newBuilder()
+                    .uri(URI.create(JWK_ENDPOINT))
+                    .timeout(Duration.ofMillis(JWKS_TIMEOUT_MS))
+                    .build();
+            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                logger.warn("Failed to fetch the key set: HTTP status {}", response.statusCode());
+                return null;
+            }
+            // A key in the set is valid at least as long as the tokens it signs
+            long notAfter = Instant.now().getEpochSecond() + JWT_LIFETIME;
+            var keys = new HashMap<String, KeyRingStore.PublishedKey>();
+            for (JsonObject jwk : Json.createReader(new StringReader(response.body())).readObject()
+                    .getJsonArray("keys").getValuesAs(JsonObject.class)) {
+                var kid = jwk.getString("kid");
+                var key = new KeyRingStore.PublishedKey(kid, Ed25519Jwk.publicKey(jwk.getString("x")), notAfter);
+                publicKeys.putIfAbsent(kid, key);
+                keys.put(kid, key);
+            }
+            return keys;
+        } catch (IOException | NoSuchAlgorithmException | InvalidKeySpecException | RuntimeException e) {
+            logger.warn("Failed to fetch the key set: {}", e.toString());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Reads a single key from the issuer's {@code /jwks?kid=} resource, retired when its max-age runs out.
+     *
+     * @return the key, or {@code null} if the issuer does not publish it or cannot be reached
+     */
+    private KeyRingStore.PublishedKey requestKey(String kid) {
+        try {
+            var request = HttpRequest.newBuilder()
+                    .uri(URI.create(JWK_ENDPOINT + "?kid=" + URLEncoder.encode(kid, StandardCharsets.UTF_8)))
+                    .timeout(Duration.ofMillis(JWKS_TIMEOUT_MS))
                     .build();
-            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-            if (response.statusCode() == 200) {
-                JsonObject key = Json.createReader(new StringReader(response.body())).readObject();
-                var encodedPublicKeyFromJWKX =  key.getString("x");
-                var decodedPublicKey = Base64.getUrlDecoder().decode(encodedPublicKeyFromJWKX);
-                var isOdd = (decodedPublicKey[decodedPublicKey.length - 1] & 255) >> 7 == 1;
-                decodedPublicKey[decodedPublicKey.length - 1] &= 127;
-                var i = 0;
-                var j = decodedPublicKey.length -1;
-                while (i<j){
-                    var tmp = decodedPublicKey[i];
-                    decodedPublicKey[i] = decodedPublicKey[j];
-                    decodedPublicKey[j] = tmp;
-                    ++i;--j;
+            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            long now = Instant.now().getEpochSecond();
+            if (response.statusCode() == 404) {
+                rememberUnknown(kid);
+                return null;
+            }
+            if (response.statusCode() != 200) {
+                logger.warn("Failed to fetch key {}: HTTP status {}", kid, response.statusCode());
+                return null;
+            }
+            JsonObject jwk = Json.createReader(new StringReader(response.body())).readObject();
+            if (!kid.equals(jwk.getString("kid", null))) {
+                rememberUnknown(kid);
+                return null;
+            }
+            // The issuer caches a key until it is retired, and so does the verifier
+            long notAfter = now + JWT_LIFETIME;
+            var cacheControl = response.headers().firstValue("Cache-Control");
+            if (cacheControl.isPresent()) {
+                Matcher maxAge = MAX_AGE.matcher(cacheControl.get());
+                if (maxAge.find()) {
+                    notAfter = now + Long.parseLong(maxAge.group(1));
                 }
-                var y = new BigInteger(1, decodedPublicKey);
-                var ep = new EdECPoint(isOdd,y);
-                var paramSpec = new NamedParameterSpec(curve);
-                var publicKeySpec = new EdECPublicKeySpec(paramSpec,ep);
-                var kf = KeyFactory.getInstance(curve);
-                return kf.generatePublic(publicKeySpec);
-            } else {
-                throw new RuntimeException("Failed to fetch key: HTTP status " + response.statusCode());
-            }
-        } catch (IOException | InterruptedException e) {
-            throw new RuntimeException(e);
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
-        } catch (InvalidKeySpecException e) {
-            throw new RuntimeException(e);
+            }
+            return new KeyRingStore.PublishedKey(kid, Ed25519Jwk.publicKey(jwk.getString("x")), notAfter);
+        } catch (IOException | NoSuchAlgorithmException | InvalidKeySpecException | RuntimeException e) {
+            logger.warn("Failed to fetch key {}: {}", kid, e.toString());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private void rememberUnknown(String kid) {
+        long now = System.currentTimeMillis();
+        if (unknownKids.size() >= JWKS_NEGATIVE_MAX) {
+            unknownKids.values().removeIf(until -> until <= now);
+            if (unknownKids.size() >= JWKS_NEGATIVE_MAX) {
+                unknownKids.clear();
+            }
         }
+        unknownKids.put(kid, now + JWKS_NEGATIVE_TTL_MS);
     }
 }
@@ -0,0 +1,32 @@
+package org.example.web;
+
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.ConfigProvider;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Samples high-volume informational log events of an endpoint: one event in
+ * {@code log.sample.<endpoint>.one.in} is kept, {@code 1} keeps them all and {@code 0} drops them
+ * all. Sampling uses the thread-local random generator, so it neither contends nor allocates.
+ */
+public final class LogSampler {
+    private static final Config config = ConfigProvider.getConfig();
+
+    private final int oneIn;
+
+    private LogSampler(int oneIn) {
+        this.oneIn = oneIn;
+    }
+
+    public static LogSampler forEndpoint(String endpoint) {
+        return new LogSampler(config.getOptionalValue("log.sample." + endpoint + ".one.in", Integer.class).orElse(1));
+    }
+
+    public boolean sample() {
+        if (oneIn <= 1) {
+            return oneIn == 1;
+        }
+        return ThreadLocalRandom.current().nextInt(oneIn) == 0;
+    }
+}
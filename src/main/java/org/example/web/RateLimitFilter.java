@@ -0,0 +1,101 @@
+package org.example.web;
+
+import jakarta.annotation.Priority;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.ws.rs.Priorities;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerRequestFilter;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.ext.Provider;
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.ConfigProvider;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Throttles the credential and signup endpoints per client address, per username and per tenant
+ * ({@code client_id}), before the resource method gets a chance to spend any Argon2 work.
+ */
+@RateLimited
+@Provider
+@Priority(Priorities.AUTHENTICATION - 100)
+public class RateLimitFilter implements ContainerRequestFilter {
+    private static final Config config = ConfigProvider.getConfig();
+    private static final int MAX_KEYS = config.getOptionalValue("ratelimit.max.keys", Integer.class).orElse(100_000);
+    private static final long IDLE_SECONDS = config.getOptionalValue("ratelimit.idle.seconds", Long.class).orElse(600L);
+    private static final int MAX_FORM_BYTES = 8192;
+
+    private static final TokenBucketLimiter byAddress = limiter("ratelimit.ip", 20d, 1d);
+    private static final TokenBucketLimiter byUsername = limiter("ratelimit.username", 5d, 0.1d);
+    private static final TokenBucketLimiter byTenant = limiter("ratelimit.tenant", 200d, 50d);
+
+    @Context
+    private HttpServletRequest servletRequest;
+
+    private static TokenBucketLimiter limiter(String prefix, double capacity, double refillPerSecond) {
+        return new TokenBucketLimiter(
+                config.getOptionalValue(prefix + ".capacity", Double.class).orElse(capacity),
+                config.getOptionalValue(prefix + ".refill.per.second", Double.class).orElse(refillPerSecond),
+                MAX_KEYS, IDLE_SECONDS);
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) throws IOException {
+        long retryAfter = byAddress.tryAcquire(servletRequest.getRemoteAddr());
+        if (retryAfter > 0) {
+            abortWithTooManyRequests(requestContext, retryAfter);
+            return;
+        }
+        String clientId = requestContext.getUriInfo().getQueryParameters().getFirst("client_id");
+        if (clientId != null && !clientId.isEmpty()) {
+            retryAfter = byTenant.tryAcquire(clientId);
+            if (retryAfter > 0) {
+                abortWithTooManyRequests(requestContext, retryAfter);
+                return;
+            }
+        }
+        String username = formUsername(requestContext);
+        if (username != null && !username.isEmpty()) {
+            retryAfter = byUsername.tryAcquire(username);
+            if (retryAfter > 0) {
+                abortWithTooManyRequests(requestContext, retryAfter);
+            }
+        }
+    }
+
+    /**
+     * Reads the username of a form post and puts the consumed entity back for the resource method.
+     */
+    private String formUsername(ContainerRequestContext requestContext) throws IOException {
+        if (!requestContext.hasEntity() || !MediaType.APPLICATION_FORM_URLENCODED_TYPE.isCompatible(requestContext.getMediaType())) {
+            return null;
+        }
+        InputStream entity = requestContext.getEntityStream();
+        byte[] form = entity.readNBytes(MAX_FORM_BYTES + 1);
+        if (form.length > MAX_FORM_BYTES) {
+            requestContext.abortWith(Response.status(Response.Status.REQUEST_ENTITY_TOO_LARGE).build());
+            return null;
+        }
+        requestContext.setEntityStream(new ByteArrayInputStream(form));
+        for (String pair : new String(form, StandardCharsets.US_ASCII).split("&")) {
+            if (pair.startsWith("username=")) {
+                return URLDecoder.decode(pair.substring("username=".length()), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    private void abortWithTooManyRequests(ContainerRequestContext requestContext, long retryAfter) {
+        requestContext.abortWith(
+                Response.status(Response.Status.TOO_MANY_REQUESTS)
+                        .header(HttpHeaders.RETRY_AFTER, retryAfter)
+                        .build());
+    }
+}
@@ -0,0 +1,48 @@
+package org.example.web;
+
+import jakarta.ws.rs.core.SecurityContext;
+import org.example.auth.Role;
+import org.example.auth.RoleCodec;
+
+import java.security.Principal;
+
+/**
+ * Security context of a bearer token caller, holding the caller's roles as a {@link Role} bitmask.
+ */
+public class RoleMaskSecurityContext implements SecurityContext {
+    private final Principal userPrincipal;
+    private final long roleMask;
+    private final boolean secure;
+    private final String authenticationScheme;
+
+    public RoleMaskSecurityContext(Principal userPrincipal, long roleMask, boolean secure, String authenticationScheme) {
+        this.userPrincipal = userPrincipal;
+        this.roleMask = roleMask;
+        this.secure = secure;
+        this.authenticationScheme = authenticationScheme;
+    }
+
+    public long getRoleMask() {
+        return roleMask;
+    }
+
+    @Override
+    public Principal getUserPrincipal() {
+        return userPrincipal;
+    }
+
+    @Override
+    public boolean isUserInRole(String role) {
+        return (roleMask & RoleCodec.bit(role)) != 0L;
+    }
+
+    @Override
+    public boolean isSecure() {
+        return secure;
+    }
+
+    @Override
+    public String getAuthenticationScheme() {
+        return authenticationScheme;
+    }
+}
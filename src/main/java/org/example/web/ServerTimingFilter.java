@@ -0,0 +1,83 @@
+package org.example.web;
+
+import jakarta.annotation.Priority;
+import jakarta.json.Json;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerRequestFilter;
+import jakarta.ws.rs.container.ContainerResponseContext;
+import jakarta.ws.rs.container.ContainerResponseFilter;
+import jakarta.ws.rs.container.PreMatching;
+import jakarta.ws.rs.ext.Provider;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.ConfigProvider;
+import org.example.metrics.Metrics;
+import org.example.metrics.RequestTiming;
+import org.example.metrics.Stage;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opens a {@link RequestTiming} for every request and reports it on the response as a
+ * {@code Server-Timing} header. Requests slower than {@code request.slow.threshold.ms} are also
+ * written, with their stage breakdown and image metadata, as one JSON line to the
+ * {@code slow-requests} log.
+ */
+@Provider
+@PreMatching
+@Priority(Integer.MIN_VALUE)
+public class ServerTimingFilter implements ContainerRequestFilter, ContainerResponseFilter {
+    private static final Logger slowRequests = LogManager.getLogger("slow-requests");
+    private static final Config config = ConfigProvider.getConfig();
+    private static final long SLOW_THRESHOLD_NANOS = TimeUnit.MILLISECONDS.toNanos(
+            config.getOptionalValue("request.slow.threshold.ms", Long.class).orElse(2000L));
+    private static final String SERVER_TIMING = "Server-Timing";
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+        requestContext.setProperty(RequestTiming.PROPERTY, new RequestTiming());
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+        Object property = requestContext.getProperty(RequestTiming.PROPERTY);
+        if (!(property instanceof RequestTiming)) {
+            return;
+        }
+        RequestTiming timing = (RequestTiming) property;
+        long total = timing.getElapsedNanos();
+        responseContext.getHeaders().add(SERVER_TIMING, timing.toServerTiming(total));
+        if (total >= SLOW_THRESHOLD_NANOS && slowRequests.isWarnEnabled()) {
+            slowRequests.warn(slowRequestRecord(requestContext, responseContext, timing, total));
+        }
+    }
+
+    private static String slowRequestRecord(ContainerRequestContext requestContext, ContainerResponseContext responseContext,
+                                            RequestTiming timing, long total) {
+        var stages = Json.createObjectBuilder();
+        for (Stage stage : Stage.values()) {
+            long nanos = timing.getStageNanos(stage);
+            if (nanos != 0) {
+                stages.add(stage.id(), nanos / 1e6);
+            }
+        }
+        var record = Json.createObjectBuilder()
+                .add("method", requestContext.getMethod())
+                .add("path", requestContext.getUriInfo().getPath())
+                .add("status", responseContext.getStatus())
+                .add("tenant", Metrics.tenantOrUnknown(requestContext.getProperty(Metrics.TENANT)))
+                .add("totalMs", total / 1e6)
+                .add("stagesMs", stages);
+        if (timing.getImageWidth() >= 0) {
+            record.add("imageWidth", timing.getImageWidth()).add("imageHeight", timing.getImageHeight());
+        }
+        if (timing.getImageBytes() >= 0) {
+            record.add("imageBytes", timing.getImageBytes());
+        }
+        if (timing.getPayloadBytes() >= 0) {
+            record.add("payloadBytes", timing.getPayloadBytes());
+        }
+        return record.build().toString();
+    }
+}
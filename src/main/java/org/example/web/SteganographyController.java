@@ -1,19 +1,39 @@
 package org.example.web;
 
+import org.example.metrics.Metrics;
+import org.example.metrics.RequestTiming;
+import org.example.metrics.Stage;
+import org.example.steganography.ImageHeader;
+import org.example.steganography.ImageHeaderInspector;
+import org.example.steganography.ImageMemoryBudget;
+import org.example.steganography.PayloadScanner;
+import org.example.steganography.PngBandWriter;
 import org.example.steganography.SteganographyService;
 import jakarta.inject.Inject;
+import jakarta.json.Json;
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
 import org.glassfish.jersey.media.multipart.FormDataParam;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.eclipse.microprofile.config.ConfigProvider;
+
+import static org.apache.logging.log4j.util.Unbox.box;
 
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
@@ -23,17 +43,34 @@ import javax.imageio.ImageIO;
 public class SteganographyController {
 
     private static final Logger logger = LogManager.getLogger(SteganographyController.class);
+    private static final LogSampler encodeLog = LogSampler.forEndpoint("steganography.encode");
+    private static final LogSampler decodeLog = LogSampler.forEndpoint("steganography.decode");
+    private static final LogSampler updateLog = LogSampler.forEndpoint("steganography.update");
+    private static final long MAX_PIXELS = ConfigProvider.getConfig()
+            .getOptionalValue("image.max.pixels", Long.class).orElse(50_000_000L);
 
     @Inject // Use dependency injection
     private SteganographyService steganographyService;
 
+    @Inject
+    private ImageMemoryBudget memoryBudget;
+
+    @Inject
+    private PayloadScanner payloadScanner;
+
+    private static final String APPLICATION_NDJSON = "application/x-ndjson";
+
+    // Not the servlet request, so that the resource also runs on the standalone HTTP server
+    @Context
+    private ContainerRequestContext requestContext;
+
     // Define a temporary directory for file uploads
     private static final String TEMP_DIR = System.getProperty("java.io.tmpdir") + "/steganography-uploads/";
 
     static {
         // Ensure the temporary directory exists
         new File(TEMP_DIR).mkdirs();
-        logger.info("Temporary upload directory: " + TEMP_DIR);
+        logger.info("Temporary upload directory: {}", TEMP_DIR);
     }
 
     // Test endpoint to verify the application is working
@@ -52,6 +89,7 @@ public class SteganographyController {
     public Response encode(
             @FormDataParam("image") InputStream imageStream,
             @FormDataParam("message") String message) {
+        File tempFile = null;
         try {
             // Validate inputs
             if (imageStream == null) {
@@ -65,37 +103,117 @@ public class SteganographyController {
                         .entity("No message provided").build();
             }
 
+            String tenant = Metrics.tenantOrUnknown(requestContext.getProperty(Metrics.TENANT));
+            RequestTiming timing = RequestTiming.of(requestContext.getProperty(RequestTiming.PROPERTY));
+            long t = Stage.start();
+
             // Save the uploaded image to a temporary file
             String tempFileName = TEMP_DIR + "uploaded-image-" + System.currentTimeMillis() + ".png";
-            File tempFile = new File(tempFileName);
-            Files.copy(imageStream, tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-            logger.info("Uploaded image saved to: " + tempFile.getAbsolutePath());
+            tempFile = new File(tempFileName);
+            long imageBytes = Files.copy(imageStream, tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            t = timing.record(Stage.UPLOAD_STAGING, t);
+            Metrics.IMAGE_BYTES.labels(tenant).observe(imageBytes);
+            timing.imageBytes(imageBytes);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Uploaded image saved to: {}", tempFile);
+            }
 
-            // Read the image from the temporary file
-            BufferedImage image = ImageIO.read(tempFile);
-            if (image == null) {
-                logger.error("Invalid image file provided.");
+            // Size the raster from the header before decoding anything
+            return embed(tempFile, inspect(tempFile), imageBytes, message, tenant, timing, t);
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+        } catch (IOException e) {
+            logger.error("Error processing image: ", e);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                    .entity("Error processing image: " + e.getMessage()).build();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return overBudget();
+        } finally {
+            deleteTempFile(tempFile);
+        }
+    }
+
+    /**
+     * Replaces the message of an image. A PNG returned by {@code /encode} or {@code /update} is
+     * updated without being decoded, rewriting only the rows whose bits change; any other image
+     * is decoded and encoded again as by {@code /encode}.
+     */
+    @POST
+    @Path("/update")
+    @Consumes(MediaType.MULTIPART_FORM_DATA)
+    @Produces("image/png")
+    public Response update(
+            @FormDataParam("encodedImage") InputStream encodedImageStream,
+            @FormDataParam("message") String message) {
+        File tempFile = null;
+        try {
+            // Validate inputs
+            if (encodedImageStream == null) {
+                logger.error("No encoded image file provided.");
                 return Response.status(Response.Status.BAD_REQUEST)
-                        .entity("Invalid image file").build();
+                        .entity("No encoded image file provided").build();
+            }
+            if (message == null || message.trim().isEmpty()) {
+                logger.error("No message provided.");
+                return Response.status(Response.Status.BAD_REQUEST)
+                        .entity("No message provided").build();
             }
 
-            // Encode the message into the image
-            BufferedImage encodedImage = steganographyService.encodeMessage(image, message);
+            String tenant = Metrics.tenantOrUnknown(requestContext.getProperty(Metrics.TENANT));
+            RequestTiming timing = RequestTiming.of(requestContext.getProperty(RequestTiming.PROPERTY));
+            long t = Stage.start();
 
-            // Convert the encoded image to a byte array
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            ImageIO.write(encodedImage, "png", outputStream);
+            // Save the uploaded image to a temporary file
+            String tempFileName = TEMP_DIR + "encoded-image-" + System.currentTimeMillis() + ".png";
+            tempFile = new File(tempFileName);
+            long imageBytes = Files.copy(encodedImageStream, tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            t = timing.record(Stage.UPLOAD_STAGING, t);
+            Metrics.IMAGE_BYTES.labels(tenant).observe(imageBytes);
+            timing.imageBytes(imageBytes);
 
-            // Delete the temporary file
-            tempFile.delete();
-            logger.info("Temporary file deleted: " + tempFile.getAbsolutePath());
+            ImageHeader header = inspect(tempFile);
+            if (header != null && "png".equals(header.format()) && header.pixels() <= MAX_PIXELS) {
+                // The file, its rewrite and one band of rows are held, never the raster
+                long updateBytes = 2 * imageBytes + PngBandWriter.updateBytes(header.width(), header.height());
+                try (ImageMemoryBudget.Reservation reservation = memoryBudget.reserve(updateBytes)) {
+                    if (reservation == null) {
+                        Stage.IMAGE_ADMISSION.failed();
+                        return overBudget();
+                    }
+                    byte[] png = Files.readAllBytes(tempFile.toPath());
+                    t = timing.record(Stage.IMAGE_ADMISSION, t);
 
-            // Return the encoded image as a response
-            return Response.ok(outputStream.toByteArray()).build();
+                    byte[] payload = steganographyService.preparePayload(message);
+                    PngBandWriter.Update update = steganographyService.updatePng(png, header, payload);
+                    if (update != null) {
+                        timing.record(Stage.EMBED, t);
+                        Metrics.IMAGE_PIXELS.labels(tenant).observe((double) header.pixels());
+                        timing.image(header.width(), header.height(), imageBytes);
+                        Metrics.PAYLOAD_BYTES.labels(tenant).observe(payload.length);
+                        timing.payloadBytes(payload.length);
+                        if (updateLog.sample() && logger.isInfoEnabled()) {
+                            logger.info("Updated {} characters in a {}x{} image of {} bytes, {} pixels changed",
+                                    box(message.length()), box(header.width()), box(header.height()),
+                                    box(imageBytes), box(update.getChangedPixels()));
+                        }
+                        return Response.ok(update.getPng()).build();
+                    }
+                }
+            }
+            // Not written by this service, decode and encode it again
+            return embed(tempFile, header, imageBytes, message, tenant, timing, t);
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
         } catch (IOException e) {
             logger.error("Error processing image: ", e);
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
                     .entity("Error processing image: " + e.getMessage()).build();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return overBudget();
+        } finally {
+            deleteTempFile(tempFile);
         }
     }
 
@@ -104,6 +222,7 @@ public class SteganographyController {
     @Consumes(MediaType.MULTIPART_FORM_DATA)
     @Produces(MediaType.TEXT_PLAIN)
     public Response decode(@FormDataParam("encodedImage") InputStream encodedImageStream) {
+        File tempFile = null;
         try {
             // Validate input
             if (encodedImageStream == null) {
@@ -112,33 +231,205 @@ public class SteganographyController {
                         .entity("No encoded image file provided").build();
             }
 
+            String tenant = Metrics.tenantOrUnknown(requestContext.getProperty(Metrics.TENANT));
+            RequestTiming timing = RequestTiming.of(requestContext.getProperty(RequestTiming.PROPERTY));
+            long t = Stage.start();
+
             // Save the uploaded image to a temporary file
             String tempFileName = TEMP_DIR + "encoded-image-" + System.currentTimeMillis() + ".png";
-            File tempFile = new File(tempFileName);
-            Files.copy(encodedImageStream, tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-            logger.info("Encoded image saved to: " + tempFile.getAbsolutePath());
-
-            // Read the encoded image from the temporary file
-            BufferedImage encodedImage = ImageIO.read(tempFile);
-            if (encodedImage == null) {
-                logger.error("Invalid encoded image file provided.");
-                return Response.status(Response.Status.BAD_REQUEST)
-                        .entity("Invalid encoded image file").build();
+            tempFile = new File(tempFileName);
+            long imageBytes = Files.copy(encodedImageStream, tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            t = timing.record(Stage.UPLOAD_STAGING, t);
+            Metrics.IMAGE_BYTES.labels(tenant).observe(imageBytes);
+            timing.imageBytes(imageBytes);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Encoded image saved to: {}", tempFile);
             }
 
-            // Decode the message from the image
-            String message = steganographyService.decodeMessage(encodedImage);
+            // Size the raster from the header before decoding anything
+            ImageHeader header = inspect(tempFile);
+            Response rejected = admit(header);
+            if (rejected != null) {
+                Stage.IMAGE_ADMISSION.failed();
+                return rejected;
+            }
+            try (ImageMemoryBudget.Reservation reservation = memoryBudget.reserve(header.rasterBytes())) {
+                if (reservation == null) {
+                    Stage.IMAGE_ADMISSION.failed();
+                    return overBudget();
+                }
+                t = timing.record(Stage.IMAGE_ADMISSION, t);
 
-            // Delete the temporary file
-            tempFile.delete();
-            logger.info("Temporary file deleted: " + tempFile.getAbsolutePath());
+                // Read the encoded image from the temporary file
+                BufferedImage encodedImage = ImageIO.read(tempFile);
+                if (encodedImage == null) {
+                    Stage.IMAGE_DECODE.failed();
+                    logger.error("Invalid encoded image file provided.");
+                    return Response.status(Response.Status.BAD_REQUEST)
+                            .entity("Invalid encoded image file").build();
+                }
+                t = timing.record(Stage.IMAGE_DECODE, t);
+                Metrics.IMAGE_PIXELS.labels(tenant).observe((double) encodedImage.getWidth() * encodedImage.getHeight());
+                timing.image(encodedImage.getWidth(), encodedImage.getHeight(), imageBytes);
 
-            // Return the decoded message as a response
-            return Response.ok(message).build();
+                // Decode the message from the image
+                String message = steganographyService.decodeMessage(encodedImage);
+                timing.record(Stage.EXTRACT, t);
+                Metrics.PAYLOAD_BYTES.labels(tenant).observe(message.length());
+                timing.payloadBytes(message.length());
+                if (decodeLog.sample() && logger.isInfoEnabled()) {
+                    logger.info("Decoded {} characters from a {}x{} image of {} bytes",
+                            box(message.length()), box(encodedImage.getWidth()), box(encodedImage.getHeight()), box(imageBytes));
+                }
+
+                // Return the decoded message as a response
+                return Response.ok(message).build();
+            }
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
         } catch (IOException e) {
             logger.error("Error decoding image: ", e);
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
                     .entity("Error decoding image: " + e.getMessage()).build();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return overBudget();
+        } finally {
+            deleteTempFile(tempFile);
+        }
+    }
+
+    /**
+     * Reports, for every image of a ZIP, tar or gzipped tar archive, whether it holds a payload,
+     * one JSON object per line while the archive is read.
+     */
+    @POST
+    @Path("/scan")
+    @Consumes({"application/zip", "application/x-tar", "application/gzip", MediaType.APPLICATION_OCTET_STREAM})
+    @Produces(APPLICATION_NDJSON)
+    public Response scan(InputStream archive) {
+        StreamingOutput stream = output -> {
+            Writer writer = new OutputStreamWriter(output, StandardCharsets.UTF_8);
+            try {
+                payloadScanner.scan(archive, line -> {
+                    try {
+                        writer.write(line.toString());
+                        writer.write('\n');
+                        writer.flush();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (IllegalArgumentException | IOException | UncheckedIOException e) {
+                // The status is already sent, report the failure, such as a truncated or corrupt
+                // archive, as the last line; it cannot be written if the client is gone
+                logger.warn("Archive scan failed: {}", e.toString());
+                try {
+                    writer.write(Json.createObjectBuilder().add("status", "failed").add("reason", String.valueOf(e.getMessage())).build().toString());
+                    writer.write('\n');
+                    writer.flush();
+                } catch (IOException ignored) {
+                    // Nothing left to report to
+                }
+            }
+        };
+        return Response.ok(stream, MediaType.valueOf(APPLICATION_NDJSON)).build();
+    }
+
+    /**
+     * Decodes a staged image, embeds the message and writes the image back as a PNG.
+     *
+     * @param header the header of the staged image, {@code null} if unsupported
+     */
+    private Response embed(File imageFile, ImageHeader header, long imageBytes, String message, String tenant,
+                           RequestTiming timing, long t) throws IOException, InterruptedException {
+        Response rejected = admit(header);
+        byte[] payload = steganographyService.preparePayload(message);
+        if (rejected == null && payload.length > SteganographyService.capacity(header.width(), header.height())) {
+            rejected = Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Message too long for a " + header.width() + "x" + header.height() + " image").build();
+        }
+        if (rejected != null) {
+            Stage.IMAGE_ADMISSION.failed();
+            return rejected;
+        }
+        try (ImageMemoryBudget.Reservation reservation = memoryBudget.reserve(header.rasterBytes())) {
+            if (reservation == null) {
+                Stage.IMAGE_ADMISSION.failed();
+                return overBudget();
+            }
+            t = timing.record(Stage.IMAGE_ADMISSION, t);
+
+            // Read the image from the temporary file
+            BufferedImage image = ImageIO.read(imageFile);
+            if (image == null) {
+                Stage.IMAGE_DECODE.failed();
+                logger.error("Invalid image file provided.");
+                return Response.status(Response.Status.BAD_REQUEST)
+                        .entity("Invalid image file").build();
+            }
+            t = timing.record(Stage.IMAGE_DECODE, t);
+            Metrics.IMAGE_PIXELS.labels(tenant).observe((double) image.getWidth() * image.getHeight());
+            timing.image(image.getWidth(), image.getHeight(), imageBytes);
+
+            // Encode the message into the image
+            BufferedImage encodedImage = steganographyService.encodePayload(image, payload);
+            t = timing.record(Stage.EMBED, t);
+            Metrics.PAYLOAD_BYTES.labels(tenant).observe(payload.length);
+            timing.payloadBytes(payload.length);
+
+            // Convert the encoded image to a byte array
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            steganographyService.writePng(encodedImage, outputStream);
+            timing.record(Stage.PNG_ENCODE, t);
+            if (encodeLog.sample() && logger.isInfoEnabled()) {
+                logger.info("Encoded {} characters into a {}x{} image of {} bytes",
+                        box(message.length()), box(image.getWidth()), box(image.getHeight()), box(imageBytes));
+            }
+
+            // Return the encoded image as a response
+            return Response.ok(outputStream.toByteArray()).build();
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if the header is truncated or malformed
+     */
+    private static ImageHeader inspect(File imageFile) {
+        try {
+            return ImageHeaderInspector.inspect(imageFile.toPath());
+        } catch (IOException e) {
+            Stage.IMAGE_ADMISSION.failed();
+            throw new IllegalArgumentException("Invalid image file: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return the rejection of an image that must not be decoded, or {@code null} to admit it
+     */
+    private Response admit(ImageHeader header) {
+        if (header == null) {
+            return Response.status(Response.Status.UNSUPPORTED_MEDIA_TYPE)
+                    .entity("Only PNG, JPEG, BMP and GIF images are supported").build();
+        }
+        if (header.pixels() > MAX_PIXELS || !memoryBudget.fits(header.rasterBytes())) {
+            logger.warn("Rejected a {}x{} {} image of {} decoded bytes", box(header.width()), box(header.height()),
+                    header.format(), box(header.rasterBytes()));
+            return Response.status(Response.Status.REQUEST_ENTITY_TOO_LARGE)
+                    .entity("Image of " + header.width() + "x" + header.height() + " pixels is too large").build();
+        }
+        return null;
+    }
+
+    private static Response overBudget() {
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, 1)
+                .entity("Too many images being processed, retry later").build();
+    }
+
+    private static void deleteTempFile(File tempFile) {
+        if (tempFile != null && tempFile.delete() && logger.isDebugEnabled()) {
+            logger.debug("Temporary file deleted: {}", tempFile);
         }
     }
-}
\ No newline at end of file
+}
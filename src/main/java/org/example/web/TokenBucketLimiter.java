@@ -0,0 +1,127 @@
+package org.example.web;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token buckets keyed by an arbitrary string, such as a client address or a username.
+ * Each key costs one small fixed-size bucket; buckets are updated under one of a fixed set of
+ * striped locks and idle buckets are evicted in the background, so a check is O(1) and memory
+ * is bounded by {@code maxKeys}.
+ * <p>
+ * When the map is full, buckets that have refilled are dropped first: such a bucket is the same as
+ * a new one, so nothing is lost. If every tracked key is still draining, as when an attacker
+ * rotates through source addresses, a new key is let through untracked instead of being locked
+ * out. Untracked keys are limited together, as {@value #UNTRACKED_KEYS} keys would be.
+ */
+public class TokenBucketLimiter {
+    private static final int STRIPES = 64;
+    private static final int UNTRACKED_KEYS = 64;
+    private static final long RECLAIM_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "rate-limit-evictor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final Object[] locks = new Object[STRIPES];
+    private final double capacity;
+    private final double refillPerNano;
+    private final int maxKeys;
+    private final long idleNanos;
+    // Every key that arrives while the map is full of draining buckets
+    private final Bucket untracked;
+    private final double untrackedCapacity;
+    private final AtomicLong nextReclaim = new AtomicLong(System.nanoTime());
+
+    /**
+     * @param capacity the burst size of a key
+     * @param refillPerSecond the sustained rate of a key
+     * @param maxKeys the maximum number of tracked keys
+     * @param idleSeconds the inactivity after which a key is forgotten
+     */
+    public TokenBucketLimiter(double capacity, double refillPerSecond, int maxKeys, long idleSeconds) {
+        this.capacity = capacity;
+        this.refillPerNano = refillPerSecond / 1_000_000_000d;
+        this.maxKeys = maxKeys;
+        this.idleNanos = TimeUnit.SECONDS.toNanos(idleSeconds);
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+        this.untrackedCapacity = capacity * UNTRACKED_KEYS;
+        this.untracked = new Bucket(untrackedCapacity, System.nanoTime());
+        long period = Math.max(1L, idleSeconds / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Takes one token for the key.
+     *
+     * @return {@code 0} when the request is allowed, otherwise the seconds until a token is available
+     */
+    public long tryAcquire(String key) {
+        long now = System.nanoTime();
+        Bucket bucket = buckets.get(key);
+        if (bucket == null && buckets.size() >= maxKeys) {
+            reclaim(now);
+        }
+        if (bucket == null && buckets.size() >= maxKeys) {
+            synchronized (untracked) {
+                return take(untracked, untrackedCapacity, UNTRACKED_KEYS * refillPerNano, now);
+            }
+        }
+        if (bucket == null) {
+            bucket = buckets.computeIfAbsent(key, k -> new Bucket(capacity, now));
+        }
+        synchronized (locks[(key.hashCode() & 0x7fffffff) % STRIPES]) {
+            return take(bucket, capacity, refillPerNano, now);
+        }
+    }
+
+    private static long take(Bucket bucket, double capacity, double refillPerNano, long now) {
+        double tokens = Math.min(capacity, bucket.tokens + (now - bucket.lastRefill) * refillPerNano);
+        bucket.lastRefill = now;
+        if (tokens >= 1d) {
+            bucket.tokens = tokens - 1d;
+            return 0L;
+        }
+        bucket.tokens = tokens;
+        return Math.max(1L, (long) Math.ceil((1d - tokens) / refillPerNano / 1_000_000_000d));
+    }
+
+    public int size() {
+        return buckets.size();
+    }
+
+    /**
+     * Drops the buckets that have refilled, at most every 100 ms so that a full map does not cost a
+     * scan per request.
+     */
+    private void reclaim(long now) {
+        long next = nextReclaim.get();
+        if (now - next < 0 || !nextReclaim.compareAndSet(next, now + RECLAIM_INTERVAL_NANOS)) {
+            return;
+        }
+        buckets.values().removeIf(bucket -> bucket.tokens + (now - bucket.lastRefill) * refillPerNano >= capacity);
+    }
+
+    private void evictIdle() {
+        long now = System.nanoTime();
+        buckets.values().removeIf(bucket -> now - bucket.lastRefill > idleNanos);
+    }
+
+    private static final class Bucket {
+        double tokens;
+        long lastRefill;
+
+        Bucket(double tokens, long lastRefill) {
+            this.tokens = tokens;
+            this.lastRefill = lastRefill;
+        }
+    }
+}
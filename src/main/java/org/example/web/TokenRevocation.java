@@ -0,0 +1,46 @@
+package org.example.web;
+
+import jakarta.annotation.security.RolesAllowed;
+import jakarta.ejb.EJB;
+import jakarta.json.Json;
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.FormParam;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+/**
+ * Revokes issued tokens before their expiry, one token by {@code jti} or every token of a subject.
+ * Restricted to the {@code admin} role, which must be one of the configured {@code roles} or be
+ * mapped onto one with {@code roles.alias.admin}.
+ */
+@Path("/tokens/revocations")
+@Secured
+@RolesAllowed("admin")
+public class TokenRevocation {
+
+    @EJB
+    JwtManagerVerifier jwtManagerVerifier;
+
+    @POST
+    @Consumes(MediaType.APPLICATION_FORM_URLENCODED)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response revoke(@FormParam("jti") String jti, @FormParam("sub") String subject) {
+        if ((jti == null || jti.isEmpty()) && (subject == null || subject.isEmpty())) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity(Json.createObjectBuilder().add("error", "jti or sub is required").build())
+                    .build();
+        }
+        if (jti != null && !jti.isEmpty()) {
+            jwtManagerVerifier.revokeToken(jti);
+        }
+        if (subject != null && !subject.isEmpty()) {
+            jwtManagerVerifier.revokeSubject(subject);
+        }
+        return Response.ok(Json.createObjectBuilder()
+                .add("revocations", jwtManagerVerifier.getRevocationCount())
+                .build()).build();
+    }
+}
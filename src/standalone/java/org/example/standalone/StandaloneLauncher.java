@@ -0,0 +1,135 @@
+package org.example.standalone;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.ConfigProvider;
+import org.example.metrics.Gauge;
+import org.example.metrics.Metrics;
+import org.example.metrics.MetricsEndpoint;
+import org.example.steganography.ImageMemoryBudget;
+import org.example.steganography.PayloadScanner;
+import org.example.steganography.SteganographyService;
+import org.example.web.ServerTimingFilter;
+import org.example.web.SteganographyApplication;
+import org.example.web.SteganographyController;
+import org.glassfish.hk2.utilities.binding.AbstractBinder;
+import org.glassfish.jersey.jdkhttp.JdkHttpServerFactory;
+import org.glassfish.jersey.media.multipart.MultiPartFeature;
+import org.glassfish.jersey.server.ResourceConfig;
+
+import jakarta.inject.Singleton;
+import jakarta.ws.rs.ApplicationPath;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the steganography resources on the JDK HTTP server, without a Jakarta EE container:
+ * {@code java -jar projectAppSec-standalone.jar}. The resources are registered explicitly and
+ * {@link SteganographyService} is bound through HK2, so startup does no classpath scanning and no
+ * CDI or EJB bootstrap. The identity and token resources depend on EJB singletons, CDI observers,
+ * managed executors and the Jakarta NoSQL store, and are only served by the WAR deployment.
+ * <p>
+ * {@code server.workers} selects the worker model: {@code virtual} runs every exchange on its own
+ * virtual thread (Java 21 and later, platform threads otherwise), a number runs them on a fixed
+ * pool of that many platform threads. The time from JVM start and from {@code main} to the first
+ * accepted connection is logged and exposed as the {@code startup_seconds} gauge.
+ */
+public final class StandaloneLauncher {
+    private static final Logger logger = LogManager.getLogger(StandaloneLauncher.class);
+    private static final Gauge STARTUP_SECONDS = Metrics.gauge("startup_seconds",
+            "Time from JVM start until the server accepted connections.", "mode").labels("standalone");
+
+    private StandaloneLauncher() {
+    }
+
+    public static void main(String[] args) {
+        long mainStart = System.nanoTime();
+        Config config = ConfigProvider.getConfig();
+        String host = config.getOptionalValue("server.host", String.class).orElse("0.0.0.0");
+        int port = config.getOptionalValue("server.port", Integer.class).orElse(8080);
+        String workers = config.getOptionalValue("server.workers", String.class).orElse("virtual");
+        long stopSeconds = config.getOptionalValue("server.shutdown.timeout.seconds", Long.class).orElse(10L);
+
+        String basePath = SteganographyApplication.class.getAnnotation(ApplicationPath.class).value();
+        URI baseUri = URI.create("http://" + host + ":" + port + basePath + "/");
+
+        ResourceConfig resources = new ResourceConfig()
+                .register(SteganographyController.class)
+                .register(MetricsEndpoint.class)
+                .register(ServerTimingFilter.class)
+                .register(MultiPartFeature.class)
+                .register(new AbstractBinder() {
+                    @Override
+                    protected void configure() {
+                        bind(SteganographyService.class).to(SteganographyService.class).in(Singleton.class);
+                        bind(ImageMemoryBudget.class).to(ImageMemoryBudget.class).in(Singleton.class);
+                        bind(PayloadScanner.class).to(PayloadScanner.class).in(Singleton.class);
+                    }
+                });
+
+        ExecutorService executor = workerExecutor(workers);
+        HttpServer server = JdkHttpServerFactory.createHttpServer(baseUri, resources, false);
+        server.setExecutor(executor);
+        server.start();
+
+        long sinceMain = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - mainStart);
+        long sinceJvmStart = ManagementFactory.getRuntimeMXBean().getUptime();
+        STARTUP_SECONDS.set(() -> sinceJvmStart / 1e3);
+        logger.info("Serving {} with {} workers, started in {} ms ({} ms since JVM start)",
+                baseUri, workers, sinceMain, sinceJvmStart);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            logger.info("Stopping {}", baseUri);
+            server.stop((int) stopSeconds);
+            executor.shutdown();
+            try {
+                executor.awaitTermination(stopSeconds, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "standalone-shutdown"));
+    }
+
+    /**
+     * @param workers {@code virtual}, or the size of a fixed pool of platform threads
+     */
+    static ExecutorService workerExecutor(String workers) {
+        if ("virtual".equalsIgnoreCase(workers)) {
+            try {
+                // Looked up reflectively, the build targets Java 17
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                int threads = Runtime.getRuntime().availableProcessors() * 4;
+                logger.warn("Virtual threads are not available on Java {}, using {} platform threads",
+                        System.getProperty("java.specification.version"), threads);
+                return Executors.newFixedThreadPool(threads, threadFactory());
+            }
+        }
+        int threads;
+        try {
+            threads = Integer.parseInt(workers.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("server.workers must be 'virtual' or a thread count: " + workers, e);
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("server.workers must be at least 1: " + threads);
+        }
+        return Executors.newFixedThreadPool(threads, threadFactory());
+    }
+
+    private static ThreadFactory threadFactory() {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "http-worker-" + count.incrementAndGet());
+            thread.setDaemon(false);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,126 @@
+package org.example.auth;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.KeyPairGenerator;
+import java.time.Instant;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Nodes sharing a key ring directory, each node a separate JVM as in a deployment on one box.
+ */
+class FileKeyRingStoreTest {
+    private static final String SECRET = "key-ring-test-secret";
+
+    @TempDir
+    Path directory;
+
+    private FileKeyRingStore store;
+
+    @BeforeEach
+    void setUp() {
+        store = new FileKeyRingStore(directory, SECRET, Executors.defaultThreadFactory());
+    }
+
+    @AfterEach
+    void tearDown() {
+        store.close();
+    }
+
+    @Test
+    void keyPublishedByAnotherJvmIsWatchedAndLoaded() throws Exception {
+        BlockingQueue<KeyRingStore.PublishedKey> watched = new LinkedBlockingQueue<>();
+        store.watch(watched::add);
+
+        long notAfter = Instant.now().getEpochSecond() + 3600;
+        assertEquals(0, publishFromOtherJvm("node-b-1", SECRET, notAfter));
+
+        var key = watched.poll(30, TimeUnit.SECONDS);
+        assertNotNull(key, "key published by the other JVM was not watched");
+        assertEquals("node-b-1", key.getKid());
+        assertEquals(notAfter, key.getNotAfter());
+        assertTrue(store.load().stream().anyMatch(loaded -> loaded.getKid().equals("node-b-1")));
+    }
+
+    @Test
+    void everyNodeSeesTheKeysOfTheOthers() throws Exception {
+        long notAfter = Instant.now().getEpochSecond() + 3600;
+        store.publish("node-a-1", KeyPairGenerator.getInstance("Ed25519").generateKeyPair().getPublic(), notAfter);
+        assertEquals(0, publishFromOtherJvm("node-b-1", SECRET, notAfter));
+        assertEquals(0, publishFromOtherJvm("node-c-1", SECRET, notAfter));
+
+        var other = new FileKeyRingStore(directory, SECRET, Executors.defaultThreadFactory());
+        assertEquals(3, other.load().size());
+        assertEquals(3, store.load().size());
+    }
+
+    @Test
+    void keyPublishedWithAnotherSecretIsRejected() throws Exception {
+        BlockingQueue<KeyRingStore.PublishedKey> watched = new LinkedBlockingQueue<>();
+        store.watch(watched::add);
+
+        long notAfter = Instant.now().getEpochSecond() + 3600;
+        assertEquals(0, publishFromOtherJvm("forged-1", "another-secret", notAfter));
+        assertEquals(0, publishFromOtherJvm("node-b-1", SECRET, notAfter));
+
+        // Events arrive in order, the forged key would come first
+        var key = watched.poll(30, TimeUnit.SECONDS);
+        assertNotNull(key);
+        assertEquals("node-b-1", key.getKid());
+        assertTrue(store.load().stream().noneMatch(loaded -> loaded.getKid().equals("forged-1")));
+    }
+
+    @Test
+    void expiredKeyIsNotLoaded() throws Exception {
+        store.publish("expired-1", KeyPairGenerator.getInstance("Ed25519").generateKeyPair().getPublic(),
+                Instant.now().getEpochSecond() - 1);
+        assertTrue(store.load().isEmpty());
+    }
+
+    @Test
+    void closedStoreStopsWatching() throws Exception {
+        BlockingQueue<KeyRingStore.PublishedKey> watched = new LinkedBlockingQueue<>();
+        store.watch(watched::add);
+        store.close();
+
+        assertEquals(0, publishFromOtherJvm("node-b-1", SECRET, Instant.now().getEpochSecond() + 3600));
+        assertNull(watched.poll(2, TimeUnit.SECONDS));
+    }
+
+    private int publishFromOtherJvm(String kid, String secret, long notAfter) throws Exception {
+        var java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        var process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                Node.class.getName(), directory.toString(), secret, kid, Long.toString(notAfter))
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.appendTo(new File(directory.toFile(), "node.log")))
+                .start();
+        assertTrue(process.waitFor(60, TimeUnit.SECONDS), "node JVM did not exit");
+        return process.exitValue();
+    }
+
+    /**
+     * Another node: publishes one key to the shared directory and exits.
+     */
+    static final class Node {
+        public static void main(String[] args) throws Exception {
+            var store = new FileKeyRingStore(Paths.get(args[0]), args[1], Executors.defaultThreadFactory());
+            var publicKey = KeyPairGenerator.getInstance("Ed25519").generateKeyPair().getPublic();
+            store.publish(args[2], publicKey, Long.parseLong(args[3]));
+            store.close();
+        }
+    }
+}
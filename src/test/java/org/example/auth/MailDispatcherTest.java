@@ -0,0 +1,225 @@
+package org.example.auth;
+
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Delivery through an in-process SMTP stub: batching over one connection, retries with backoff,
+ * and connections closed when idle and opened again on demand.
+ */
+class MailDispatcherTest {
+    private SmtpStub smtp;
+    private Session session;
+    private MailDispatcher dispatcher;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        smtp = new SmtpStub();
+        Properties properties = new Properties();
+        properties.put("mail.smtp.host", "127.0.0.1");
+        properties.put("mail.smtp.port", String.valueOf(smtp.port()));
+        properties.put("mail.smtp.connectiontimeout", "5000");
+        properties.put("mail.smtp.timeout", "5000");
+        session = Session.getInstance(properties);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (dispatcher != null) {
+            dispatcher.shutdown(5000L);
+        }
+        smtp.close();
+    }
+
+    @Test
+    void burstIsSentInBatchesOverOneConnection() throws Exception {
+        dispatcher = dispatcher(1, 100, 10, 3, 50L, 30_000L);
+        for (int i = 0; i < 50; i++) {
+            assertTrue(dispatcher.dispatch(message(i)));
+        }
+        await(() -> dispatcher.getSentCount() == 50);
+        assertEquals(50, smtp.delivered.get());
+        assertEquals(1, smtp.connections.get());
+        assertEquals(0, dispatcher.getQueueDepth());
+        assertTrue(dispatcher.getMeanLatencyNanos() > 0);
+    }
+
+    @Test
+    void failedMessageIsRetriedWithBackoff() throws Exception {
+        smtp.failures.set(2);
+        dispatcher = dispatcher(1, 100, 10, 5, 100L, 30_000L);
+        long start = System.nanoTime();
+        assertTrue(dispatcher.dispatch(message(0)));
+        await(() -> dispatcher.getSentCount() == 1);
+        // 100 ms before the first retry, 200 ms before the second
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 300);
+        assertEquals(2, dispatcher.getRetriedCount());
+        assertEquals(0, dispatcher.getFailedCount());
+        assertEquals(1, smtp.delivered.get());
+        // A failed send drops the connection, the retry opens a new one
+        assertEquals(3, smtp.connections.get());
+    }
+
+    @Test
+    void messageIsDroppedAfterMaxAttempts() throws Exception {
+        smtp.failures.set(Integer.MAX_VALUE);
+        dispatcher = dispatcher(1, 100, 10, 3, 20L, 30_000L);
+        assertTrue(dispatcher.dispatch(message(0)));
+        await(() -> dispatcher.getFailedCount() == 1);
+        assertEquals(2, dispatcher.getRetriedCount());
+        assertEquals(0, dispatcher.getSentCount());
+        assertEquals(0, smtp.delivered.get());
+    }
+
+    @Test
+    void idleConnectionIsClosedAndReopened() throws Exception {
+        dispatcher = dispatcher(1, 100, 10, 3, 50L, 200L);
+        assertTrue(dispatcher.dispatch(message(0)));
+        await(() -> dispatcher.getSentCount() == 1);
+        await(() -> smtp.closed.get() == 1);
+        assertTrue(dispatcher.dispatch(message(1)));
+        await(() -> dispatcher.getSentCount() == 2);
+        assertEquals(2, smtp.connections.get());
+    }
+
+    @Test
+    void fullQueueRejects() throws Exception {
+        dispatcher = dispatcher(0, 2, 10, 3, 50L, 30_000L);
+        assertTrue(dispatcher.dispatch(message(0)));
+        assertTrue(dispatcher.dispatch(message(1)));
+        assertFalse(dispatcher.dispatch(message(2)));
+        assertEquals(1, dispatcher.getRejectedCount());
+    }
+
+    private MailDispatcher dispatcher(int connections, int queueCapacity, int batchSize, int maxAttempts,
+                                      long initialBackoffMillis, long idleMillis) {
+        return new MailDispatcher(session, null, null, connections, queueCapacity, batchSize, maxAttempts,
+                initialBackoffMillis, idleMillis, Executors.defaultThreadFactory());
+    }
+
+    private Message message(int i) throws MessagingException {
+        Message message = new MimeMessage(session);
+        message.setFrom(new InternetAddress("noreply@example.org"));
+        message.setRecipients(Message.RecipientType.TO, InternetAddress.parse("user" + i + "@example.org"));
+        message.setSubject("Activate your account");
+        message.setText("Your activation code is " + i);
+        message.saveChanges();
+        return message;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "condition not met in time");
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Minimal SMTP server: accepts every envelope, and rejects the data of the next
+     * {@code failures} messages with a transient error.
+     */
+    private static final class SmtpStub implements AutoCloseable {
+        final AtomicInteger connections = new AtomicInteger();
+        final AtomicInteger closed = new AtomicInteger();
+        final AtomicInteger delivered = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        private final ServerSocket server;
+
+        SmtpStub() throws IOException {
+            server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            Thread acceptor = new Thread(this::accept, "smtp-stub");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        int port() {
+            return server.getLocalPort();
+        }
+
+        private void accept() {
+            while (!server.isClosed()) {
+                try {
+                    Socket socket = server.accept();
+                    connections.incrementAndGet();
+                    Thread session = new Thread(() -> serve(socket), "smtp-stub-session");
+                    session.setDaemon(true);
+                    session.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        private void serve(Socket socket) {
+            try (socket;
+                 BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+                 Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII)) {
+                reply(out, "220 localhost ESMTP stub");
+                for (String line; (line = in.readLine()) != null; ) {
+                    String command = line.length() < 4 ? line.toUpperCase() : line.substring(0, 4).toUpperCase();
+                    switch (command) {
+                        case "EHLO", "HELO" -> reply(out, "250 localhost");
+                        case "DATA" -> {
+                            reply(out, "354 End data with <CR><LF>.<CR><LF>");
+                            for (String data; (data = in.readLine()) != null && !data.equals("."); ) {
+                                // Discarded
+                            }
+                            if (failures.getAndUpdate(left -> left > 0 ? left - 1 : 0) > 0) {
+                                reply(out, "451 Try again later");
+                            } else {
+                                delivered.incrementAndGet();
+                                reply(out, "250 OK");
+                            }
+                        }
+                        case "QUIT" -> {
+                            reply(out, "221 Bye");
+                            return;
+                        }
+                        default -> reply(out, "250 OK");
+                    }
+                }
+            } catch (IOException e) {
+                // Connection dropped by the client
+            } finally {
+                closed.incrementAndGet();
+            }
+        }
+
+        private static void reply(Writer out, String line) throws IOException {
+            out.write(line);
+            out.write("\r\n");
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package org.example.steganography;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Banded PNGs written, updated in place and read back by ImageIO, and updates refused on files
+ * whose structure or index does not match what was written.
+ */
+class PngBandWriterTest {
+    private static final int WIDTH = 97;
+    private static final int HEIGHT = 61;
+    private static final int BAND_ROWS = 8;
+
+    @Test
+    void updatedImageDecodesWithThePayloadInTheBlueChannel() throws Exception {
+        for (int type : new int[]{BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB}) {
+            BufferedImage image = noise(type, 1);
+            byte[] png = write(image);
+            // 8 rows of 97 pixels hold 97 bytes, the message spans three bands
+            byte[] payload = "A message spanning more than one band of rows. ".repeat(5).getBytes(StandardCharsets.UTF_8);
+
+            PngBandWriter.Update update = PngBandWriter.update(png, header(image), payload);
+            assertNotNull(update);
+            assertTrue(update.getRewrittenBands() > 1);
+            assertEquals(inflatedLength(png), inflatedLength(update.getPng()));
+
+            BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(update.getPng()));
+            long bits = payload.length * 8L;
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    long index = (long) y * WIDTH + x;
+                    int expected = image.getRGB(x, y);
+                    if (index < bits) {
+                        int bit = (payload[(int) (index >>> 3)] >> (7 - (int) (index & 7))) & 1;
+                        expected = (expected & ~1) | bit;
+                    }
+                    assertEquals(expected, decoded.getRGB(x, y), "pixel " + x + "," + y);
+                }
+            }
+        }
+    }
+
+    @Test
+    void unchangedBitsKeepTheFile() throws Exception {
+        BufferedImage image = noise(BufferedImage.TYPE_INT_RGB, 2);
+        byte[] png = write(image);
+        PngBandWriter.Update first = PngBandWriter.update(png, header(image), new byte[]{0x5a, 0x3c});
+        PngBandWriter.Update second = PngBandWriter.update(first.getPng(), header(image), new byte[]{0x5a, 0x3c});
+        assertEquals(0, second.getChangedPixels());
+        assertSame(first.getPng(), second.getPng());
+    }
+
+    @Test
+    void payloadLargerThanTheImageIsRejected() throws Exception {
+        BufferedImage image = noise(BufferedImage.TYPE_INT_RGB, 3);
+        byte[] png = write(image);
+        assertThrows(IllegalArgumentException.class,
+                () -> PngBandWriter.update(png, header(image), new byte[WIDTH * HEIGHT / 8 + 1]));
+    }
+
+    @Test
+    void headerOtherThanTheAdmittedOneIsRefused() throws Exception {
+        BufferedImage image = noise(BufferedImage.TYPE_INT_RGB, 4);
+        byte[] png = write(image);
+        assertNull(PngBandWriter.update(png, new ImageHeader("png", WIDTH, HEIGHT - 1, 24), new byte[1]));
+        assertNull(PngBandWriter.update(png, new ImageHeader("png", WIDTH, HEIGHT, 32), new byte[1]));
+    }
+
+    @Test
+    void malformedChunksAreRefused() throws Exception {
+        BufferedImage image = noise(BufferedImage.TYPE_INT_RGB, 5);
+        ImageHeader header = header(image);
+        byte[] png = write(image);
+
+        // Chunk lengths past the end of the file, including one that overflows an int offset
+        byte[] truncated = Arrays.copyOf(png, png.length - 20);
+        assertNull(PngBandWriter.update(truncated, header, new byte[1]));
+        byte[] overflowing = png.clone();
+        writeInt(overflowing, chunk(png, "IDAT"), Integer.MAX_VALUE - 4);
+        assertNull(PngBandWriter.update(overflowing, header, new byte[1]));
+
+        // A second IHDR, declaring a larger image than the one admitted
+        byte[] ihdr = Arrays.copyOfRange(png, 8, 8 + 25);
+        writeInt(ihdr, 8, 1 << 20);
+        assertNull(PngBandWriter.update(insert(png, chunk(png, "IDAT"), ihdr), header, new byte[1]));
+
+        // A chunk before the IHDR
+        byte[] text = Arrays.copyOfRange(png, 8, 8 + 25);
+        System.arraycopy("tEXt".getBytes(StandardCharsets.US_ASCII), 0, text, 4, 4);
+        assertNull(PngBandWriter.update(insert(png, 8, text), header, new byte[1]));
+
+        // Bands larger than allowed
+        byte[] oversized = png.clone();
+        writeInt(oversized, chunk(png, "sgBX") + 8, PngBandWriter.MAX_BAND_ROWS + 1);
+        assertNull(PngBandWriter.update(oversized, header, new byte[1]));
+
+        // A band checksum that does not add up to the stream checksum
+        byte[] forged = png.clone();
+        forged[chunk(png, "sgBX") + 16] ^= 1;
+        assertNull(PngBandWriter.update(forged, header, new byte[1]));
+
+        // Not a PNG
+        assertNull(PngBandWriter.update(new byte[]{1, 2, 3}, header, new byte[1]));
+    }
+
+    @Test
+    void combinedChecksumIsTheChecksumOfTheConcatenation() {
+        Random random = new Random(6);
+        for (int length1 : new int[]{0, 1, 100, 70_000}) {
+            for (int length2 : new int[]{0, 1, 5_552, 65_521, 200_000}) {
+                byte[] first = new byte[length1];
+                byte[] second = new byte[length2];
+                random.nextBytes(first);
+                random.nextBytes(second);
+                Adler32 whole = new Adler32();
+                whole.update(first);
+                whole.update(second);
+                assertEquals(whole.getValue(), PngBandWriter.combine(adler(first), adler(second), length2),
+                        length1 + " then " + length2 + " bytes");
+            }
+        }
+    }
+
+    private static BufferedImage noise(int type, long seed) {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, type);
+        Random random = new Random(seed);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                // Smooth runs as well as noise, so that every filter type is chosen somewhere
+                image.setRGB(x, y, x < WIDTH / 2 ? random.nextInt() : 0xff000000 | (x * 2) << 16 | y << 8 | x + y);
+            }
+        }
+        return image;
+    }
+
+    private static byte[] write(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PngBandWriter.write(image, BAND_ROWS, out);
+        return out.toByteArray();
+    }
+
+    private static ImageHeader header(BufferedImage image) {
+        return new ImageHeader("png", image.getWidth(), image.getHeight(), image.getColorModel().hasAlpha() ? 32 : 24);
+    }
+
+    private static long adler(byte[] bytes) {
+        Adler32 adler = new Adler32();
+        adler.update(bytes);
+        return adler.getValue();
+    }
+
+    /**
+     * Inflates the image data as one zlib stream, which checks its Adler-32.
+     *
+     * @return the length of the inflated data
+     */
+    private static int inflatedLength(byte[] png) throws DataFormatException {
+        ByteArrayOutputStream idat = new ByteArrayOutputStream();
+        for (int position = 8; position < png.length; ) {
+            int length = readInt(png, position);
+            if (new String(png, position + 4, 4, StandardCharsets.US_ASCII).equals("IDAT")) {
+                idat.write(png, position + 8, length);
+            }
+            position += length + 12;
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(idat.toByteArray());
+            byte[] buffer = new byte[8192];
+            int total = 0;
+            while (!inflater.finished()) {
+                int inflated = inflater.inflate(buffer);
+                assertTrue(inflated > 0 || !inflater.needsInput(), "truncated image data");
+                total += inflated;
+            }
+            return total;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * @return the offset of the first chunk of this type
+     */
+    private static int chunk(byte[] png, String type) {
+        for (int position = 8; position < png.length; position += readInt(png, position) + 12) {
+            if (new String(png, position + 4, 4, StandardCharsets.US_ASCII).equals(type)) {
+                return position;
+            }
+        }
+        throw new AssertionError("no " + type + " chunk");
+    }
+
+    private static byte[] insert(byte[] png, int offset, byte[] chunk) {
+        byte[] result = new byte[png.length + chunk.length];
+        System.arraycopy(png, 0, result, 0, offset);
+        System.arraycopy(chunk, 0, result, offset, chunk.length);
+        System.arraycopy(png, offset, result, offset + chunk.length, png.length - offset);
+        return result;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16
+                | (bytes[offset + 2] & 0xff) << 8 | (bytes[offset + 3] & 0xff);
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+}